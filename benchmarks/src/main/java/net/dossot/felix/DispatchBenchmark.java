@@ -0,0 +1,120 @@
+//
+//    Felix the Chat
+//
+//    Copyright (c) 2001-2002 David Dossot
+//
+//    Permission is hereby granted, free of charge, to any person obtaining a copy
+//    of this software and associated documentation files (the "Software"), to deal
+//    in the Software without restriction, including without limitation the rights
+//    to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//    copies of the Software, and to permit persons to whom the Software is
+//    furnished to do so, subject to the following conditions:
+//
+//    The above copyright notice and this permission notice shall be included in
+//    all copies or substantial portions of the Software.
+//
+//    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//    IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//    FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//    AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//    LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//    OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+//    THE SOFTWARE.
+//
+
+package net.dossot.felix;
+
+import java.util.Hashtable;
+import java.util.Vector;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Fan-out of ChatServer.dispatchMessage, with the delivery lanes replaced by a counting sink: this
+ * measures the dispatching itself (locks, lookups, journal) and not the queues or the sockets.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DispatchBenchmark
+{
+    @Param({"10", "100", "1000"})
+    public int users;
+
+    private SinkServer server;
+    private Vector group;
+
+    /** A server whose recipients are sinks counting the messages. */
+    static class SinkServer extends ChatServer
+    {
+        long sent = 0;
+
+        SinkServer()
+        {
+            super(0);
+        }
+
+        @Override
+        protected boolean deliver(final String recipient, final ChatMessage message, final int lane)
+        {
+            sent++;
+            return true;
+        }
+    }
+
+    @Setup
+    public void setUp()
+    {
+        server = new SinkServer();
+        final Hashtable logguedUsers = new Hashtable();
+        for (int i = 0; i < users; i++)
+        {
+            final Vector endpoint = new Vector();
+            endpoint.add("10.0." + (i / 250) + "." + (i % 250));
+            endpoint.add(Integer.valueOf(7001));
+            logguedUsers.put("user" + i, endpoint);
+        }
+        server.setLogguedUsers(logguedUsers);
+
+        group = new Vector();
+        for (int i = 1; i <= 5; i++)
+            group.add("user" + (i * users / 6));
+    }
+
+    @Benchmark
+    public long broadcast()
+    {
+        server.dispatchMessage(new ChatMessage(new Boolean(false), "user0", new Vector(), "Hello all"));
+        return server.sent;
+    }
+
+    @Benchmark
+    public long group()
+    {
+        server.dispatchMessage(new ChatMessage(new Boolean(false), "user0", group, "Hello group"));
+        return server.sent;
+    }
+
+    @Benchmark
+    public long privateMessage()
+    {
+        final Vector recipient = new Vector();
+        recipient.add("user" + (users - 1));
+        server.dispatchMessage(new ChatMessage(new Boolean(false), "user0", recipient, "Hello you"));
+        return server.sent;
+    }
+}
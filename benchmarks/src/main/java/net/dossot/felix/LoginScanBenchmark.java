@@ -0,0 +1,85 @@
+//
+//    Felix the Chat
+//
+//    Copyright (c) 2001-2002 David Dossot
+//
+//    Permission is hereby granted, free of charge, to any person obtaining a copy
+//    of this software and associated documentation files (the "Software"), to deal
+//    in the Software without restriction, including without limitation the rights
+//    to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//    copies of the Software, and to permit persons to whom the Software is
+//    furnished to do so, subject to the following conditions:
+//
+//    The above copyright notice and this permission notice shall be included in
+//    all copies or substantial portions of the Software.
+//
+//    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//    IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//    FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//    AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//    LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//    OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+//    THE SOFTWARE.
+//
+
+package net.dossot.felix;
+
+import java.util.Hashtable;
+import java.util.Vector;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The scan of the loggued users done at each login, looking for a previous user with the same IP
+ * address and port. The endpoint is new, as for most logins, so the whole table is scanned and nothing
+ * is removed.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoginScanBenchmark
+{
+    @Param({"10", "100", "1000", "10000"})
+    public int users;
+
+    private Hashtable logguedUsers;
+    private Vector endpoint;
+
+    @Setup
+    public void setUp()
+    {
+        logguedUsers = new Hashtable();
+        for (int i = 0; i < users; i++)
+        {
+            final Vector userEndpoint = new Vector();
+            userEndpoint.add("10.0." + (i / 250) + "." + (i % 250));
+            userEndpoint.add(Integer.valueOf(7001));
+            logguedUsers.put("user" + i, userEndpoint);
+        }
+
+        endpoint = new Vector();
+        endpoint.add("10.1.0.1");
+        endpoint.add(Integer.valueOf(7001));
+    }
+
+    @Benchmark
+    public int scan()
+    {
+        ChatServerThread.discardEndpoint(logguedUsers, endpoint);
+        return logguedUsers.size();
+    }
+}
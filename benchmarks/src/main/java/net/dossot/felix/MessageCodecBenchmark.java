@@ -0,0 +1,98 @@
+//
+//    Felix the Chat
+//
+//    Copyright (c) 2001-2002 David Dossot
+//
+//    Permission is hereby granted, free of charge, to any person obtaining a copy
+//    of this software and associated documentation files (the "Software"), to deal
+//    in the Software without restriction, including without limitation the rights
+//    to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//    copies of the Software, and to permit persons to whom the Software is
+//    furnished to do so, subject to the following conditions:
+//
+//    The above copyright notice and this permission notice shall be included in
+//    all copies or substantial portions of the Software.
+//
+//    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//    IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//    FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//    AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//    LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//    OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+//    THE SOFTWARE.
+//
+
+package net.dossot.felix;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Vector;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Serialization and deserialization of a ChatMessage, the way it travels on each connection: a new
+ * object stream per message.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageCodecBenchmark
+{
+    @Param({"0", "10", "100"})
+    public int recipients;
+
+    @Param({"16", "1024"})
+    public int contentsLength;
+
+    private ChatMessage message;
+    private byte[] encoded;
+
+    @Setup
+    public void setUp() throws Exception
+    {
+        final Vector recipientList = new Vector();
+        for (int i = 0; i < recipients; i++)
+            recipientList.add("user" + i);
+
+        final StringBuffer contents = new StringBuffer();
+        while (contents.length() < contentsLength)
+            contents.append('x');
+
+        message = new ChatMessage(new Boolean(false), "sender", recipientList, contents.toString());
+        encoded = encode();
+    }
+
+    @Benchmark
+    public byte[] encode() throws Exception
+    {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+        final ObjectOutputStream oos = new ObjectOutputStream(bytes);
+        oos.writeObject(message);
+        oos.close();
+        return bytes.toByteArray();
+    }
+
+    @Benchmark
+    public Object decode() throws Exception
+    {
+        final ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(encoded));
+        return ois.readObject();
+    }
+}
@@ -0,0 +1,161 @@
+//
+//    Felix the Chat
+//
+//    Copyright (c) 2001-2002 David Dossot
+//
+//    Permission is hereby granted, free of charge, to any person obtaining a copy
+//    of this software and associated documentation files (the "Software"), to deal
+//    in the Software without restriction, including without limitation the rights
+//    to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//    copies of the Software, and to permit persons to whom the Software is
+//    furnished to do so, subject to the following conditions:
+//
+//    The above copyright notice and this permission notice shall be included in
+//    all copies or substantial portions of the Software.
+//
+//    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//    IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//    FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//    AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//    LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//    OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+//    THE SOFTWARE.
+//
+
+package net.dossot.felix.bench;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Hashtable;
+
+import net.dossot.felix.ChatServer;
+
+/**
+ * Startup time of the standard GUI: starts a local server, then the GUI client in a new JVM several
+ * times, and reports the time from the start of the JVM until the first paint of the window, until
+ * the client is loggued and until the icons, sounds and emoticons are loaded.
+ * <p>
+ * Usage: <code>java -cp benchmarks.jar net.dossot.felix.bench.ClientStartupBenchmark {$runs}
+ * {$clientOptions...}</code>
+ * </p>
+ * <p>
+ * Needs a display. The client options, such as <code>-noAppletSounds</code>, are passed to each
+ * client.
+ * </p>
+ */
+public class ClientStartupBenchmark
+{
+    private final static int PORT = 24800;
+    private final static long TIMEOUT = 30000;
+    private final static String[] STEPS = {"first_paint", "logged_in", "resources_loaded"};
+
+    public static void main(final String[] args) throws Exception
+    {
+        final int runs = (args.length > 0) ? Integer.parseInt(args[0]) : 5;
+        final String[] clientOptions = new String[Math.max(0, args.length - 1)];
+        System.arraycopy(args, Math.min(1, args.length), clientOptions, 0, clientOptions.length);
+
+        final Process server = start(ChatServer.class.getName(), new String[]{String.valueOf(PORT)}, false);
+        try
+        {
+            waitForPort(PORT);
+            final long[][] times = new long[STEPS.length][runs];
+            for (int run = 0; run < runs; run++)
+            {
+                final Hashtable steps = startClient("startup" + run, clientOptions);
+                System.out.print("Run " + run + ":");
+                for (int i = 0; i < STEPS.length; i++)
+                {
+                    final Long time = (Long) steps.get(STEPS[i]);
+                    times[i][run] = (time == null) ? -1 : time.longValue();
+                    System.out.print(" " + STEPS[i] + "=" + ((time == null) ? "none" : time + " ms"));
+                }
+                System.out.println();
+            }
+
+            System.out.println("\nMedian over " + runs + " run(s), from the start of the JVM:");
+            for (int i = 0; i < STEPS.length; i++)
+            {
+                Arrays.sort(times[i]);
+                System.out.println("  " + STEPS[i] + ": " + times[i][runs / 2] + " ms");
+            }
+        }
+        finally
+        {
+            server.destroy();
+            server.waitFor();
+        }
+        System.exit(0);
+    }
+
+    /** Start a client and read its startup times, until all of them are known. */
+    private static Hashtable startClient(final String user, final String[] clientOptions) throws Exception
+    {
+        final String[] clientArgs = new String[clientOptions.length + 4];
+        clientArgs[0] = user;
+        clientArgs[1] = "localhost";
+        clientArgs[2] = String.valueOf(PORT);
+        clientArgs[3] = "-startupTimes";
+        System.arraycopy(clientOptions, 0, clientArgs, 4, clientOptions.length);
+
+        final Process client = start("net.dossot.felix.ui.Client", clientArgs, true);
+        final Hashtable steps = new Hashtable();
+        try
+        {
+            final BufferedReader output = new BufferedReader(new InputStreamReader(client.getInputStream()));
+            final long deadline = System.currentTimeMillis() + TIMEOUT;
+            String line;
+            while ((steps.size() < STEPS.length) && (System.currentTimeMillis() < deadline)
+                   && ((line = output.readLine()) != null))
+            {
+                // startup {$step}_ms={$time}
+                if (line.startsWith("startup "))
+                    steps.put(line.substring(8, line.indexOf("_ms=")),
+                        Long.valueOf(line.substring(line.indexOf("_ms=") + 4)));
+            }
+        }
+        finally
+        {
+            client.destroy();
+            client.waitFor();
+        }
+        return steps;
+    }
+
+    private static Process start(final String mainClass, final String[] args, final boolean readOutput)
+        throws Exception
+    {
+        final String[] command = new String[args.length + 4];
+        command[0] = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        command[1] = "-cp";
+        command[2] = System.getProperty("java.class.path");
+        command[3] = mainClass;
+        System.arraycopy(args, 0, command, 4, args.length);
+
+        final ProcessBuilder pb = new ProcessBuilder(command);
+        pb.redirectErrorStream(true);
+        if (!readOutput) pb.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+        return pb.start();
+    }
+
+    private static void waitForPort(final int port) throws Exception
+    {
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (true)
+        {
+            try
+            {
+                new Socket("localhost", port).close();
+                return;
+            }
+            catch (final Exception e)
+            {
+                if (System.currentTimeMillis() > deadline) throw e;
+                Thread.sleep(100);
+            }
+        }
+    }
+}
@@ -0,0 +1,183 @@
+//
+//    Felix the Chat
+//
+//    Copyright (c) 2001-2002 David Dossot
+//
+//    Permission is hereby granted, free of charge, to any person obtaining a copy
+//    of this software and associated documentation files (the "Software"), to deal
+//    in the Software without restriction, including without limitation the rights
+//    to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//    copies of the Software, and to permit persons to whom the Software is
+//    furnished to do so, subject to the following conditions:
+//
+//    The above copyright notice and this permission notice shall be included in
+//    all copies or substantial portions of the Software.
+//
+//    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//    IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//    FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//    AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//    LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//    OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+//    THE SOFTWARE.
+//
+
+package net.dossot.felix.bench;
+
+import java.io.File;
+import java.net.Socket;
+import java.util.Vector;
+
+import net.dossot.felix.ChatClient;
+import net.dossot.felix.ChatMessage;
+import net.dossot.felix.ChatServer;
+import net.dossot.felix.ChatUIImpl;
+
+/**
+ * Failover drill: starts a primary server and its standby as local processes, sends traffic through
+ * them, kills the primary in the middle and measures how long the chat is interrupted.
+ * <p>
+ * Usage: <code>java -cp benchmarks.jar net.dossot.felix.bench.FailoverDrill {$recipients}
+ * {$failoverTimeout}</code>
+ * </p>
+ * <p>
+ * The drill fails (exit code 1) if the messages do not reach the recipients again through the
+ * standby within 30 seconds after the kill.
+ * </p>
+ * 
+ * @see net.dossot.felix.ChatStandby
+ */
+public class FailoverDrill
+{
+    private final static int PRIMARY_PORT = 23000;
+    private final static int STANDBY_PORT = 23500;
+    private final static int REPLICATION_PORT = 23900;
+    private final static long SEND_PERIOD = 50;
+    private final static long WARMUP = 3000;
+    private final static long RECOVERY_TIMEOUT = 30000;
+
+    public static void main(final String[] args) throws Exception
+    {
+        final int recipients = (args.length > 0) ? Integer.parseInt(args[0]) : 5;
+        final String failoverTimeout = (args.length > 1) ? args[1] : "2000";
+
+        final Process primary = startServer(String.valueOf(PRIMARY_PORT), "-replicate",
+            String.valueOf(REPLICATION_PORT));
+        Process standby = null;
+        try
+        {
+            waitForPort(PRIMARY_PORT);
+            standby = startServer(String.valueOf(STANDBY_PORT), "-standby", "localhost:" + REPLICATION_PORT,
+                "-failoverTimeout", failoverTimeout);
+
+            final ArrivalRecorder recorder = new ArrivalRecorder();
+            for (int i = 0; i < recipients; i++)
+                if (!new ChatClient("recipient" + i, "localhost", PRIMARY_PORT, recorder).requestLogin())
+                    throw new IllegalStateException("Can not log in recipient " + i);
+            final ChatClient sender = new ChatClient("sender", "localhost", PRIMARY_PORT, new ChatUIImpl());
+            if (!sender.requestLogin()) throw new IllegalStateException("Can not log in the sender");
+
+            int sent = 0;
+            int failed = 0;
+            int id = 0;
+            long killTime = 0;
+            final long start = System.currentTimeMillis();
+
+            while (true)
+            {
+                final long now = System.currentTimeMillis();
+                if ((killTime == 0) && (now - start > WARMUP))
+                {
+                    System.out.println("Killing the primary after " + sent + " message(s).");
+                    primary.destroyForcibly();
+                    killTime = System.currentTimeMillis();
+                }
+
+                if (sender.sendMessage(false, new Vector(), "failover:" + (id++), "ack"))
+                    sent++;
+                else
+                    failed++;
+
+                if ((killTime > 0) && (recorder.getLastArrival() > killTime)) break;
+                if ((killTime > 0) && (now - killTime > RECOVERY_TIMEOUT))
+                {
+                    System.out.println("FAILED: no message delivered by the standby after "
+                                       + (RECOVERY_TIMEOUT / 1000) + " s.");
+                    System.exit(1);
+                }
+                Thread.sleep(SEND_PERIOD);
+            }
+
+            System.out.println("Chat interrupted for " + (recorder.getLastArrival() - killTime) + " ms.");
+            System.out.println(sent + " message(s) accepted, " + failed + " refused while no server was up, "
+                               + recorder.getArrivals() + " deliveries for " + recipients + " recipient(s).");
+            System.exit(0);
+        }
+        finally
+        {
+            primary.destroyForcibly();
+            if (standby != null) standby.destroyForcibly();
+        }
+    }
+
+    private static Process startServer(final String... args) throws Exception
+    {
+        final String[] command = new String[args.length + 4];
+        command[0] = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        command[1] = "-cp";
+        command[2] = System.getProperty("java.class.path");
+        command[3] = ChatServer.class.getName();
+        System.arraycopy(args, 0, command, 4, args.length);
+
+        final ProcessBuilder pb = new ProcessBuilder(command);
+        pb.redirectErrorStream(true);
+        final File log = File.createTempFile("felix-failover-" + args[0] + "-", ".log");
+        pb.redirectOutput(log);
+        System.out.println("Server " + args[0] + " logs to " + log);
+        return pb.start();
+    }
+
+    private static void waitForPort(final int port) throws Exception
+    {
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (true)
+        {
+            try
+            {
+                new Socket("localhost", port).close();
+                return;
+            }
+            catch (final Exception e)
+            {
+                if (System.currentTimeMillis() > deadline) throw e;
+                Thread.sleep(100);
+            }
+        }
+    }
+
+    /** GUI shared by all the recipients, recording the arrival of the drill messages. */
+    static class ArrivalRecorder extends ChatUIImpl
+    {
+        private int arrivals = 0;
+        private long lastArrival = 0;
+
+        @Override
+        public synchronized void ShowMessage(final ChatMessage message)
+        {
+            if ((message.getService().booleanValue()) || (!message.getContents().startsWith("failover:"))) return;
+
+            arrivals++;
+            lastArrival = System.currentTimeMillis();
+        }
+
+        synchronized int getArrivals()
+        {
+            return arrivals;
+        }
+
+        synchronized long getLastArrival()
+        {
+            return lastArrival;
+        }
+    }
+}
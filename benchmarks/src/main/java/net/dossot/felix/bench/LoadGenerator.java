@@ -0,0 +1,459 @@
+//
+//    Felix the Chat
+//
+//    Copyright (c) 2001-2002 David Dossot
+//
+//    Permission is hereby granted, free of charge, to any person obtaining a copy
+//    of this software and associated documentation files (the "Software"), to deal
+//    in the Software without restriction, including without limitation the rights
+//    to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//    copies of the Software, and to permit persons to whom the Software is
+//    furnished to do so, subject to the following conditions:
+//
+//    The above copyright notice and this permission notice shall be included in
+//    all copies or substantial portions of the Software.
+//
+//    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//    IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//    FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//    AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//    LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//    OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+//    THE SOFTWARE.
+//
+
+package net.dossot.felix.bench;
+
+import java.io.File;
+import java.net.Socket;
+import java.util.Random;
+import java.util.StringTokenizer;
+import java.util.Vector;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.dossot.felix.ChatClient;
+import net.dossot.felix.ChatMessage;
+import net.dossot.felix.ChatServer;
+import net.dossot.felix.ChatUIImpl;
+import net.dossot.felix.HopStatistics;
+import net.dossot.felix.LatencyHistogram;
+
+/**
+ * Headless load generator: logs in many simulated users on a chat server, all at once like on a
+ * Monday morning, then makes them chat with a mix of public, private, group and room messages, room
+ * churn (join/leave) and login churn (logout/login).
+ * <p>
+ * Usage: <code>java -cp benchmarks.jar net.dossot.felix.bench.LoadGenerator {-host $host} {-port $port}
+ * {-spawn} {-users $n} {-loginThreads $n} {-senders $n} {-rate $messagesPerSecond} {-duration $seconds}
+ * {-rooms $n} {-mix $public:$private:$group:$room:$roomChurn:$loginChurn} {-traceHops} {-stream}</code>
+ * </p>
+ * <p>
+ * With <code>-spawn</code>, a server is started as a local process on the port and stopped at the
+ * end. The delivery latency is measured from the date the message was sent, so the simulated users
+ * must run on one machine (they do). With <code>-traceHops</code>, the messages are traced and the
+ * latency is also broken down per hop. With <code>-stream</code>, the users receive their messages as
+ * a stream, over one connection each. A user is counted as sniped when the server has dropped it from
+ * the list of users while it was loggued.
+ * </p>
+ */
+public class LoadGenerator
+{
+    private final static String PREFIX = "load:";
+    private final static String LOST = "Your message has been lost";
+    private final static long SETTLE_TIME = 3000;
+
+    private final static int PUBLIC = 0;
+    private final static int PRIVATE = 1;
+    private final static int GROUP = 2;
+    private final static int ROOM = 3;
+    private final static int ROOM_CHURN = 4;
+    private final static int LOGIN_CHURN = 5;
+    private final static String[] ACTIONS = {"public", "private", "group", "room", "room churn", "login churn"};
+
+    private String host = "localhost";
+    private int port = 7000;
+    private boolean spawn = false;
+    private int users = 1000;
+    private int loginThreads = 50;
+    private int senders = 10;
+    private int rate = 100;
+    private int duration = 30;
+    private int rooms = 5;
+    private int[] mix = {30, 40, 10, 10, 5, 5};
+    private boolean traceHops = false;
+    private boolean stream = false;
+
+    private SimulatedUser[] simulatedUsers;
+    private final LatencyHistogram loginLatency = new LatencyHistogram();
+    private final LatencyHistogram deliveryLatency = new LatencyHistogram();
+    private final HopStatistics hopStatistics = new HopStatistics();
+    private final AtomicInteger[] actions = new AtomicInteger[ACTIONS.length];
+    private final AtomicInteger failedSends = new AtomicInteger();
+    private final AtomicInteger lostMessages = new AtomicInteger();
+    private final AtomicInteger failedLogins = new AtomicInteger();
+    private final AtomicLong deliveries = new AtomicLong();
+
+    public static void main(final String[] args) throws Exception
+    {
+        final LoadGenerator generator = new LoadGenerator();
+        for (int i = 0; i < args.length; i++)
+        {
+            if (args[i].equals("-host"))
+                generator.host = args[++i];
+            else if (args[i].equals("-port"))
+                generator.port = Integer.parseInt(args[++i]);
+            else if (args[i].equals("-spawn"))
+                generator.spawn = true;
+            else if (args[i].equals("-users"))
+                generator.users = Integer.parseInt(args[++i]);
+            else if (args[i].equals("-loginThreads"))
+                generator.loginThreads = Integer.parseInt(args[++i]);
+            else if (args[i].equals("-senders"))
+                generator.senders = Integer.parseInt(args[++i]);
+            else if (args[i].equals("-rate"))
+                generator.rate = Integer.parseInt(args[++i]);
+            else if (args[i].equals("-duration"))
+                generator.duration = Integer.parseInt(args[++i]);
+            else if (args[i].equals("-rooms"))
+                generator.rooms = Integer.parseInt(args[++i]);
+            else if (args[i].equals("-mix"))
+                generator.mix = parseMix(args[++i]);
+            else if (args[i].equals("-traceHops"))
+                generator.traceHops = true;
+            else if (args[i].equals("-stream"))
+                generator.stream = true;
+            else
+            {
+                System.out.println("Unknown option: " + args[i]);
+                System.exit(1);
+            }
+        }
+
+        Process server = null;
+        try
+        {
+            if (generator.spawn) server = startServer(generator.port);
+            generator.run();
+        }
+        finally
+        {
+            if (server != null) server.destroy();
+        }
+        System.exit(0);
+    }
+
+    private static int[] parseMix(final String text)
+    {
+        final int[] result = new int[ACTIONS.length];
+        final StringTokenizer st = new StringTokenizer(text, ":");
+        for (int i = 0; (i < result.length) && (st.hasMoreTokens()); i++)
+            result[i] = Integer.parseInt(st.nextToken());
+        return result;
+    }
+
+    private void run() throws Exception
+    {
+        for (int i = 0; i < actions.length; i++)
+            actions[i] = new AtomicInteger();
+
+        System.out.println("Users: " + users + ", senders: " + senders + ", rate: " + rate + " msg/s, duration: "
+                           + duration + " s, mix " + mixToString() + (stream ? ", stream" : ""));
+
+        // the observer only listens, its list of users shows who has been sniped
+        final ChatUIImpl observerUI = new ChatUIImpl();
+        final ChatClient observer = new ChatClient("load-observer", host, port, observerUI, 0);
+        if (!observer.requestLogin()) throw new IllegalStateException("Can not log in on " + host + ":" + port);
+
+        loginStorm();
+        final long traffic = traffic();
+
+        Thread.sleep(SETTLE_TIME);
+        int sniped = 0;
+        final Vector remaining = observerUI.getUsersList();
+        for (int i = 0; i < simulatedUsers.length; i++)
+            if ((simulatedUsers[i].isLoggued()) && ((remaining == null)
+                                                    || (!remaining.contains(simulatedUsers[i].name))))
+                sniped++;
+
+        System.out.println();
+        System.out.println("Traffic: " + traffic + " ms");
+        for (int i = 0; i < ACTIONS.length; i++)
+            System.out.println("  " + ACTIONS[i] + ": " + actions[i].get());
+        System.out.println("  failed sends: " + failedSends.get() + ", lost in space: " + lostMessages.get());
+        System.out.println("  throughput: " + perSecond(sentCount(), traffic) + " msg/s sent, "
+                           + perSecond(deliveries.get(), traffic) + " msg/s delivered");
+        System.out.println("  delivery latency (ms): " + deliveryLatency);
+        if (traceHops) System.out.print("Hops:\n" + hopStatistics);
+        System.out.println("Sniped users: " + sniped);
+
+        for (int i = 0; i < simulatedUsers.length; i++)
+            simulatedUsers[i].logout();
+        observer.requestLogout();
+        observer.dispose();
+    }
+
+    private void loginStorm() throws Exception
+    {
+        simulatedUsers = new SimulatedUser[users];
+        for (int i = 0; i < users; i++)
+            simulatedUsers[i] = new SimulatedUser("user" + i);
+
+        final AtomicInteger next = new AtomicInteger();
+        final Thread[] threads = new Thread[loginThreads];
+        final long start = System.currentTimeMillis();
+        for (int t = 0; t < threads.length; t++)
+        {
+            threads[t] = new Thread("LoadGeneratorLogin")
+            {
+                @Override
+                public void run()
+                {
+                    int i;
+                    while ((i = next.getAndIncrement()) < simulatedUsers.length)
+                        simulatedUsers[i].login();
+                }
+            };
+            threads[t].start();
+        }
+        for (int t = 0; t < threads.length; t++)
+            threads[t].join();
+        final long elapsed = System.currentTimeMillis() - start;
+
+        System.out.println();
+        System.out.println("Login storm: " + users + " users in " + elapsed + " ms ("
+                           + perSecond(users - failedLogins.get(), elapsed) + " logins/s), failed: "
+                           + failedLogins.get());
+        System.out.println("  login latency (ms): " + loginLatency);
+    }
+
+    private long traffic() throws Exception
+    {
+        final long start = System.currentTimeMillis();
+        final long end = start + duration * 1000L;
+        final Thread[] threads = new Thread[senders];
+        for (int t = 0; t < threads.length; t++)
+        {
+            final long seed = start + t;
+            threads[t] = new Thread("LoadGeneratorSender")
+            {
+                @Override
+                public void run()
+                {
+                    final Random random = new Random(seed);
+                    // each sender takes its share of the rate
+                    final double period = (rate > 0) ? 1000.0 * senders / rate : 0;
+                    long next = System.currentTimeMillis();
+                    int count = 0;
+                    while (System.currentTimeMillis() < end)
+                    {
+                        simulatedUsers[random.nextInt(simulatedUsers.length)].act(pickAction(random), random);
+                        if (period > 0)
+                        {
+                            next = start + (long) (++count * period);
+                            final long wait = next - System.currentTimeMillis();
+                            if (wait > 0)
+                            {
+                                try
+                                {
+                                    Thread.sleep(wait);
+                                }
+                                catch (final InterruptedException e)
+                                {
+                                    return;
+                                }
+                            }
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (int t = 0; t < threads.length; t++)
+            threads[t].join();
+        return System.currentTimeMillis() - start;
+    }
+
+    private int pickAction(final Random random)
+    {
+        int total = 0;
+        for (int i = 0; i < mix.length; i++)
+            total += mix[i];
+        int pick = random.nextInt(Math.max(1, total));
+        for (int i = 0; i < mix.length; i++)
+        {
+            if (pick < mix[i]) return i;
+            pick -= mix[i];
+        }
+        return PUBLIC;
+    }
+
+    private Vector randomRecipients(final Random random, final int count, final String exclude)
+    {
+        final Vector result = new Vector();
+        while ((result.size() < count) && (result.size() < simulatedUsers.length - 1))
+        {
+            final String name = simulatedUsers[random.nextInt(simulatedUsers.length)].name;
+            if ((!name.equals(exclude)) && (!result.contains(name))) result.add(name);
+        }
+        return result;
+    }
+
+    private long sentCount()
+    {
+        return actions[PUBLIC].get() + actions[PRIVATE].get() + actions[GROUP].get() + actions[ROOM].get()
+               - failedSends.get();
+    }
+
+    private String mixToString()
+    {
+        final StringBuffer result = new StringBuffer();
+        for (int i = 0; i < ACTIONS.length; i++)
+            result.append((i > 0) ? ", " : "").append(ACTIONS[i]).append(' ').append(mix[i]);
+        return result.toString();
+    }
+
+    private static long perSecond(final long count, final long elapsed)
+    {
+        return (elapsed == 0) ? 0 : count * 1000 / elapsed;
+    }
+
+    private static Process startServer(final int port) throws Exception
+    {
+        final ProcessBuilder pb = new ProcessBuilder(System.getProperty("java.home") + File.separator + "bin"
+                                                     + File.separator + "java", "-cp",
+            System.getProperty("java.class.path"), ChatServer.class.getName(), String.valueOf(port));
+        pb.redirectErrorStream(true);
+        final File log = File.createTempFile("felix-load-" + port + "-", ".log");
+        pb.redirectOutput(log);
+        System.out.println("Server " + port + " logs to " + log);
+        final Process process = pb.start();
+
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (true)
+        {
+            try
+            {
+                new Socket("localhost", port).close();
+                return process;
+            }
+            catch (final Exception e)
+            {
+                if (System.currentTimeMillis() > deadline) throw e;
+                Thread.sleep(100);
+            }
+        }
+    }
+
+    /** A simulated user, with its own client and headless GUI recording the deliveries. */
+    class SimulatedUser extends ChatUIImpl
+    {
+        private final String name;
+        private ChatClient client = null;
+        private String room = null;
+
+        SimulatedUser(final String name)
+        {
+            this.name = name;
+        }
+
+        synchronized boolean isLoggued()
+        {
+            return client != null;
+        }
+
+        synchronized void login()
+        {
+            final long start = System.currentTimeMillis();
+            final ChatClient newClient = new ChatClient(name, host, port, this, 0);
+            newClient.setTraceHops(traceHops);
+            newClient.setStreamReceive(stream);
+            newClient.setHopStatistics(hopStatistics);
+            if (newClient.requestLogin())
+            {
+                client = newClient;
+                loginLatency.record(System.currentTimeMillis() - start);
+            }
+            else
+            {
+                newClient.dispose();
+                failedLogins.incrementAndGet();
+            }
+        }
+
+        synchronized void logout()
+        {
+            if (client == null) return;
+
+            client.requestLogout();
+            client.dispose();
+            client = null;
+            room = null;
+        }
+
+        synchronized void act(final int action, final Random random)
+        {
+            if (client == null)
+            {
+                // a failed login: try again
+                login();
+                return;
+            }
+
+            actions[action].incrementAndGet();
+            boolean sent = true;
+            final String contents = PREFIX + action;
+            switch (action)
+            {
+                case PRIVATE:
+                    sent = client.sendMessage(false, randomRecipients(random, 1, name), contents, "ack");
+                    break;
+                case GROUP:
+                    sent = client.sendMessage(false, randomRecipients(random, 2 + random.nextInt(4), name),
+                        contents, "ack");
+                    break;
+                case ROOM:
+                    if (room == null) joinRoom(random);
+                    sent = client.sendRoomMessage(room, new Vector(), contents);
+                    break;
+                case ROOM_CHURN:
+                    if (room == null)
+                        joinRoom(random);
+                    else
+                    {
+                        client.leaveRoom(room);
+                        room = null;
+                    }
+                    break;
+                case LOGIN_CHURN:
+                    logout();
+                    login();
+                    break;
+                default:
+                    sent = client.sendMessage(false, new Vector(), contents, "ack");
+            }
+            if (!sent) failedSends.incrementAndGet();
+        }
+
+        private void joinRoom(final Random random)
+        {
+            room = "room" + random.nextInt(Math.max(1, rooms));
+            client.joinRoom(room);
+        }
+
+        /** Record the latency of the messages of the other users, and count the lost messages. */
+        @Override
+        public void ShowMessage(final ChatMessage message)
+        {
+            if (message.getService().booleanValue())
+            {
+                if (message.getContents().startsWith(LOST)) lostMessages.incrementAndGet();
+            }
+            else if ((!message.getSender().equals(name)) && (message.getContents().startsWith(PREFIX)))
+            {
+                deliveries.incrementAndGet();
+                deliveryLatency.record(System.currentTimeMillis() - message.getDateSent().getTime());
+            }
+        }
+    }
+}
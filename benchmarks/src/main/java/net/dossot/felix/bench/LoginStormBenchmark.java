@@ -0,0 +1,205 @@
+//
+//    Felix the Chat
+//
+//    Copyright (c) 2001-2002 David Dossot
+//
+//    Permission is hereby granted, free of charge, to any person obtaining a copy
+//    of this software and associated documentation files (the "Software"), to deal
+//    in the Software without restriction, including without limitation the rights
+//    to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//    copies of the Software, and to permit persons to whom the Software is
+//    furnished to do so, subject to the following conditions:
+//
+//    The above copyright notice and this permission notice shall be included in
+//    all copies or substantial portions of the Software.
+//
+//    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//    IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//    FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//    AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//    LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//    OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+//    THE SOFTWARE.
+//
+
+package net.dossot.felix.bench;
+
+import java.io.File;
+import java.net.Socket;
+import java.util.Vector;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.dossot.felix.ChatClient;
+import net.dossot.felix.ChatServer;
+import net.dossot.felix.ChatUIImpl;
+
+/**
+ * Login storm benchmark: many clients log in at once on a local server, first with the presence
+ * announced for each login, then with the admission control and the batched presence, and the time
+ * until all of them are connected is compared.
+ * <p>
+ * Usage: <code>java -cp benchmarks.jar net.dossot.felix.bench.LoginStormBenchmark {$clients}
+ * {$loginThreads} {$presenceWindow} {$loginRate}</code>
+ * </p>
+ * <p>
+ * A client is connected when its login has been accepted and it has received a list holding all the
+ * clients. A refused login is retried after a short pause, like a user would do.
+ * </p>
+ */
+public class LoginStormBenchmark
+{
+    private final static int PORT = 24600;
+    private final static long RETRY_DELAY = 200;
+    private final static long TIMEOUT = 120000;
+
+    public static void main(final String[] args) throws Exception
+    {
+        final int clients = (args.length > 0) ? Integer.parseInt(args[0]) : 300;
+        final int loginThreads = (args.length > 1) ? Integer.parseInt(args[1]) : 100;
+        final String presenceWindow = (args.length > 2) ? args[2] : "200";
+        final String loginRate = (args.length > 3) ? args[3] : "200";
+
+        System.out.println("Login storm: " + clients + " clients, " + loginThreads + " login threads");
+        storm("presence per login", PORT, clients, loginThreads, "-presenceWindow", "0");
+        storm("batched, " + presenceWindow + " ms window, " + loginRate + " logins/s", PORT + 1, clients,
+            loginThreads, "-presenceWindow", presenceWindow, "-loginRate", loginRate);
+        System.exit(0);
+    }
+
+    private static void storm(final String name,
+                              final int port,
+                              final int clients,
+                              final int loginThreads,
+                              final String... serverArgs) throws Exception
+    {
+        final Process server = startServer(port, serverArgs);
+        try
+        {
+            final AtomicInteger connected = new AtomicInteger();
+            final AtomicLong lists = new AtomicLong();
+            final AtomicInteger loggued = new AtomicInteger();
+            final AtomicInteger retries = new AtomicInteger();
+            final long[] lastLogin = new long[1];
+            final ExecutorService pool = Executors.newFixedThreadPool(loginThreads);
+            final long start = System.currentTimeMillis();
+
+            for (int i = 0; i < clients; i++)
+            {
+                final String user = "storm" + i;
+                pool.execute(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        final ChatClient client = new ChatClient(user, "localhost", port, new Counter(clients,
+                            connected, lists), 0);
+                        while ((!client.requestLogin()) && (System.currentTimeMillis() - start < TIMEOUT))
+                        {
+                            retries.incrementAndGet();
+                            try
+                            {
+                                Thread.sleep(RETRY_DELAY);
+                            }
+                            catch (final InterruptedException e)
+                            {
+                                return;
+                            }
+                        }
+                        if (loggued.incrementAndGet() == clients)
+                            synchronized (lastLogin)
+                            {
+                                lastLogin[0] = System.currentTimeMillis();
+                            }
+                    }
+                });
+            }
+            pool.shutdown();
+            pool.awaitTermination(TIMEOUT, TimeUnit.MILLISECONDS);
+
+            while ((connected.get() < clients) && (System.currentTimeMillis() - start < TIMEOUT))
+                Thread.sleep(10);
+            final long allConnected = System.currentTimeMillis() - start;
+
+            System.out.println("\n" + name + ":");
+            synchronized (lastLogin)
+            {
+                System.out.println("  all logins accepted: "
+                                   + ((loggued.get() == clients) ? (lastLogin[0] - start) + " ms"
+                                       : "no, " + loggued.get()) + ", retries: " + retries.get());
+            }
+            System.out.println("  all connected: "
+                               + ((connected.get() == clients) ? allConnected + " ms" : "no, " + connected.get()));
+            System.out.println("  lists of users received: " + lists.get() + " (" + (lists.get() / clients)
+                               + " per client)");
+        }
+        finally
+        {
+            server.destroy();
+            server.waitFor();
+        }
+    }
+
+    private static Process startServer(final int port, final String... args) throws Exception
+    {
+        final String[] command = new String[args.length + 5];
+        command[0] = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        command[1] = "-cp";
+        command[2] = System.getProperty("java.class.path");
+        command[3] = ChatServer.class.getName();
+        command[4] = String.valueOf(port);
+        System.arraycopy(args, 0, command, 5, args.length);
+
+        final ProcessBuilder pb = new ProcessBuilder(command);
+        pb.redirectErrorStream(true);
+        final File log = File.createTempFile("felix-storm-" + port + "-", ".log");
+        pb.redirectOutput(log);
+        System.out.println("Server " + port + " logs to " + log);
+        final Process process = pb.start();
+
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (true)
+        {
+            try
+            {
+                new Socket("localhost", port).close();
+                return process;
+            }
+            catch (final Exception e)
+            {
+                if (System.currentTimeMillis() > deadline) throw e;
+                Thread.sleep(100);
+            }
+        }
+    }
+
+    /** GUI of a client, counting the lists of users until one holds all the clients. */
+    static class Counter extends ChatUIImpl
+    {
+        private final int clients;
+        private final AtomicInteger connected;
+        private final AtomicLong lists;
+        private boolean complete = false;
+
+        Counter(final int clients, final AtomicInteger connected, final AtomicLong lists)
+        {
+            this.clients = clients;
+            this.connected = connected;
+            this.lists = lists;
+        }
+
+        @Override
+        public synchronized void ShowListUsers(final Vector fullList)
+        {
+            lists.incrementAndGet();
+            if ((!complete) && (fullList != null) && (fullList.size() >= clients))
+            {
+                complete = true;
+                connected.incrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,224 @@
+//
+//    Felix the Chat
+//
+//    Copyright (c) 2001-2002 David Dossot
+//
+//    Permission is hereby granted, free of charge, to any person obtaining a copy
+//    of this software and associated documentation files (the "Software"), to deal
+//    in the Software without restriction, including without limitation the rights
+//    to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//    copies of the Software, and to permit persons to whom the Software is
+//    furnished to do so, subject to the following conditions:
+//
+//    The above copyright notice and this permission notice shall be included in
+//    all copies or substantial portions of the Software.
+//
+//    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//    IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//    FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//    AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//    LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//    OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+//    THE SOFTWARE.
+//
+
+package net.dossot.felix.bench;
+
+import java.io.File;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Vector;
+
+import net.dossot.felix.ChatClient;
+import net.dossot.felix.ChatMessage;
+import net.dossot.felix.ChatServer;
+import net.dossot.felix.ChatUIImpl;
+
+/**
+ * Compare the delivery latency of general messages in a cluster of local server processes, when the
+ * origin node sends one copy to each node (flat) and when the copies travel along a relay tree.
+ * <p>
+ * Usage: <code>java -cp benchmarks.jar net.dossot.felix.bench.RelayBenchmark {$nodes} {$clientsPerNode}
+ * {$messages} {$relayFanout}</code>
+ * </p>
+ * <p>
+ * For each mode, the benchmark starts the nodes, attaches the clients to them and sends the messages
+ * one after the other from an extra client of the first node. The latency of a message is the time
+ * until its last recipient has received it.
+ * </p>
+ * 
+ * @see net.dossot.felix.ChatCluster
+ */
+public class RelayBenchmark
+{
+    private final static int BASE_PORT = 21000;
+    private final static int CLUSTER_BASE_PORT = 29000;
+    private final static long TIMEOUT = 10000;
+    private final static String PREFIX = "relay-bench:";
+
+    public static void main(final String[] args) throws Exception
+    {
+        final int nodes = (args.length > 0) ? Integer.parseInt(args[0]) : 8;
+        final int clientsPerNode = (args.length > 1) ? Integer.parseInt(args[1]) : 5;
+        final int messages = (args.length > 2) ? Integer.parseInt(args[2]) : 100;
+        final int relayFanout = (args.length > 3) ? Integer.parseInt(args[3]) : 2;
+
+        System.out.println("Nodes: " + nodes + ", clients per node: " + clientsPerNode + ", messages: "
+                           + messages);
+        report("flat", run(nodes, clientsPerNode, messages, 0, 0));
+        report("tree (fan-out " + relayFanout + ")", run(nodes, clientsPerNode, messages, relayFanout, 1));
+    }
+
+    private static long[] run(final int nodes,
+                              final int clientsPerNode,
+                              final int messages,
+                              final int relayFanout,
+                              final int round) throws Exception
+    {
+        final int basePort = BASE_PORT + (round * nodes * 100);
+        final int clusterBasePort = CLUSTER_BASE_PORT + (round * nodes);
+        final StringBuffer peers = new StringBuffer();
+        for (int i = 0; i < nodes; i++)
+            peers.append((i > 0) ? "," : "").append("localhost:").append(clusterBasePort + i);
+
+        final Process[] processes = new Process[nodes];
+        try
+        {
+            for (int i = 0; i < nodes; i++)
+            {
+                final ProcessBuilder pb = new ProcessBuilder(System.getProperty("java.home") + File.separator
+                                                             + "bin" + File.separator + "java", "-cp",
+                    System.getProperty("java.class.path"), ChatServer.class.getName(),
+                    String.valueOf(basePort + (i * 100)), "-cluster", "localhost:" + (clusterBasePort + i),
+                    peers.toString(), "-relayFanout", String.valueOf(relayFanout));
+                pb.redirectErrorStream(true);
+                pb.redirectOutput(File.createTempFile("felix-relay-node-" + i + "-", ".log"));
+                processes[i] = pb.start();
+            }
+            for (int i = 0; i < nodes; i++)
+                waitForPort(basePort + (i * 100));
+
+            final DeliveryRecorder recorder = new DeliveryRecorder(messages);
+            for (int i = 0; i < nodes; i++)
+                for (int c = 0; c < clientsPerNode; c++)
+                    if (!new ChatClient("node" + i + "-user" + c, "localhost", basePort + (i * 100), recorder).requestLogin())
+                        throw new IllegalStateException("Can not log in on node " + i);
+
+            final ChatUIImpl senderUI = new ChatUIImpl();
+            final ChatClient sender = new ChatClient("origin", "localhost", basePort, senderUI);
+            if (!sender.requestLogin()) throw new IllegalStateException("Can not log in the sender");
+
+            // wait until the presence of all the users has reached the first node
+            final int expected = nodes * clientsPerNode;
+            final long deadline = System.currentTimeMillis() + TIMEOUT;
+            while (((senderUI.getUsersList() == null) || (senderUI.getUsersList().size() < expected + 1))
+                   && (System.currentTimeMillis() < deadline))
+                Thread.sleep(100);
+
+            final long[] latencies = new long[messages];
+            for (int m = 0; m < messages; m++)
+            {
+                final long start = System.nanoTime();
+                sender.sendMessage(false, new Vector(), PREFIX + m, "ack");
+                latencies[m] = recorder.await(m, expected, TIMEOUT) ? (recorder.getLastArrival(m) - start) : -1;
+            }
+            return latencies;
+        }
+        finally
+        {
+            for (int i = 0; i < nodes; i++)
+                if (processes[i] != null) processes[i].destroy();
+        }
+    }
+
+    private static void waitForPort(final int port) throws Exception
+    {
+        final long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (true)
+        {
+            try
+            {
+                new Socket("localhost", port).close();
+                return;
+            }
+            catch (final Exception e)
+            {
+                if (System.currentTimeMillis() > deadline) throw e;
+                Thread.sleep(100);
+            }
+        }
+    }
+
+    private static void report(final String mode, final long[] latencies)
+    {
+        int lost = 0;
+        long total = 0;
+        final long[] delivered = new long[latencies.length];
+        int count = 0;
+        for (int i = 0; i < latencies.length; i++)
+        {
+            if (latencies[i] < 0)
+                lost++;
+            else
+            {
+                delivered[count++] = latencies[i];
+                total += latencies[i];
+            }
+        }
+        final long[] sorted = Arrays.copyOf(delivered, count);
+        Arrays.sort(sorted);
+
+        System.out.println(mode + ": " + count + " delivered, " + lost + " incomplete");
+        if (count == 0) return;
+        System.out.println("    mean " + toMillis(total / count) + " ms, p50 " + toMillis(percentile(sorted, 50))
+                           + " ms, p90 " + toMillis(percentile(sorted, 90)) + " ms, p99 "
+                           + toMillis(percentile(sorted, 99)) + " ms, max " + toMillis(sorted[count - 1]) + " ms");
+    }
+
+    private static long percentile(final long[] sorted, final int percent)
+    {
+        return sorted[Math.min(sorted.length - 1, (sorted.length * percent) / 100)];
+    }
+
+    private static String toMillis(final long nanos)
+    {
+        return String.valueOf(nanos / 100000 / 10.0);
+    }
+
+    /** GUI shared by all the recipients, counting the deliveries of each benchmark message. */
+    static class DeliveryRecorder extends ChatUIImpl
+    {
+        private final int[] counts;
+        private final long[] lastArrivals;
+
+        DeliveryRecorder(final int messages)
+        {
+            counts = new int[messages];
+            lastArrivals = new long[messages];
+        }
+
+        @Override
+        public synchronized void ShowMessage(final ChatMessage message)
+        {
+            if ((message.getService().booleanValue()) || (!message.getContents().startsWith(PREFIX))) return;
+
+            final int id = Integer.parseInt(message.getContents().substring(PREFIX.length()));
+            counts[id]++;
+            lastArrivals[id] = System.nanoTime();
+            notifyAll();
+        }
+
+        synchronized boolean await(final int id, final int expected, final long timeout) throws InterruptedException
+        {
+            final long deadline = System.currentTimeMillis() + timeout;
+            while ((counts[id] < expected) && (System.currentTimeMillis() < deadline))
+                wait(Math.max(1, deadline - System.currentTimeMillis()));
+            return counts[id] >= expected;
+        }
+
+        synchronized long getLastArrival(final int id)
+        {
+            return lastArrivals[id];
+        }
+    }
+}
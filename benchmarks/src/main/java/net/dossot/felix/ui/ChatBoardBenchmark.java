@@ -0,0 +1,145 @@
+//
+//    Felix the Chat
+//
+//    Copyright (c) 2001-2002 David Dossot
+//
+//    Permission is hereby granted, free of charge, to any person obtaining a copy
+//    of this software and associated documentation files (the "Software"), to deal
+//    in the Software without restriction, including without limitation the rights
+//    to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//    copies of the Software, and to permit persons to whom the Software is
+//    furnished to do so, subject to the following conditions:
+//
+//    The above copyright notice and this permission notice shall be included in
+//    all copies or substantial portions of the Software.
+//
+//    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//    IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//    FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//    AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//    LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//    OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+//    THE SOFTWARE.
+//
+
+package net.dossot.felix.ui;
+
+import java.util.ListResourceBundle;
+import java.util.Vector;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.JEditorPane;
+
+import net.dossot.felix.ChatMessage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The chat board of the standard GUI: emoticon parsing of a typed message, and appending a message to
+ * a board holding a given number of messages, either by rendering the whole board again in the editor
+ * pane (as the GUI used to do) or by inserting the message in the document of a ChatBoard. Runs
+ * headless.
+ * <p>
+ * The incremental board grows during an iteration: it is rebuilt at the start of each one, and the
+ * iterations are kept to batches of 100 messages so that its size stays close to the parameter.
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class ChatBoardBenchmark
+{
+    @Param({"100", "1000", "10000"})
+    public int boardSize;
+
+    private MessageFormatter formatter;
+    private ChatMessage message;
+    private String boardContents;
+    private JEditorPane editMessages;
+    private ChatBoard chatBoard;
+
+    /** A typical set of emoticons, as found in emoticons.properties. */
+    public static class Emoticons extends ListResourceBundle
+    {
+        @Override
+        protected Object[][] getContents()
+        {
+            return new Object[][]{ {":-)", "smile.gif"}, {":)", "smile.gif"}, {":-(", "sad.gif"},
+                                  {":(", "sad.gif"}, {";-)", "wink.gif"}, {";)", "wink.gif"},
+                                  {":-D", "grin.gif"}, {":D", "grin.gif"}, {":-P", "tongue.gif"},
+                                  {":P", "tongue.gif"}, {":-O", "surprised.gif"}, {":'(", "cry.gif"},
+                                  {"8-)", "cool.gif"}, {":-*", "kiss.gif"}, {":-/", "puzzled.gif"},
+                                  {":-|", "neutral.gif"}, {"(y)", "thumbsup.gif"}, {"(n)", "thumbsdown.gif"},
+                                  {"<3", "heart.gif"}, {"(felix)", "felix.gif"}};
+        }
+    }
+
+    @Setup
+    public void setUp()
+    {
+        formatter = new MessageFormatter(new Emoticons());
+        message = new ChatMessage(new Boolean(false), "sender", new Vector(),
+            formatter.parseEmoticons("Hello there :-) how are you? (y)"));
+
+        final StringBuffer board = new StringBuffer();
+        for (int i = 0; i < boardSize; i++)
+            board.append(formatter.formatHTMLMessage(message, "black", "")).append("<br>");
+        boardContents = board.toString();
+        editMessages = new JEditorPane();
+        editMessages.setContentType("text/html");
+    }
+
+    @Benchmark
+    public String parseEmoticonsWithout()
+    {
+        return formatter.parseEmoticons("Nothing to see in this rather ordinary sentence of a chat message.");
+    }
+
+    @Benchmark
+    public String parseEmoticonsWith()
+    {
+        return formatter.parseEmoticons("Hi :-) I am back ;-) did you miss me :D (y) <3 8-) :P");
+    }
+
+    @Setup(Level.Iteration)
+    public void fillBoard()
+    {
+        chatBoard = new ChatBoard(new JEditorPane("text/html", ""));
+        for (int i = 0; i < boardSize; i++)
+            chatBoard.append(formatter.formatHTMLMessage(message, "black", ""));
+    }
+
+    @Benchmark
+    public int appendFullRender()
+    {
+        final StringBuffer chatBoard = new StringBuffer(boardContents);
+        chatBoard.append(formatter.formatHTMLMessage(message, "black", "")).append("<br>");
+        editMessages.setText("<font face='arial,helvetica'>" + chatBoard + "</font>");
+        return editMessages.getDocument().getLength();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 5, batchSize = 100)
+    @Measurement(iterations = 10, batchSize = 100)
+    public int appendIncremental()
+    {
+        chatBoard.append(formatter.formatHTMLMessage(message, "black", ""));
+        return chatBoard.getDocument().getLength();
+    }
+}
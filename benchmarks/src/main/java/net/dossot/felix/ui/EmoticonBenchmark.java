@@ -0,0 +1,141 @@
+//
+//    Felix the Chat
+//
+//    Copyright (c) 2001-2002 David Dossot
+//
+//    Permission is hereby granted, free of charge, to any person obtaining a copy
+//    of this software and associated documentation files (the "Software"), to deal
+//    in the Software without restriction, including without limitation the rights
+//    to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//    copies of the Software, and to permit persons to whom the Software is
+//    furnished to do so, subject to the following conditions:
+//
+//    The above copyright notice and this permission notice shall be included in
+//    all copies or substantial portions of the Software.
+//
+//    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//    IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//    FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//    AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//    LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//    OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+//    THE SOFTWARE.
+//
+
+package net.dossot.felix.ui;
+
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.ResourceBundle;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Emoticon parsing of a typed message with sets of emoticons of growing size: the typical set of
+ * ChatBoardBenchmark completed by custom emoticons such as "(custom42)". The compiled matcher of
+ * MessageFormatter is compared with the sequential replacement of each emoticon it replaced.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EmoticonBenchmark
+{
+    private final static String WITHOUT = "Nothing to see in this rather ordinary sentence of a chat message.";
+    private final static String WITH = "Hi :-) I am back ;-) did you miss me :D (y) <3 8-) :P (custom7) (felix)";
+
+    @Param({"20", "200", "2000"})
+    public int emoticonCount;
+
+    private Hashtable emoticons;
+    private MessageFormatter formatter;
+
+    @Setup
+    public void setUp()
+    {
+        emoticons = new Hashtable();
+        final ResourceBundle typical = new ChatBoardBenchmark.Emoticons();
+        for (final Enumeration e = typical.getKeys(); e.hasMoreElements();)
+        {
+            final String key = (String) e.nextElement();
+            emoticons.put(key, typical.getString(key));
+        }
+        for (int i = 0; emoticons.size() < emoticonCount; i++)
+            emoticons.put("(custom" + i + ")", "custom" + i + ".gif");
+
+        formatter = new MessageFormatter(new ResourceBundle()
+        {
+            @Override
+            protected Object handleGetObject(final String key)
+            {
+                return emoticons.get(key);
+            }
+
+            @Override
+            public Enumeration getKeys()
+            {
+                return emoticons.keys();
+            }
+        });
+    }
+
+    @Benchmark
+    public String compiledWithout()
+    {
+        return formatter.parseEmoticons(WITHOUT);
+    }
+
+    @Benchmark
+    public String compiledWith()
+    {
+        return formatter.parseEmoticons(WITH);
+    }
+
+    @Benchmark
+    public String sequentialWithout()
+    {
+        return parseSequential(WITHOUT);
+    }
+
+    @Benchmark
+    public String sequentialWith()
+    {
+        return parseSequential(WITH);
+    }
+
+    /** The parsing of MessageFormatter before the matcher: one replacement pass per emoticon. */
+    private String parseSequential(final String message)
+    {
+        String result = message;
+        for (final Enumeration e = emoticons.keys(); e.hasMoreElements();)
+        {
+            final String key = (String) e.nextElement();
+            final String image = "&nbsp;<img src='" + emoticons.get(key) + "'>&nbsp;";
+            StringBuffer textBuffer = new StringBuffer(result);
+            int position = 0;
+            while (true)
+            {
+                position = textBuffer.toString().indexOf(key, position);
+                if (position < 0) break;
+
+                textBuffer = textBuffer.replace(position, position + key.length(), image);
+                position += image.length();
+            }
+            result = textBuffer.toString();
+        }
+        return result;
+    }
+}
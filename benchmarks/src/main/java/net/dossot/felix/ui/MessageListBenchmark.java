@@ -0,0 +1,129 @@
+//
+//    Felix the Chat
+//
+//    Copyright (c) 2001-2002 David Dossot
+//
+//    Permission is hereby granted, free of charge, to any person obtaining a copy
+//    of this software and associated documentation files (the "Software"), to deal
+//    in the Software without restriction, including without limitation the rights
+//    to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//    copies of the Software, and to permit persons to whom the Software is
+//    furnished to do so, subject to the following conditions:
+//
+//    The above copyright notice and this permission notice shall be included in
+//    all copies or substantial portions of the Software.
+//
+//    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//    IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//    FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//    AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//    LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//    OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+//    THE SOFTWARE.
+//
+
+package net.dossot.felix.ui;
+
+import java.awt.Graphics;
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.util.Vector;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.JScrollPane;
+import javax.swing.RepaintManager;
+
+import net.dossot.felix.ChatMessage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The virtualized chat board of the standard GUI: painting a frame of a MessageList holding a given
+ * number of messages in a scroll pane, after scrolling by one line or after resizing the pane. One
+ * message out of 7 wraps over several lines. Runs headless, painting into an image.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class MessageListBenchmark
+{
+    private final static int WIDTH = 400;
+    private final static int HEIGHT = 300;
+
+    @Param({"1000", "100000"})
+    public int listSize;
+
+    private MessageList messageList;
+    private JScrollPane scrollPane;
+    private BufferedImage frame;
+    private int position = 0;
+    private int resize = 0;
+
+    @Setup
+    public void setUp()
+    {
+        final MessageFormatter formatter = new MessageFormatter(null);
+        final ChatMessage shortMessage = new ChatMessage(new Boolean(false), "sender", new Vector(), "Hello there");
+        final ChatMessage longMessage = new ChatMessage(new Boolean(false), "sender", new Vector(),
+            "A much longer message, that wraps over several lines of the board when it is not wide");
+
+        messageList = new MessageList();
+        for (int i = 0; i < listSize; i++)
+        {
+            final int type = i % MessageList.COLORS.length;
+            messageList.append(formatter.formatHTMLMessage((i % 7 == 0) ? longMessage : shortMessage,
+                MessageList.COLORS[type], ""), type);
+        }
+        scrollPane = new JScrollPane(messageList, JScrollPane.VERTICAL_SCROLLBAR_ALWAYS,
+            JScrollPane.HORIZONTAL_SCROLLBAR_NEVER);
+        scrollPane.setSize(WIDTH, HEIGHT);
+        layOut();
+        frame = new BufferedImage(WIDTH + 100, HEIGHT, BufferedImage.TYPE_INT_RGB);
+    }
+
+    @Benchmark
+    public int scrollOneLine()
+    {
+        position += 15;
+        if (position > messageList.getHeight() - HEIGHT) position = 0;
+        scrollPane.getViewport().setViewPosition(new Point(0, position));
+        return paint();
+    }
+
+    @Benchmark
+    public int resize()
+    {
+        resize = (resize + 1) % 100;
+        scrollPane.setSize(WIDTH + resize, HEIGHT);
+        layOut();
+        return paint();
+    }
+
+    private void layOut()
+    {
+        RepaintManager.currentManager(messageList).validateInvalidComponents();
+        scrollPane.doLayout();
+        scrollPane.getViewport().doLayout();
+    }
+
+    private int paint()
+    {
+        final Graphics g = frame.getGraphics();
+        scrollPane.paint(g);
+        g.dispose();
+        return messageList.getHeight();
+    }
+}
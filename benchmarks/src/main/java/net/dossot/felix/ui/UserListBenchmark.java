@@ -0,0 +1,122 @@
+//
+//    Felix the Chat
+//
+//    Copyright (c) 2001-2002 David Dossot
+//
+//    Permission is hereby granted, free of charge, to any person obtaining a copy
+//    of this software and associated documentation files (the "Software"), to deal
+//    in the Software without restriction, including without limitation the rights
+//    to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//    copies of the Software, and to permit persons to whom the Software is
+//    furnished to do so, subject to the following conditions:
+//
+//    The above copyright notice and this permission notice shall be included in
+//    all copies or substantial portions of the Software.
+//
+//    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//    IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//    FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//    AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//    LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//    OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+//    THE SOFTWARE.
+//
+
+package net.dossot.felix.ui;
+
+import java.util.Vector;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.JList;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The list of users of the standard GUI, with all the users selected: a user joins or leaves, and the
+ * new list of users is applied either by replacing the data of the list and selecting the previously
+ * selected users again (as the GUI used to do), or by updating a UserListModel. Runs headless.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class UserListBenchmark
+{
+    @Param({"200", "2000"})
+    public int userCount;
+
+    private Vector without;
+    private Vector with;
+    private boolean joined = false;
+    private JList replaced;
+    private JList incremental;
+    private UserListModel model;
+
+    @Setup
+    public void setUp()
+    {
+        without = new Vector();
+        for (int i = 0; i < userCount; i++)
+            without.add("user" + i);
+        with = new Vector(without);
+        with.add(userCount / 2, "newcomer");
+
+        replaced = new JList();
+        replaceUsers(without);
+        replaced.setSelectionInterval(0, replaced.getModel().getSize() - 1);
+
+        model = new UserListModel("me");
+        incremental = new JList(model);
+        model.update(without);
+        incremental.setSelectionInterval(0, model.getSize() - 1);
+    }
+
+    @Benchmark
+    public int joinOrLeaveReplace()
+    {
+        joined = !joined;
+        replaceUsers(joined ? with : without);
+        return replaced.getSelectedIndices().length;
+    }
+
+    @Benchmark
+    public int joinOrLeaveIncremental()
+    {
+        joined = !joined;
+        model.update(joined ? with : without);
+        return incremental.getSelectedIndices().length;
+    }
+
+    /** The update of the list of users before UserListModel, O(rows x selected users). */
+    private void replaceUsers(final Vector fullList)
+    {
+        final Object[] targets = replaced.getSelectedValues();
+        final Vector filteredList = new Vector();
+        for (int i = 0; i < fullList.size(); i++)
+            if (!fullList.get(i).equals("me")) filteredList.add(fullList.get(i));
+        replaced.setListData(filteredList);
+        for (int t = 0; t < targets.length; t++)
+        {
+            for (int i = 0; i < replaced.getModel().getSize(); i++)
+            {
+                if (replaced.getModel().getElementAt(i).equals(targets[t]))
+                {
+                    replaced.addSelectionInterval(i, i);
+                    break;
+                }
+            }
+        }
+    }
+}
@@ -24,6 +24,7 @@
 
 package net.dossot.felix;
 
+import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
@@ -31,6 +32,7 @@ import java.net.InetAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.util.Vector;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Main chat client class.
@@ -46,6 +48,7 @@ import java.util.Vector;
  * <p>
  * It is usually terminated like this:<br/>
  * <code>if (chatClient.requestLogout()) { ... }<br/>
+ * chatClient.dispose();<br/>
  * chatClient = null;</code>
  * </p>
  * 
@@ -57,8 +60,8 @@ import java.util.Vector;
 public class ChatClient
 {
     private String userName = null;
-    private String chatServerHost = null;
-    private final int chatServerPort;
+    private volatile String chatServerHost = null;
+    private volatile int chatServerPort;
 
     private Vector logguedUsers = null;
     private boolean loggued = false;
@@ -66,9 +69,20 @@ public class ChatClient
     private String chatClientHost = null;
 
     private ChatUI uiClient = null;
-    private Thread chatClientServerThread = null;
+    private ChatClientServerThread chatClientServerThread = null;
     private int port;
 
+    // messages received on one connection kept open by the server, read by a single thread
+    private volatile boolean streamReceive = false;
+    private ChatClientReader chatClientReader = null;
+
+    // latency breakdown of the received messages
+    private volatile boolean traceHops = false;
+    private volatile HopStatistics hopStatistics = new HopStatistics();
+
+    // messages sent without waiting, created on first use
+    private ChatOutbox outbox = null;
+
     /**
      * Initialize a chat client session. After connecting to the server socket, the client tries to
      * be a server itself on the base port + 1. If this port is not available, it will increment ten
@@ -84,6 +98,26 @@ public class ChatClient
                       final String iChatServerHost,
                       final int iPortNumber,
                       final ChatUI iuiClient)
+    {
+        this(iUserName, iChatServerHost, iPortNumber, iuiClient, -1);
+    }
+
+    /**
+     * Initialize a chat client session that is a server itself on a given port, which allows many
+     * clients on the same machine.
+     * 
+     * @param String iUserName Name of the user for the chat session.
+     * @param String iChatServerHost Name or IP address of the chat server.
+     * @param int iPortNumber Host port number.
+     * @param ChatUI iuiClient GUI to be used by this client instance.
+     * @param int iListeningPort Port where the server connects to the client, 0 for any free port, or
+     *            -1 to look for a free port after the host port number.
+     */
+    public ChatClient(final String iUserName,
+                      final String iChatServerHost,
+                      final int iPortNumber,
+                      final ChatUI iuiClient,
+                      final int iListeningPort)
     {
         userName = iUserName;
         chatServerHost = iChatServerHost;
@@ -99,18 +133,32 @@ public class ChatClient
             reportException("Can't find local address", e);
         }
 
-        final ChatMessage message = null;
-        while (true)
+        if (iListeningPort >= 0)
         {
             try
             {
-                port++;
-                serverSocket = new ServerSocket(port);
-                break;
+                serverSocket = new ServerSocket(iListeningPort);
+                port = serverSocket.getLocalPort();
             }
             catch (final IOException e)
             {
-                if (port > (iPortNumber + 10)) reportException("Couldn't find any available port", e);
+                reportException("Couldn't listen on port " + iListeningPort, e);
+            }
+        }
+        else
+        {
+            while (true)
+            {
+                try
+                {
+                    port++;
+                    serverSocket = new ServerSocket(port);
+                    break;
+                }
+                catch (final IOException e)
+                {
+                    if (port > (iPortNumber + 10)) reportException("Couldn't find any available port", e);
+                }
             }
         }
 
@@ -126,12 +174,97 @@ public class ChatClient
         }
     }
 
+    /**
+     * Getter for property traceHops.
+     * 
+     * @return Value of property traceHops.
+     */
+    public boolean isTraceHops()
+    {
+        return traceHops;
+    }
+
+    /**
+     * Trace the hops of the messages sent from now on, so that their recipients, and the server, can
+     * tell where the time went.
+     * 
+     * @param traceHops New value of property traceHops.
+     */
+    public void setTraceHops(final boolean traceHops)
+    {
+        this.traceHops = traceHops;
+    }
+
+    /**
+     * Getter for property streamReceive.
+     * 
+     * @return Value of property streamReceive.
+     */
+    public boolean isStreamReceive()
+    {
+        return streamReceive;
+    }
+
+    /**
+     * Receive the messages as a stream, from the next login on: the server keeps its connection to
+     * the client open and sends all the messages through it, and a single thread reads them and
+     * passes them to the GUI in the order they were sent. Otherwise, the server opens a new connection
+     * for each message, read by a new thread.
+     * 
+     * @param streamReceive New value of property streamReceive.
+     */
+    public void setStreamReceive(final boolean streamReceive)
+    {
+        this.streamReceive = streamReceive;
+    }
+
+    /**
+     * Latency breakdown of the traced messages received by this client. The rendering is recorded by
+     * the GUI, from the receive hop of the message to the time it is displayed.
+     * 
+     * @return Value of property hopStatistics.
+     */
+    public HopStatistics getHopStatistics()
+    {
+        return hopStatistics;
+    }
+
+    /**
+     * Setter for property hopStatistics, which can be shared by several clients.
+     * 
+     * @param hopStatistics New value of property hopStatistics.
+     */
+    public void setHopStatistics(final HopStatistics hopStatistics)
+    {
+        this.hopStatistics = hopStatistics;
+    }
+
     /** User name made accessible for the GUI. */
     public String getUserName()
     {
         return (userName);
     }
 
+    /**
+     * Getter for property chatServerHost, which changes when a standby server takes over.
+     * 
+     * @return Value of property chatServerHost.
+     */
+    public String getChatServerHost()
+    {
+        return chatServerHost;
+    }
+
+    /**
+     * Getter for property chatServerPort, which changes when a standby server takes over.
+     * 
+     * @return Value of property chatServerPort.
+     */
+    public int getChatServerPort()
+    {
+        return chatServerPort;
+    }
+
     /**
      * Send a text message (not a service message).
      * 
@@ -143,20 +276,118 @@ public class ChatClient
                                final Vector recipients,
                                final String contents,
                                final String expectedAnswer)
+    {
+        return sendMessage(new ChatMessage(new Boolean(adminMessage), userName, recipients, contents),
+            expectedAnswer);
+    }
+
+    /**
+     * Send a text message in a room. The user must have joined the room.
+     * 
+     * @param String room Name of the room.
+     * @param Vector recipients Vector of strings containing the user names of the recipients of the
+     *            message. An empty vector means the message is sent to all the members of the room.
+     * @param String contents Textual content of the message.
+     * @see net.dossot.felix.ChatClient#joinRoom(String)
+     */
+    public boolean sendRoomMessage(final String room, final Vector recipients, final String contents)
+    {
+        final ChatMessage message = new ChatMessage(new Boolean(false), userName, recipients, contents);
+        message.setRoom(room);
+        return sendMessage(message, "ack");
+    }
+
+    /**
+     * Join a room, which is created if it does not exist yet.
+     * 
+     * @param String room Name of the room.
+     */
+    public boolean joinRoom(final String room)
+    {
+        return sendMessage(true, null, "join::" + room, "joined");
+    }
+
+    /**
+     * Leave a room.
+     * 
+     * @param String room Name of the room.
+     */
+    public boolean leaveRoom(final String room)
+    {
+        return sendMessage(true, null, "leave::" + room, "left");
+    }
+
+    /**
+     * Send a text message without waiting: the message is queued in the outbox of the client, and
+     * sent over a persistent connection along with the other queued messages.
+     * 
+     * @param Vector recipients Vector of strings containing the user names of the recipients of the
+     *            message. An empty vector means the message is sent to all loggued users.
+     * @param String contents Textual content of the message.
+     * @return A future completed with Boolean.TRUE when the server has accepted the message, or with
+     *         Boolean.FALSE if it was not sent.
+     */
+    public CompletableFuture sendMessageAsync(final Vector recipients, final String contents)
+    {
+        return sendMessageAsync(new ChatMessage(new Boolean(false), userName, recipients, contents));
+    }
+
+    /**
+     * Send a text message built by the caller without waiting, for example to recognize it when the
+     * server sends it back as a feedback.
+     * 
+     * @param ChatMessage message The message, sent by the user of this client.
+     * @return A future completed with Boolean.TRUE when the server has accepted the message, or with
+     *         Boolean.FALSE if it was not sent.
+     * @see net.dossot.felix.ChatOutbox
+     */
+    public CompletableFuture sendMessageAsync(final ChatMessage message)
+    {
+        if ((traceHops) && (!message.getService().booleanValue())) message.trace();
+        return getOutbox().send(message, "ack");
+    }
+
+    private synchronized ChatOutbox getOutbox()
+    {
+        if (outbox == null) outbox = new ChatOutbox(this);
+        return outbox;
+    }
+
+    /**
+     * Check the answer of the server to a message, telling the user why the message was refused.
+     * 
+     * @param ChatMessage answer The answer of the server.
+     * @param String expectedAnswer The answer when the message is accepted.
+     * @return True if the message has been accepted.
+     */
+    boolean checkAnswer(final ChatMessage answer, final String expectedAnswer)
+    {
+        if ((answer == null) || (!answer.getService().booleanValue())) return false;
+
+        if (answer.getContents().equals(expectedAnswer)) return true;
+
+        if (answer.getContents().equals("throttled"))
+            uiClient.ShowMessage(new ChatMessage(new Boolean(true), "host", null,
+                "Message not sent: you are sending too fast, please slow down."));
+        else if (answer.getContents().equals("busy"))
+            uiClient.ShowMessage(new ChatMessage(new Boolean(true), "host", null,
+                "The server is busy, please try again in a few seconds."));
+        return false;
+    }
+
+    private boolean sendMessage(final ChatMessage message, final String expectedAnswer)
     {
         boolean result = false;
+        if ((traceHops) && (!message.getService().booleanValue())) message.trace();
         try
         {
             final Socket csSocket = new Socket(chatServerHost, chatServerPort);
             csSocket.setSoTimeout(10000);
             final ObjectOutputStream oos = new ObjectOutputStream(csSocket.getOutputStream());
             final ObjectInputStream ois = new ObjectInputStream(csSocket.getInputStream());
-            ChatMessage message = new ChatMessage(new Boolean(adminMessage), userName, recipients, contents);
             oos.writeObject(message);
 
-            if ((message = (ChatMessage) ois.readObject()) != null)
-                if ((message.getService().booleanValue()) && (message.getContents().equals(expectedAnswer)))
-                    result = true;
+            result = checkAnswer((ChatMessage) ois.readObject(), expectedAnswer);
 
             oos.close();
             ois.close();
@@ -184,6 +415,7 @@ public class ChatClient
         final Vector v = new Vector();
         v.add(chatClientHost);
         v.add(new Integer(port));
+        if (streamReceive) v.add(Boolean.TRUE);
         if (sendMessage(true, v, "login", "welcome"))
         {
             loggued = true;
@@ -199,16 +431,37 @@ public class ChatClient
         final ChatMessage message = new ChatMessage(new Boolean(true), "client", null, "Requesting logout...");
         uiClient.ShowMessage(message);
 
+        synchronized (this)
+        {
+            if (outbox != null) outbox.close();
+            outbox = null;
+        }
         if (sendMessage(true, null, "logout", "bye"))
         {
             result = true;
             loggued = false;
             logguedUsers = null;
-            chatClientServerThread.destroy();
+            stopReader();
         }
         return result;
     }
 
+    /**
+     * Release the port where the server connects to this client, once it is logged out for good: the
+     * client can not log in again afterwards.
+     */
+    public void dispose()
+    {
+        if (chatClientServerThread != null) chatClientServerThread.kill();
+    }
+
+    /** Stop reading the stream of the server, which is not used anymore after a logout. */
+    private synchronized void stopReader()
+    {
+        if (chatClientReader != null) chatClientReader.kill();
+        chatClientReader = null;
+    }
+
     private void displayLogguedUsers()
     {
         uiClient.ShowListUsers(logguedUsers);
@@ -221,6 +474,121 @@ public class ChatClient
         uiClient.ShowMessage(message);
     }
 
+    private synchronized ChatClientReader getChatClientReader()
+    {
+        if (chatClientReader == null)
+        {
+            chatClientReader = new ChatClientReader();
+            chatClientReader.start();
+        }
+        return chatClientReader;
+    }
+
+    /**
+     * Read the messages sent by the server on a connection, acknowledging and handling each one in
+     * turn, until the server closes the connection or shuts down.
+     */
+    private void readMessages(final Socket socket)
+    {
+        ChatMessage message = null;
+        try
+        {
+            socket.setTcpNoDelay(true);
+            final ObjectOutputStream soos = new ObjectOutputStream(new BufferedOutputStream(
+                socket.getOutputStream()));
+            soos.flush();
+            final ObjectInputStream sois = new ObjectInputStream(socket.getInputStream());
+            while ((message = (ChatMessage) sois.readObject()) != null)
+            {
+                // acknowledge
+                final ChatMessage ack = new ChatMessage(new Boolean(true), userName, null, "ack");
+                soos.writeObject(ack);
+                soos.reset();
+                soos.flush();
+                if (!receive(message)) break;
+            }
+
+            soos.close();
+            sois.close();
+        }
+        catch (final Exception e)
+        {
+            // termination on the server side
+        }
+        close(socket);
+    }
+
+    /**
+     * Handle a message sent by the server.
+     * 
+     * @return False if the server is shutting down.
+     */
+    private boolean receive(final ChatMessage message)
+    {
+        // manage service messages
+        if (message.getService().booleanValue())
+        {
+            // manage refresh list of users
+            if (message.getContents().startsWith("{$USERS}"))
+            {
+                logguedUsers = message.getRecipients();
+                displayLogguedUsers();
+                message.setContents(message.getContents().substring(8));
+                uiClient.ShowMessage(message);
+            }
+            // manage refresh list of room members
+            else if (message.getContents().startsWith("{$ROOM}"))
+            {
+                if (uiClient instanceof ChatRoomUI)
+                    ((ChatRoomUI) uiClient).ShowRoomUsers(message.getRoom(), message.getRecipients());
+                message.setContents(message.getContents().substring(7));
+                uiClient.ShowMessage(message);
+            }
+            // manage server take over by a standby server
+            else if (message.getContents().startsWith("{$MOVED}"))
+            {
+                final String address = message.getContents().substring(8);
+                chatServerHost = address.substring(0, address.lastIndexOf(':'));
+                chatServerPort = Integer.parseInt(address.substring(address.lastIndexOf(':') + 1));
+                message.setContents("Chat server moved to " + address);
+                uiClient.ShowMessage(message);
+            }
+            // manage server shutdown message
+            else if (message.getContents().startsWith("{$SHUTDOWN}"))
+            {
+                message.setContents(message.getContents().substring(11));
+                uiClient.ShowMessage(message);
+                uiClient.setChatEnabled(false);
+                return false;
+            }
+            // displayable system message
+            else
+            {
+                uiClient.ShowMessage(message);
+            }
+        }
+        // manage chat messages
+        else
+        {
+            message.stampHop(ChatMessage.HOP_CLIENT_RECEIVE);
+            hopStatistics.record(message);
+            uiClient.ShowMessage(message);
+        }
+        return true;
+    }
+
+    private static void close(final Socket socket)
+    {
+        try
+        {
+            socket.close();
+        }
+        catch (final IOException e)
+        {
+            // closing anyway
+        }
+    }
+
     /*
      * ----------------------------------------------------------------------------------------------
      * --------------------
@@ -236,10 +604,18 @@ public class ChatClient
             setDaemon(true);
         }
 
-        @Override
-        public void destroy()
+        public void kill()
         {
             stopIt = true;
+            // release the port: the server will not connect to it anymore
+            try
+            {
+                serverSocket.close();
+            }
+            catch (final Exception e)
+            {
+            }
+            stopReader();
         }
 
         @Override
@@ -248,11 +624,17 @@ public class ChatClient
             try
             {
                 while (!stopIt)
-                    new ChatClientThread(serverSocket.accept()).start();
+                {
+                    final Socket socket = serverSocket.accept();
+                    if (streamReceive)
+                        getChatClientReader().attach(socket);
+                    else
+                        new ChatClientThread(socket).start();
+                }
             }
             catch (final Exception e)
             {
-                reportException("Can't start client service message server", e);
+                if (!stopIt) reportException("Can't start client service message server", e);
             }
         }
     }
@@ -266,9 +648,6 @@ public class ChatClient
     {
         // open second chanel messages object streams
         private final Socket socket;
-        private ObjectOutputStream soos;
-        private ObjectInputStream sois;
-        private boolean stopIt = false;
 
         public ChatClientThread(final Socket socket)
         {
@@ -278,64 +657,68 @@ public class ChatClient
         }
 
         @Override
-        public void destroy()
+        public void run()
+        {
+            readMessages(socket);
+        }
+    }
+
+    /*
+     * ----------------------------------------------------------------------------------------------
+     * --------------------
+     */
+
+    /**
+     * Single thread reading the messages of the server in stream mode. The server keeps one
+     * connection open: when a new one comes, after a restart or a failover of the server, the
+     * previous one is closed and the reader goes on with the new one.
+     */
+    class ChatClientReader extends Thread
+    {
+        private Socket current = null;
+        private boolean stopIt = false;
+
+        public ChatClientReader()
+        {
+            super("ChatClientReader");
+            setDaemon(true);
+        }
+
+        public synchronized void attach(final Socket socket)
+        {
+            if (current != null) close(current);
+            current = socket;
+            notifyAll();
+        }
+
+        public synchronized void kill()
         {
             stopIt = true;
+            if (current != null) close(current);
+            notifyAll();
         }
 
         @Override
         public void run()
         {
-            ChatMessage message = null;
-            try
+            Socket socket = null;
+            while (true)
             {
-                soos = new ObjectOutputStream(socket.getOutputStream());
-                sois = new ObjectInputStream(socket.getInputStream());
-                while ((!stopIt) && (message = (ChatMessage) sois.readObject()) != null)
+                synchronized (this)
                 {
-                    // acknowledge
-                    final ChatMessage ack = new ChatMessage(new Boolean(true), userName, null, "ack");
-                    soos.writeObject(ack);
-                    // manage service messages
-                    if (message.getService().booleanValue())
+                    try
                     {
-                        // manage refresh list of users
-                        if (message.getContents().startsWith("{$USERS}"))
-                        {
-                            logguedUsers = message.getRecipients();
-                            displayLogguedUsers();
-                            message.setContents(message.getContents().substring(8));
-                            uiClient.ShowMessage(message);
-                        }
-                        // manage server shutdown message
-                        else if (message.getContents().startsWith("{$SHUTDOWN}"))
-                        {
-                            message.setContents(message.getContents().substring(11));
-                            uiClient.ShowMessage(message);
-                            uiClient.setChatEnabled(false);
-                            stopIt = true;
-                            break;
-                        }
-                        // displayable system message
-                        else
-                        {
-                            uiClient.ShowMessage(message);
-                        }
+                        while ((!stopIt) && (current == socket))
+                            wait();
                     }
-                    // manage chat messages
-                    else
+                    catch (final InterruptedException e)
                     {
-                        uiClient.ShowMessage(message);
+                        return;
                     }
+                    if (stopIt) return;
+                    socket = current;
                 }
-
-                soos.close();
-                sois.close();
-                socket.close();
-            }
-            catch (final Exception e)
-            {
-                // termination on the server side
+                readMessages(socket);
             }
         }
     }
@@ -0,0 +1,132 @@
+//
+//    Felix the Chat
+//
+//    Copyright (c) 2001-2002 David Dossot
+//
+//    Permission is hereby granted, free of charge, to any person obtaining a copy
+//    of this software and associated documentation files (the "Software"), to deal
+//    in the Software without restriction, including without limitation the rights
+//    to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//    copies of the Software, and to permit persons to whom the Software is
+//    furnished to do so, subject to the following conditions:
+//
+//    The above copyright notice and this permission notice shall be included in
+//    all copies or substantial portions of the Software.
+//
+//    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//    IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//    FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//    AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//    LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//    OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+//    THE SOFTWARE.
+//
+
+package net.dossot.felix;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Vector;
+
+/**
+ * Connection of the server to the port where a loggued client receives its messages.
+ * <p>
+ * A client that has logged in with a stream endpoint keeps the connection open: all its messages are
+ * then sent through it, one after the other, each one being acknowledged by the client before the
+ * next one goes. The other clients get a new connection for each message. The messages of a user are
+ * sent by one delivery thread at a time, so a connection is never used by two threads at once.
+ * </p>
+ * 
+ * @see net.dossot.felix.ChatServer#sendMessage(String, ChatMessage)
+ * @see net.dossot.felix.ChatClient#setStreamReceive(boolean)
+ */
+public class ChatClientConnection
+{
+    private final static int ACK_TIMEOUT = 10000;
+
+    private final Vector endpoint;
+    private final Socket socket;
+    private final ObjectOutputStream oos;
+    private final ObjectInputStream ois;
+
+    /**
+     * Connect to a client.
+     * 
+     * @param Vector endpoint The IP address and port of the client, as sent when logging in.
+     * @param int connectTimeout Connection timeout in milliseconds, 0 for none.
+     */
+    public ChatClientConnection(final Vector endpoint, final int connectTimeout) throws IOException
+    {
+        this.endpoint = endpoint;
+        socket = new Socket();
+        try
+        {
+            socket.connect(new InetSocketAddress((String) endpoint.get(0), ((Integer) endpoint.get(1)).intValue()),
+                connectTimeout);
+            socket.setSoTimeout(ACK_TIMEOUT);
+            socket.setTcpNoDelay(true);
+            oos = new ObjectOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            oos.flush();
+            ois = new ObjectInputStream(socket.getInputStream());
+        }
+        catch (final IOException e)
+        {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Tell if a client keeps the connection open to receive its messages.
+     * 
+     * @param Vector endpoint The IP address and port of the client, as sent when logging in.
+     * @return True if the endpoint holds the stream flag.
+     */
+    public static boolean isStream(final Vector endpoint)
+    {
+        return (endpoint.size() > 2) && (Boolean.TRUE.equals(endpoint.get(2)));
+    }
+
+    /**
+     * Getter for property endpoint.
+     * 
+     * @return Value of property endpoint.
+     */
+    public Vector getEndpoint()
+    {
+        return endpoint;
+    }
+
+    /**
+     * Send a message and wait for the client to acknowledge it.
+     * 
+     * @param ChatMessage message The message.
+     * @return True if the client has acknowledged the message.
+     */
+    public boolean send(final ChatMessage message) throws Exception
+    {
+        oos.writeObject(message);
+        oos.reset();
+        oos.flush();
+
+        final ChatMessage answer = (ChatMessage) ois.readObject();
+        return (answer != null) && (answer.getService().booleanValue()) && (answer.getContents().equals("ack"));
+    }
+
+    /** Close the connection. */
+    public void close()
+    {
+        try
+        {
+            socket.close();
+        }
+        catch (final IOException e)
+        {
+            // closing anyway
+        }
+    }
+}
@@ -0,0 +1,534 @@
+//
+//    Felix the Chat
+//
+//    Copyright (c) 2001-2002 David Dossot
+//
+//    Permission is hereby granted, free of charge, to any person obtaining a copy
+//    of this software and associated documentation files (the "Software"), to deal
+//    in the Software without restriction, including without limitation the rights
+//    to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//    copies of the Software, and to permit persons to whom the Software is
+//    furnished to do so, subject to the following conditions:
+//
+//    The above copyright notice and this permission notice shall be included in
+//    all copies or substantial portions of the Software.
+//
+//    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//    IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//    FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//    AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//    LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//    OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+//    THE SOFTWARE.
+//
+
+package net.dossot.felix;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.Vector;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cluster mode of the chat server: several servers, called nodes, each own the sessions of the
+ * users loggued on them and share the messages of their users.
+ * <p>
+ * A node is identified by the address of its cluster port (for example <i>localhost:18001</i>),
+ * written the same way in the configuration of all the nodes. Each node opens one persistent link
+ * to each of its peers, on which it sends:
+ * <ul>
+ * <li>the list of its loggued users, each time it changes (PRESENCE frames),</li>
+ * <li>the messages for users loggued on the peer, once per peer whatever the number of recipients
+ * loggued there (FORWARD frames).</li>
+ * </ul>
+ * Frames are queued and written by a dedicated thread per link, so that dispatching never waits for
+ * a peer. A broken link is reopened every few seconds; when the incoming link of a peer breaks, its
+ * users are considered gone. An idle link carries a HEARTBEAT frame every few seconds, so that an
+ * incoming link left half-open by a peer is dropped once it has been silent for a few heartbeats.
+ * Only the latest incoming link of a peer counts: an older one breaking after the peer has reconnected
+ * leaves its users alone.
+ * </p>
+ * <p>
+ * When a message has to reach more nodes than the relay fan-out, it is not sent to each of them by
+ * the origin node: the nodes are split in as many groups as the fan-out, the first node of each group
+ * receives the message along with the rest of its group, delivers it to its users and relays it the
+ * same way to the rest of its group. The message thus travels along a tree, and each node sends at
+ * most <i>fan-out</i> copies of it. A relay whose link is down is skipped: the next node of its group
+ * takes its place. When the link of a relay breaks while the message is written to it, the message is
+ * lost for that node but its subtree is handed over the same way.
+ * </p>
+ * 
+ * @see net.dossot.felix.ChatServer
+ * @see net.dossot.felix.ChatClusterFrame
+ */
+public class ChatCluster
+{
+    private final static int RECONNECT_DELAY = 3000;
+    private final static int LINK_QUEUE_SIZE = 10000;
+    private final static int HEARTBEAT_PERIOD = 2000;
+    private final static int READ_TIMEOUT = 3 * HEARTBEAT_PERIOD;
+
+    /** Maximum number of copies of a message sent by each node, 0 to send one to each node. */
+    private int relayFanout = 0;
+
+    private final ChatServer chatServer;
+    private final String nodeId;
+    private final Vector links = new Vector();
+
+    /** Users loggued on the other nodes: node id -> Vector of user names. */
+    private final Hashtable remoteUsers = new Hashtable();
+    /** Current incoming link of each node: node id -> ClusterReader, guarded by remoteUsers. */
+    private final Hashtable readers = new Hashtable();
+    /** Reverse index of remoteUsers: user name -> node id. */
+    private volatile Hashtable userNodes = new Hashtable();
+
+    /**
+     * Initialize a cluster node.
+     * 
+     * @param ChatServer chatServer The server running on this node.
+     * @param String nodeId Address of the cluster port of this node, as known by its peers.
+     * @param String[] peers Addresses of the cluster ports of the other nodes. The address of this
+     *            node is ignored if present.
+     */
+    public ChatCluster(final ChatServer chatServer, final String nodeId, final String[] peers)
+    {
+        this.chatServer = chatServer;
+        this.nodeId = nodeId;
+
+        for (int i = 0; i < peers.length; i++)
+            if (!peers[i].equals(nodeId)) links.add(new ClusterLink(peers[i]));
+    }
+
+    /** Listen on the cluster port and open the links to the peers. */
+    public void start() throws IOException
+    {
+        final ServerSocket clusterSocket = new ServerSocket(getPort(nodeId));
+
+        final Thread acceptor = new Thread("ChatClusterAcceptor")
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    while (chatServer.listening)
+                        new ClusterReader(clusterSocket.accept()).start();
+                }
+                catch (final IOException e)
+                {
+                    System.err.println("Cluster port closed: " + e);
+                }
+            }
+        };
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        for (final Enumeration e = links.elements(); e.hasMoreElements();)
+            ((ClusterLink) e.nextElement()).start();
+
+        System.out.println("Cluster node " + nodeId + " linked to " + links.size() + " peer(s).");
+    }
+
+    /**
+     * Send the list of the users loggued on this node to all the peers.
+     * 
+     * @param String user User whose arrival or departure caused the update, may be null.
+     * @param boolean coming True if the user is joining, false if leaving.
+     */
+    public void publishPresence(final String user, final boolean coming)
+    {
+        final ChatClusterFrame frame = new ChatClusterFrame(nodeId, getLocalUsers(), user, coming);
+        for (final Enumeration e = links.elements(); e.hasMoreElements();)
+            ((ClusterLink) e.nextElement()).send(frame);
+    }
+
+    /**
+     * Forward a message to other nodes, once per node.
+     * 
+     * @param ChatMessage message The message to forward.
+     * @param Collection nodeIds The nodes to forward to, null to forward to all the nodes where
+     *            users are loggued.
+     * @return True if the message has been queued for at least one node.
+     */
+    public boolean forward(final ChatMessage message, final Collection nodeIds)
+    {
+        final Vector targets = new Vector();
+        for (final Enumeration e = links.elements(); e.hasMoreElements();)
+        {
+            final ClusterLink link = (ClusterLink) e.nextElement();
+            if ((nodeIds == null) ? hasUsers(link.peerId) : nodeIds.contains(link.peerId))
+                targets.add(link.peerId);
+        }
+
+        return relay(message, targets);
+    }
+
+    /**
+     * Send a message to the given nodes, directly or through relays depending on the relay fan-out.
+     * 
+     * @param ChatMessage message The message to send.
+     * @param List targets Identifiers of the nodes that must receive the message.
+     * @return True if the message has been queued for at least one node.
+     */
+    private boolean relay(final ChatMessage message, final List targets)
+    {
+        boolean result = false;
+        final int groups = ((relayFanout <= 0) || (targets.size() <= relayFanout)) ? targets.size()
+            : relayFanout;
+
+        for (int g = 0; g < groups; g++)
+        {
+            // contiguous groups, the first ones holding one more node when it does not divide
+            final int from = (g * targets.size()) / groups;
+            final int to = ((g + 1) * targets.size()) / groups;
+
+            // the first reachable node of the group relays to the rest of it
+            for (int i = from; i < to; i++)
+            {
+                final ClusterLink link = getLink((String) targets.get(i));
+                final Vector subtree = new Vector(targets.subList(i + 1, to));
+                if ((link != null) && (link.isConnected())
+                    && (link.send(new ChatClusterFrame(nodeId, message, subtree))))
+                {
+                    result = true;
+                    break;
+                }
+
+                chatServer.getEventLog().log("relay_skipped", null, -1, (String) targets.get(i));
+            }
+        }
+
+        return result;
+    }
+
+    private ClusterLink getLink(final String peerId)
+    {
+        for (final Enumeration e = links.elements(); e.hasMoreElements();)
+        {
+            final ClusterLink link = (ClusterLink) e.nextElement();
+            if (link.peerId.equals(peerId)) return link;
+        }
+        return null;
+    }
+
+    /**
+     * Group the recipients of a message that are loggued on other nodes by node.
+     * 
+     * @param Collection recipients Names of the recipients.
+     * @return The set of the node ids where at least one of the recipients is loggued.
+     */
+    public Collection getNodesOf(final Collection recipients)
+    {
+        final Hashtable index = userNodes;
+        final HashSet result = new HashSet();
+        for (final Iterator i = recipients.iterator(); i.hasNext();)
+        {
+            final Object node = index.get(i.next());
+            if (node != null) result.add(node);
+        }
+        return result;
+    }
+
+    /**
+     * Check if a user is loggued on another node.
+     * 
+     * @param String user Name of the user.
+     */
+    public boolean isRemoteUser(final String user)
+    {
+        return userNodes.containsKey(user);
+    }
+
+    /**
+     * Names of all the users loggued on the other nodes.
+     * 
+     * @return A Vector of user names.
+     */
+    public Vector getRemoteUsers()
+    {
+        return new Vector(userNodes.keySet());
+    }
+
+    /**
+     * Getter for property relayFanout.
+     * 
+     * @return Value of property relayFanout.
+     */
+    public int getRelayFanout()
+    {
+        return relayFanout;
+    }
+
+    /**
+     * Setter for property relayFanout.
+     * 
+     * @param relayFanout New value of property relayFanout.
+     */
+    public void setRelayFanout(final int relayFanout)
+    {
+        this.relayFanout = relayFanout;
+    }
+
+    /**
+     * Getter for property nodeId.
+     * 
+     * @return Value of property nodeId.
+     */
+    public String getNodeId()
+    {
+        return nodeId;
+    }
+
+    private Vector getLocalUsers()
+    {
+        return new Vector(chatServer.getLogguedUsers().keySet());
+    }
+
+    private boolean hasUsers(final String peerId)
+    {
+        final Vector users = (Vector) remoteUsers.get(peerId);
+        return (users != null) && (!users.isEmpty());
+    }
+
+    /**
+     * Update the users of a node and let the local users know.
+     * 
+     * @param ClusterReader reader The incoming link the update comes from, which becomes the current
+     *            one of the node.
+     * @param String peerId Identifier of the node.
+     * @param Vector users Names of the users loggued on the node, null if its link is lost: ignored
+     *            when the node has reconnected since on another link.
+     * @param String user User whose arrival or departure caused the update, may be null.
+     * @param boolean coming True if the user is joining, false if leaving.
+     */
+    private void updatePresence(final ClusterReader reader, final String peerId, final Vector users,
+                                final String user, final boolean coming)
+    {
+        synchronized (remoteUsers)
+        {
+            if (users == null)
+            {
+                if (readers.get(peerId) != reader) return;
+                readers.remove(peerId);
+                remoteUsers.remove(peerId);
+            }
+            else
+            {
+                readers.put(peerId, reader);
+                remoteUsers.put(peerId, users);
+            }
+
+            final Hashtable index = new Hashtable();
+            for (final Enumeration e = remoteUsers.keys(); e.hasMoreElements();)
+            {
+                final String node = (String) e.nextElement();
+                for (final Enumeration u = ((Vector) remoteUsers.get(node)).elements(); u.hasMoreElements();)
+                    index.put(u.nextElement(), node);
+            }
+            userNodes = index;
+        }
+
+        chatServer.dispatchRemoteUsers(user, coming);
+    }
+
+    private static int getPort(final String address)
+    {
+        return Integer.parseInt(address.substring(address.lastIndexOf(':') + 1));
+    }
+
+    private static String getHost(final String address)
+    {
+        return address.substring(0, address.lastIndexOf(':'));
+    }
+
+    /*
+     * ----------------------------------------------------------------------------------------------
+     * --------------------
+     */
+
+    /** Outgoing link to a peer, with its own queue of frames and writer thread. */
+    class ClusterLink extends Thread
+    {
+        private final String peerId;
+        private final BlockingQueue queue = new ArrayBlockingQueue(LINK_QUEUE_SIZE);
+        private volatile boolean connected = false;
+
+        public ClusterLink(final String peerId)
+        {
+            super("ChatClusterLink-" + peerId);
+            setDaemon(true);
+            this.peerId = peerId;
+        }
+
+        /** Queue a frame, without ever blocking: the frame is dropped if the queue is full. */
+        public boolean send(final ChatClusterFrame frame)
+        {
+            if (queue.offer(frame)) return true;
+
+            chatServer.getEventLog().log("cluster_frame_dropped", null, -1, peerId);
+            return false;
+        }
+
+        /**
+         * Hand the frames whose write has failed over to the rest of their relay tree: the message
+         * is lost for the peer, not for the nodes it had to relay it to.
+         * 
+         * @param List lost The frames not flushed when the link broke.
+         */
+        private void reroute(final List lost)
+        {
+            for (final Iterator i = lost.iterator(); i.hasNext();)
+            {
+                final ChatClusterFrame frame = (ChatClusterFrame) i.next();
+                if (frame.getType() != ChatClusterFrame.FORWARD) continue;
+
+                chatServer.getEventLog().log("relay_lost", null, -1, peerId);
+                if ((frame.getRelays() != null) && (!frame.getRelays().isEmpty()))
+                    relay(frame.getMessage(), frame.getRelays());
+            }
+        }
+
+        /** Check if the link is currently open. */
+        public boolean isConnected()
+        {
+            return connected;
+        }
+
+        @Override
+        public void run()
+        {
+            while (chatServer.listening)
+            {
+                Socket socket = null;
+                final Vector written = new Vector();
+                try
+                {
+                    socket = new Socket(getHost(peerId), getPort(peerId));
+                    socket.setTcpNoDelay(true);
+                    final ObjectOutputStream oos = new ObjectOutputStream(new BufferedOutputStream(
+                        socket.getOutputStream()));
+                    System.out.println("Cluster link opened to: " + peerId);
+
+                    // a peer that has just (re)started knows nothing about this node
+                    oos.writeObject(new ChatClusterFrame(nodeId, getLocalUsers(), null, false));
+                    oos.flush();
+                    connected = true;
+
+                    while (chatServer.listening)
+                    {
+                        Object frame = queue.poll(HEARTBEAT_PERIOD, TimeUnit.MILLISECONDS);
+                        if (frame == null) frame = new ChatClusterFrame(nodeId);
+                        while (frame != null)
+                        {
+                            written.add(frame);
+                            oos.writeObject(frame);
+                            frame = queue.poll();
+                        }
+                        oos.flush();
+                        written.clear();
+                        // frames hold messages that may be altered later on: do not let the
+                        // stream write back-references to them
+                        oos.reset();
+                    }
+                }
+                catch (final InterruptedException e)
+                {
+                    return;
+                }
+                catch (final IOException e)
+                {
+                    // peer unreachable or gone, retry later
+                }
+                connected = false;
+                reroute(written);
+
+                try
+                {
+                    if (socket != null) socket.close();
+                    Thread.sleep(RECONNECT_DELAY);
+                }
+                catch (final Exception e)
+                {
+                    return;
+                }
+            }
+        }
+    }
+
+    /*
+     * ----------------------------------------------------------------------------------------------
+     * --------------------
+     */
+
+    /** Incoming link from a peer, applying the frames it receives. */
+    class ClusterReader extends Thread
+    {
+        private final Socket socket;
+
+        public ClusterReader(final Socket socket)
+        {
+            super("ChatClusterReader");
+            setDaemon(true);
+            this.socket = socket;
+        }
+
+        @Override
+        public void run()
+        {
+            String peerId = null;
+            try
+            {
+                // the peer sends heartbeats on an idle link: a silent link is half-open
+                socket.setSoTimeout(READ_TIMEOUT);
+                final ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(
+                    socket.getInputStream()));
+                ChatClusterFrame frame;
+                while ((frame = (ChatClusterFrame) ois.readObject()) != null)
+                {
+                    peerId = frame.getNodeId();
+                    if (frame.getType() == ChatClusterFrame.PRESENCE)
+                        updatePresence(this, peerId, frame.getUsers(), frame.getUser(), frame.isComing());
+                    else if (frame.getType() == ChatClusterFrame.FORWARD)
+                    {
+                        // relay first, so that the rest of the tree does not wait for this node
+                        if ((frame.getRelays() != null) && (!frame.getRelays().isEmpty()))
+                            relay(frame.getMessage(), frame.getRelays());
+                        chatServer.deliverForwarded(frame.getMessage());
+                    }
+                }
+            }
+            catch (final Exception e)
+            {
+                // peer is gone
+            }
+
+            try
+            {
+                socket.close();
+            }
+            catch (final IOException e)
+            {
+                // already closed
+            }
+
+            if (peerId != null)
+            {
+                System.out.println("Cluster link lost from: " + peerId);
+                updatePresence(this, peerId, null, null, false);
+            }
+        }
+    }
+}
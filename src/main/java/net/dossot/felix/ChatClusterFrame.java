@@ -0,0 +1,185 @@
+//
+//    Felix the Chat
+//
+//    Copyright (c) 2001-2002 David Dossot
+//
+//    Permission is hereby granted, free of charge, to any person obtaining a copy
+//    of this software and associated documentation files (the "Software"), to deal
+//    in the Software without restriction, including without limitation the rights
+//    to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//    copies of the Software, and to permit persons to whom the Software is
+//    furnished to do so, subject to the following conditions:
+//
+//    The above copyright notice and this permission notice shall be included in
+//    all copies or substantial portions of the Software.
+//
+//    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//    IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//    FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//    AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//    LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//    OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+//    THE SOFTWARE.
+//
+
+package net.dossot.felix;
+
+import java.io.Serializable;
+import java.util.Vector;
+
+/**
+ * This class holds anything exchanged between the nodes of a cluster, on the links opened by
+ * <i>ChatCluster</i>.
+ * 
+ * @see net.dossot.felix.ChatCluster
+ */
+public class ChatClusterFrame implements Serializable
+{
+    private static final long serialVersionUID = 1L;
+
+    /** Frame holding the full list of the users loggued on the sending node. */
+    public final static int PRESENCE = 1;
+    /** Frame holding a chat message to deliver to the users loggued on the receiving node. */
+    public final static int FORWARD = 2;
+    /** Empty frame sent on an idle link, so that the receiving node can tell it is still alive. */
+    public final static int HEARTBEAT = 3;
+
+    /** Kind of frame: PRESENCE, FORWARD or HEARTBEAT. */
+    private final int type;
+    /** Identifier of the node that has sent the frame. */
+    private final String nodeId;
+    /** For PRESENCE frames: names of the users loggued on the sending node. */
+    private Vector users;
+    /** For PRESENCE frames: user whose arrival or departure caused the frame, may be null. */
+    private String user;
+    /** For PRESENCE frames: true if the user is joining, false if leaving. */
+    private boolean coming;
+    /** For FORWARD frames: the message to deliver. */
+    private ChatMessage message;
+    /** For FORWARD frames: the nodes the receiving node has to relay the message to. */
+    private Vector relays;
+
+    /**
+     * Creates a new PRESENCE frame.
+     * 
+     * @param String nodeId Identifier of the sending node.
+     * @param Vector users Names of the users loggued on the sending node.
+     * @param String user User whose arrival or departure caused the frame, may be null.
+     * @param boolean coming True if the user is joining, false if leaving.
+     */
+    public ChatClusterFrame(final String nodeId, final Vector users, final String user, final boolean coming)
+    {
+        type = PRESENCE;
+        this.nodeId = nodeId;
+        this.users = users;
+        this.user = user;
+        this.coming = coming;
+    }
+
+    /**
+     * Creates a new HEARTBEAT frame.
+     * 
+     * @param String nodeId Identifier of the sending node.
+     */
+    public ChatClusterFrame(final String nodeId)
+    {
+        type = HEARTBEAT;
+        this.nodeId = nodeId;
+    }
+
+    /**
+     * Creates a new FORWARD frame.
+     * 
+     * @param String nodeId Identifier of the sending node.
+     * @param ChatMessage message The message to deliver.
+     */
+    public ChatClusterFrame(final String nodeId, final ChatMessage message)
+    {
+        this(nodeId, message, new Vector());
+    }
+
+    /**
+     * Creates a new FORWARD frame for a node acting as a relay.
+     * 
+     * @param String nodeId Identifier of the sending node.
+     * @param ChatMessage message The message to deliver.
+     * @param Vector relays Identifiers of the nodes the receiving node has to relay the message to.
+     */
+    public ChatClusterFrame(final String nodeId, final ChatMessage message, final Vector relays)
+    {
+        type = FORWARD;
+        this.nodeId = nodeId;
+        this.message = message;
+        this.relays = relays;
+    }
+
+    /**
+     * Getter for property type.
+     * 
+     * @return Value of property type.
+     */
+    public int getType()
+    {
+        return type;
+    }
+
+    /**
+     * Getter for property nodeId.
+     * 
+     * @return Value of property nodeId.
+     */
+    public java.lang.String getNodeId()
+    {
+        return nodeId;
+    }
+
+    /**
+     * Getter for property users.
+     * 
+     * @return Value of property users.
+     */
+    public java.util.Vector getUsers()
+    {
+        return users;
+    }
+
+    /**
+     * Getter for property user.
+     * 
+     * @return Value of property user.
+     */
+    public java.lang.String getUser()
+    {
+        return user;
+    }
+
+    /**
+     * Getter for property coming.
+     * 
+     * @return Value of property coming.
+     */
+    public boolean isComing()
+    {
+        return coming;
+    }
+
+    /**
+     * Getter for property message.
+     * 
+     * @return Value of property message.
+     */
+    public net.dossot.felix.ChatMessage getMessage()
+    {
+        return message;
+    }
+
+    /**
+     * Getter for property relays.
+     * 
+     * @return Value of property relays.
+     */
+    public java.util.Vector getRelays()
+    {
+        return relays;
+    }
+}
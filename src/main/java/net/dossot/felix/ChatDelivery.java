@@ -0,0 +1,280 @@
+//
+//    Felix the Chat
+//
+//    Copyright (c) 2001-2002 David Dossot
+//
+//    Permission is hereby granted, free of charge, to any person obtaining a copy
+//    of this software and associated documentation files (the "Software"), to deal
+//    in the Software without restriction, including without limitation the rights
+//    to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//    copies of the Software, and to permit persons to whom the Software is
+//    furnished to do so, subject to the following conditions:
+//
+//    The above copyright notice and this permission notice shall be included in
+//    all copies or substantial portions of the Software.
+//
+//    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//    IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//    FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//    AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//    LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//    OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+//    THE SOFTWARE.
+//
+
+package net.dossot.felix;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Outbound side of the server: the messages are queued in the session of each recipient, and a pool
+ * of delivery threads sends them, so that dispatching a message never waits for the network.
+ * <p>
+ * A session is drained by one thread at a time, which keeps the order of each lane. A thread gives
+ * the session back to the pool after a few messages, so that a busy session does not hold back the
+ * others. When a message can not be sent, the recipient is sniped and the rest of its session is
+ * dropped.
+ * </p>
+ * 
+ * @see net.dossot.felix.ChatSession
+ */
+public class ChatDelivery
+{
+    private final static String[] LANE_NAMES = { "control", "chat", "bulk" };
+    private final static int BATCH = 16;
+
+    private final ChatServer chatServer;
+    private final int capacity;
+    private final int[] starvationLimits;
+    private final ConcurrentHashMap sessions = new ConcurrentHashMap();
+    private final ExecutorService workers;
+    private final AtomicLong queued = new AtomicLong();
+    private final AtomicLongArray dropped = new AtomicLongArray(ChatSession.LANES);
+    private final LatencyHistogram[] waits = new LatencyHistogram[ChatSession.LANES];
+    private volatile boolean closed = false;
+
+    /**
+     * Start the delivery threads.
+     * 
+     * @param ChatServer chatServer The server whose messages are delivered.
+     * @param int threads Number of delivery threads.
+     * @param int capacity Maximum number of messages waiting in each lane of a session.
+     * @param int chatStarvationLimit Number of control messages that can go before a waiting chat
+     *            message.
+     * @param int bulkStarvationLimit Number of control or chat messages that can go before a waiting
+     *            bulk message.
+     */
+    public ChatDelivery(final ChatServer chatServer,
+                        final int threads,
+                        final int capacity,
+                        final int chatStarvationLimit,
+                        final int bulkStarvationLimit)
+    {
+        this.chatServer = chatServer;
+        this.capacity = capacity;
+        starvationLimits = new int[] { 0, chatStarvationLimit, bulkStarvationLimit };
+        for (int i = 0; i < ChatSession.LANES; i++)
+            waits[i] = new LatencyHistogram();
+
+        final AtomicInteger count = new AtomicInteger();
+        workers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue(),
+            new ThreadFactory()
+            {
+                @Override
+                public Thread newThread(final Runnable runnable)
+                {
+                    final Thread thread = new Thread(runnable, "ChatDelivery-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+    }
+
+    /**
+     * Queue a message for a loggued user.
+     * 
+     * @param String recipient The recipient of the message.
+     * @param ChatMessage message The message to be sent, which must not be altered afterwards.
+     * @param int lane The lane of the message (see ChatSession).
+     * @return False if the lane of the recipient is full, or if the delivery is closed: the message
+     *         is dropped.
+     */
+    public boolean deliver(final String recipient, final ChatMessage message, final int lane)
+    {
+        if (closed)
+        {
+            dropped.incrementAndGet(lane);
+            return false;
+        }
+
+        ChatSession session = (ChatSession) sessions.get(recipient);
+        if (session == null)
+        {
+            session = new ChatSession(recipient, capacity, starvationLimits);
+            final Object previous = sessions.putIfAbsent(recipient, session);
+            if (previous != null) session = (ChatSession) previous;
+        }
+
+        if (session.offer(message, lane) == null)
+        {
+            dropped.incrementAndGet(lane);
+            return false;
+        }
+        queued.incrementAndGet();
+        if (session.schedule()) execute(new Drainer(session));
+        return true;
+    }
+
+    /**
+     * Drop the session of a user who has left, with the messages still waiting in it.
+     * 
+     * @param String user The user name.
+     */
+    public void discard(final String user)
+    {
+        final ChatSession session = (ChatSession) sessions.remove(user);
+        if (session != null) drop(session);
+    }
+
+    /**
+     * Number of messages waiting in all the sessions, or being sent.
+     * 
+     * @return Value of property queued.
+     */
+    public long getQueued()
+    {
+        return queued.get();
+    }
+
+    /**
+     * Number of messages dropped because their lane was full or their recipient was sniped.
+     * 
+     * @param int lane The lane (see ChatSession).
+     */
+    public long getDropped(final int lane)
+    {
+        return dropped.get(lane);
+    }
+
+    /**
+     * Time spent by the messages in a lane before being sent, in microseconds.
+     * 
+     * @param int lane The lane (see ChatSession).
+     */
+    public LatencyHistogram getWait(final int lane)
+    {
+        return waits[lane];
+    }
+
+    /**
+     * Name of a lane, for the metrics.
+     * 
+     * @param int lane The lane (see ChatSession).
+     */
+    public static String getLaneName(final int lane)
+    {
+        return LANE_NAMES[lane];
+    }
+
+    /**
+     * Wait for all the queued messages to be sent.
+     * 
+     * @param long timeout Maximum time to wait in milliseconds.
+     * @return True if nothing is waiting anymore.
+     */
+    public boolean awaitIdle(final long timeout) throws InterruptedException
+    {
+        final long deadline = System.currentTimeMillis() + timeout;
+        while ((queued.get() > 0) && (System.currentTimeMillis() < deadline))
+            Thread.sleep(10);
+        return queued.get() == 0;
+    }
+
+    /**
+     * Stop the delivery threads and drop the messages still waiting.
+     * 
+     * @return The number of messages dropped, for each lane.
+     */
+    public int[] close()
+    {
+        closed = true;
+        workers.shutdownNow();
+
+        final int[] total = new int[ChatSession.LANES];
+        for (final Iterator i = sessions.values().iterator(); i.hasNext();)
+        {
+            final int[] counts = drop((ChatSession) i.next());
+            for (int j = 0; j < ChatSession.LANES; j++)
+                total[j] += counts[j];
+        }
+        sessions.clear();
+        return total;
+    }
+
+    private void execute(final Runnable drainer)
+    {
+        try
+        {
+            workers.execute(drainer);
+        }
+        catch (final RejectedExecutionException e)
+        {
+            // closed: the waiting messages are dropped
+        }
+    }
+
+    private int[] drop(final ChatSession session)
+    {
+        final int[] counts = session.clear();
+        for (int i = 0; i < ChatSession.LANES; i++)
+        {
+            dropped.addAndGet(i, counts[i]);
+            queued.addAndGet(-counts[i]);
+        }
+        return counts;
+    }
+
+    /** Send the messages of a session, a batch at a time. */
+    private class Drainer implements Runnable
+    {
+        private final ChatSession session;
+
+        Drainer(final ChatSession session)
+        {
+            this.session = session;
+        }
+
+        @Override
+        public void run()
+        {
+            for (int i = 0; i < BATCH; i++)
+            {
+                final ChatSession.Queued next = session.poll();
+                if (next == null) return;
+
+                waits[next.lane].record((System.nanoTime() - next.queuedAt) / 1000);
+                final boolean sent = chatServer.sendMessage(session.getUser(), next.message);
+                queued.decrementAndGet();
+                if (!sent)
+                {
+                    // the recipient is gone: nothing else can reach it
+                    drop(session);
+                    sessions.remove(session.getUser(), session);
+                }
+            }
+
+            // still busy: give the other sessions a turn
+            execute(this);
+        }
+    }
+}
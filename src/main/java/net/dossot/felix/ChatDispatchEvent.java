@@ -0,0 +1,70 @@
+//
+//    Felix the Chat
+//
+//    Copyright (c) 2001-2002 David Dossot
+//
+//    Permission is hereby granted, free of charge, to any person obtaining a copy
+//    of this software and associated documentation files (the "Software"), to deal
+//    in the Software without restriction, including without limitation the rights
+//    to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//    copies of the Software, and to permit persons to whom the Software is
+//    furnished to do so, subject to the following conditions:
+//
+//    The above copyright notice and this permission notice shall be included in
+//    all copies or substantial portions of the Software.
+//
+//    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//    IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//    FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//    AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//    LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//    OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+//    THE SOFTWARE.
+//
+
+package net.dossot.felix;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight Recorder event: the dispatching of a message, from the call of the dispatcher to the
+ * feedback to the sender, with the time spent waiting for the locks.
+ * 
+ * @see net.dossot.felix.ChatServer#dispatchMessage(ChatMessage)
+ * @see net.dossot.felix.ChatServer#dispatchRoomMessage(ChatMessage)
+ */
+@Name("net.dossot.felix.Dispatch")
+@Label("Message Dispatch")
+@Category({"Felix", "Server"})
+@Description("A message dispatched to its recipients")
+@StackTrace(false)
+class ChatDispatchEvent extends Event
+{
+    @Label("Sender")
+    String sender;
+
+    @Label("Room")
+    String room;
+
+    @Label("Recipients")
+    @Description("Number of recipients chosen by the sender, 0 for everyone")
+    int recipients;
+
+    @Label("Fan-out")
+    @Description("Number of recipients the message has been sent to on this node")
+    int fanOut;
+
+    @Label("Lock Wait")
+    @Timespan(Timespan.NANOSECONDS)
+    long lockWait;
+
+    @Label("Outcome")
+    @Description("delivered, lost, rejected or shutdown")
+    String outcome;
+}
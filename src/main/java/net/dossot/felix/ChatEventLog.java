@@ -0,0 +1,274 @@
+//
+//    Felix the Chat
+//
+//    Copyright (c) 2001-2002 David Dossot
+//
+//    Permission is hereby granted, free of charge, to any person obtaining a copy
+//    of this software and associated documentation files (the "Software"), to deal
+//    in the Software without restriction, including without limitation the rights
+//    to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//    copies of the Software, and to permit persons to whom the Software is
+//    furnished to do so, subject to the following conditions:
+//
+//    The above copyright notice and this permission notice shall be included in
+//    all copies or substantial portions of the Software.
+//
+//    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//    IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//    FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//    AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//    LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//    OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+//    THE SOFTWARE.
+//
+
+package net.dossot.felix;
+
+import java.io.PrintStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Asynchronous log of the server events: the dispatching threads put structured records (event, user,
+ * duration, detail) in a lock free ring buffer, and a background thread formats and writes them.
+ * <p>
+ * Logging never blocks and never allocates: the records of the ring are reused, and when the ring is
+ * full the record is dropped and counted. The writer writes to a rolling file, or to the console if
+ * there is none.
+ * </p>
+ * 
+ * @see net.dossot.felix.ChatRollingFile
+ */
+public class ChatEventLog
+{
+    private final static long IDLE_PARK = 1000000;
+
+    private final Record[] records;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private long head = 0;
+    private final AtomicLong dropped = new AtomicLong();
+
+    private volatile ChatRollingFile file = null;
+    private volatile boolean running = false;
+    private Thread writer = null;
+
+    /** A structured record of the log. */
+    private static class Record
+    {
+        long time;
+        String event;
+        String user;
+        long durationMicros;
+        String detail;
+    }
+
+    /**
+     * Creates a new log.
+     * 
+     * @param int capacity Number of records the ring can hold, rounded up to a power of two.
+     */
+    public ChatEventLog(final int capacity)
+    {
+        int size = 1;
+        while (size < capacity)
+            size <<= 1;
+
+        records = new Record[size];
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++)
+        {
+            records[i] = new Record();
+            sequences.set(i, i);
+        }
+        mask = size - 1;
+    }
+
+    /**
+     * Log an event.
+     * 
+     * @param String event Kind of event, a single word.
+     * @param String user User concerned, may be null.
+     * @param long durationMicros Duration of the event, or -1 if it has none.
+     * @param String detail Free text, may be null.
+     * @return False if the record has been dropped because the ring was full.
+     */
+    public boolean log(final String event, final String user, final long durationMicros, final String detail)
+    {
+        long position = tail.get();
+        while (true)
+        {
+            final int index = (int) (position & mask);
+            final long sequence = sequences.get(index);
+            if (sequence == position)
+            {
+                if (tail.compareAndSet(position, position + 1))
+                {
+                    final Record record = records[index];
+                    record.time = System.currentTimeMillis();
+                    record.event = event;
+                    record.user = user;
+                    record.durationMicros = durationMicros;
+                    record.detail = detail;
+                    sequences.set(index, position + 1);
+                    return true;
+                }
+                position = tail.get();
+            }
+            else if (sequence < position)
+            {
+                // the writer is one lap behind: drop rather than wait
+                dropped.incrementAndGet();
+                return false;
+            }
+            else
+                position = tail.get();
+        }
+    }
+
+    /**
+     * Log an event without duration nor detail.
+     * 
+     * @param String event Kind of event, a single word.
+     * @param String user User concerned, may be null.
+     * @return False if the record has been dropped because the ring was full.
+     */
+    public boolean log(final String event, final String user)
+    {
+        return log(event, user, -1, null);
+    }
+
+    /**
+     * Start the writer.
+     * 
+     * @param ChatRollingFile file Where to write, or null to write to the console.
+     */
+    public synchronized void start(final ChatRollingFile file)
+    {
+        if (running) return;
+
+        this.file = file;
+        running = true;
+        writer = new Thread("ChatEventLog")
+        {
+            @Override
+            public void run()
+            {
+                write();
+            }
+        };
+        writer.setDaemon(true);
+        writer.start();
+
+        // the records logged just before an exit must not be lost
+        Runtime.getRuntime().addShutdownHook(new Thread("ChatEventLogFlush")
+        {
+            @Override
+            public void run()
+            {
+                close();
+            }
+        });
+    }
+
+    /** Stop the writer, once it has written all the records. */
+    public void close()
+    {
+        final Thread toJoin;
+        synchronized (this)
+        {
+            running = false;
+            toJoin = writer;
+        }
+        if (toJoin == null) return;
+
+        LockSupport.unpark(toJoin);
+        try
+        {
+            toJoin.join(5000);
+        }
+        catch (final InterruptedException e)
+        {
+        }
+    }
+
+    /**
+     * Number of records dropped because the ring was full.
+     * 
+     * @return Value of property dropped.
+     */
+    public long getDropped()
+    {
+        return dropped.get();
+    }
+
+    private void write()
+    {
+        final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS");
+        final StringBuffer line = new StringBuffer(256);
+        final Date date = new Date();
+        long reportedDrops = 0;
+
+        while (true)
+        {
+            final int index = (int) (head & mask);
+            if (sequences.get(index) == head + 1)
+            {
+                final Record record = records[index];
+                date.setTime(record.time);
+                line.setLength(0);
+                line.append("time=").append(dateFormat.format(date)).append(" event=").append(record.event);
+                if (record.user != null) line.append(" user=").append(quote(record.user));
+                if (record.durationMicros >= 0) line.append(" duration_us=").append(record.durationMicros);
+                if (record.detail != null) line.append(" detail=").append(quote(record.detail));
+                record.user = null;
+                record.detail = null;
+                sequences.set(index, head + records.length);
+                head++;
+                output(line.toString());
+            }
+            else
+            {
+                final long drops = dropped.get();
+                if (drops > reportedDrops)
+                {
+                    output("time=" + dateFormat.format(new Date()) + " event=log_overflow dropped="
+                           + (drops - reportedDrops));
+                    reportedDrops = drops;
+                }
+                flush();
+                if (!running) return;
+                LockSupport.parkNanos(IDLE_PARK);
+            }
+        }
+    }
+
+    private void output(final String line)
+    {
+        final ChatRollingFile target = file;
+        if (target == null)
+            System.out.println(line);
+        else
+            target.write(line);
+    }
+
+    private void flush()
+    {
+        final ChatRollingFile target = file;
+        if (target != null) target.flush();
+    }
+
+    private static String quote(final String value)
+    {
+        for (int i = 0; i < value.length(); i++)
+        {
+            final char c = value.charAt(i);
+            if ((c <= ' ') || (c == '"') || (c == '=')) return '"' + value.replace("\"", "\\\"") + '"';
+        }
+        return value;
+    }
+}
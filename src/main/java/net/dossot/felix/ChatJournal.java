@@ -0,0 +1,197 @@
+//
+//    Felix the Chat
+//
+//    Copyright (c) 2001-2002 David Dossot
+//
+//    Permission is hereby granted, free of charge, to any person obtaining a copy
+//    of this software and associated documentation files (the "Software"), to deal
+//    in the Software without restriction, including without limitation the rights
+//    to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//    copies of the Software, and to permit persons to whom the Software is
+//    furnished to do so, subject to the following conditions:
+//
+//    The above copyright notice and this permission notice shall be included in
+//    all copies or substantial portions of the Software.
+//
+//    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//    IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//    FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//    AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//    LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//    OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+//    THE SOFTWARE.
+//
+
+package net.dossot.felix;
+
+import java.util.Hashtable;
+import java.util.Vector;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Journal of the server: every login, logout and dispatched message gets a sequence number. The last
+ * messages are kept as the history of the chat, and all the entries can be handed to a replication
+ * queue.
+ * <p>
+ * Appending never blocks: if the replication queue is full, the entry is only kept in the history and
+ * the journal remembers it has overflowed, so that the replication starts over with a full state.
+ * </p>
+ * <p>
+ * Without history and without replication, which is the default, appending does nothing at all.
+ * </p>
+ * 
+ * @see net.dossot.felix.ChatReplicator
+ */
+public class ChatJournal
+{
+    private final ChatMessage[] history;
+    private int historyStart = 0;
+    private int historySize = 0;
+    private long lastSequence = 0;
+
+    private volatile boolean keepHistory = false;
+    private volatile BlockingQueue replicationQueue = null;
+    private volatile boolean overflow = false;
+
+    /**
+     * Creates a new empty journal.
+     * 
+     * @param int historySize Number of messages kept in the history.
+     */
+    public ChatJournal(final int historySize)
+    {
+        history = new ChatMessage[historySize];
+    }
+
+    /**
+     * Append an entry to the journal.
+     * 
+     * @param int type Kind of entry (see ChatJournalEntry).
+     * @param String user User name for LOGIN and LOGOUT entries.
+     * @param Vector endpoint Client IP and port for LOGIN entries.
+     * @param ChatMessage message Message for MESSAGE entries: a copy is kept, so that the message can
+     *            be altered later on.
+     * @return The new entry, or null if the journal keeps nothing.
+     */
+    public ChatJournalEntry append(final int type, final String user, final Vector endpoint, final ChatMessage message)
+    {
+        // no lock, no copy: the dispatching threads pay nothing for a journal nobody reads
+        if ((!keepHistory) && (replicationQueue == null)) return null;
+
+        synchronized (this)
+        {
+            final ChatJournalEntry entry = new ChatJournalEntry(++lastSequence, type);
+            entry.setUser(user);
+            entry.setEndpoint(endpoint);
+            if (message != null)
+            {
+                entry.setMessage(new ChatMessage(message));
+                if (keepHistory) addToHistory(entry.getMessage());
+            }
+
+            if ((replicationQueue != null) && (!replicationQueue.offer(entry))) overflow = true;
+            return entry;
+        }
+    }
+
+    /**
+     * Apply an entry replicated from another journal, keeping its sequence number.
+     * 
+     * @param ChatJournalEntry entry The replicated entry.
+     */
+    public synchronized void restore(final ChatJournalEntry entry)
+    {
+        lastSequence = entry.getSequence();
+        if (entry.getType() == ChatJournalEntry.MESSAGE)
+            addToHistory(entry.getMessage());
+        else if (entry.getType() == ChatJournalEntry.SYNC)
+        {
+            historyStart = 0;
+            historySize = 0;
+            for (int i = 0; i < entry.getHistory().size(); i++)
+                addToHistory((ChatMessage) entry.getHistory().get(i));
+        }
+    }
+
+    /**
+     * Start handing the new entries to a replication queue.
+     * 
+     * @param BlockingQueue queue The queue that will receive the entries.
+     * @param Hashtable logguedUsers The loggued users.
+     * @return A SYNC entry holding the current state, which the entries in the queue will follow.
+     */
+    public synchronized ChatJournalEntry startReplication(final BlockingQueue queue,
+                                                          final Hashtable logguedUsers)
+    {
+        replicationQueue = queue;
+        overflow = false;
+
+        final ChatJournalEntry entry = new ChatJournalEntry(lastSequence, ChatJournalEntry.SYNC);
+        entry.setLogguedUsers((Hashtable) logguedUsers.clone());
+        entry.setHistory(getHistory());
+        return entry;
+    }
+
+    /**
+     * Stop handing the new entries to a replication queue.
+     * 
+     * @param BlockingQueue queue The queue that was receiving the entries.
+     */
+    public synchronized void stopReplication(final BlockingQueue queue)
+    {
+        if (replicationQueue == queue) replicationQueue = null;
+    }
+
+    /**
+     * Keep the last messages in the history, for a standby server or to replay them to the users who
+     * log in. The history is not kept by default.
+     * 
+     * @param keepHistory New value of property keepHistory.
+     */
+    public void setKeepHistory(final boolean keepHistory)
+    {
+        this.keepHistory = keepHistory;
+    }
+
+    /** Check if an entry could not be handed to the replication queue because it was full. */
+    public boolean hasOverflowed()
+    {
+        return overflow;
+    }
+
+    /**
+     * The last messages, oldest first.
+     * 
+     * @return A new Vector of ChatMessage.
+     */
+    public synchronized Vector getHistory()
+    {
+        final Vector result = new Vector(historySize);
+        for (int i = 0; i < historySize; i++)
+            result.add(history[(historyStart + i) % history.length]);
+        return result;
+    }
+
+    /**
+     * Getter for property lastSequence.
+     * 
+     * @return Value of property lastSequence.
+     */
+    public synchronized long getLastSequence()
+    {
+        return lastSequence;
+    }
+
+    private void addToHistory(final ChatMessage message)
+    {
+        if (history.length == 0) return;
+
+        if (historySize < history.length)
+            history[(historyStart + historySize++) % history.length] = message;
+        else
+        {
+            history[historyStart] = message;
+            historyStart = (historyStart + 1) % history.length;
+        }
+    }
+}
@@ -0,0 +1,202 @@
+//
+//    Felix the Chat
+//
+//    Copyright (c) 2001-2002 David Dossot
+//
+//    Permission is hereby granted, free of charge, to any person obtaining a copy
+//    of this software and associated documentation files (the "Software"), to deal
+//    in the Software without restriction, including without limitation the rights
+//    to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//    copies of the Software, and to permit persons to whom the Software is
+//    furnished to do so, subject to the following conditions:
+//
+//    The above copyright notice and this permission notice shall be included in
+//    all copies or substantial portions of the Software.
+//
+//    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//    IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//    FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//    AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//    LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//    OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+//    THE SOFTWARE.
+//
+
+package net.dossot.felix;
+
+import java.io.Serializable;
+import java.util.Hashtable;
+import java.util.Vector;
+
+/**
+ * An entry of the journal of the server: a change of the loggued users or a dispatched message.
+ * 
+ * @see net.dossot.felix.ChatJournal
+ */
+public class ChatJournalEntry implements Serializable
+{
+    private static final long serialVersionUID = 1L;
+
+    /** A user has logged in: holds the user name and the client IP and port. */
+    public final static int LOGIN = 1;
+    /** A user has logged out or has been sniped: holds the user name. */
+    public final static int LOGOUT = 2;
+    /** A message has been dispatched: holds a copy of the message. */
+    public final static int MESSAGE = 3;
+    /** Full state of the journal and of the loggued users, sent first to a standby server. */
+    public final static int SYNC = 4;
+    /** Nothing happened: sent to a standby server to show the primary one is alive. */
+    public final static int HEARTBEAT = 5;
+
+    private final long sequence;
+    private final int type;
+    private final long timestamp;
+    private String user;
+    private Vector endpoint;
+    private ChatMessage message;
+    private Hashtable logguedUsers;
+    private Vector history;
+
+    /**
+     * Creates a new entry.
+     * 
+     * @param long sequence Sequence number of the entry in the journal.
+     * @param int type Kind of entry.
+     */
+    public ChatJournalEntry(final long sequence, final int type)
+    {
+        this.sequence = sequence;
+        this.type = type;
+        timestamp = System.currentTimeMillis();
+    }
+
+    /**
+     * Getter for property sequence.
+     * 
+     * @return Value of property sequence.
+     */
+    public long getSequence()
+    {
+        return sequence;
+    }
+
+    /**
+     * Getter for property type.
+     * 
+     * @return Value of property type.
+     */
+    public int getType()
+    {
+        return type;
+    }
+
+    /**
+     * Getter for property timestamp.
+     * 
+     * @return Value of property timestamp.
+     */
+    public long getTimestamp()
+    {
+        return timestamp;
+    }
+
+    /**
+     * Getter for property user.
+     * 
+     * @return Value of property user.
+     */
+    public java.lang.String getUser()
+    {
+        return user;
+    }
+
+    /**
+     * Setter for property user.
+     * 
+     * @param user New value of property user.
+     */
+    public void setUser(final java.lang.String user)
+    {
+        this.user = user;
+    }
+
+    /**
+     * Getter for property endpoint.
+     * 
+     * @return Value of property endpoint.
+     */
+    public java.util.Vector getEndpoint()
+    {
+        return endpoint;
+    }
+
+    /**
+     * Setter for property endpoint.
+     * 
+     * @param endpoint New value of property endpoint.
+     */
+    public void setEndpoint(final java.util.Vector endpoint)
+    {
+        this.endpoint = endpoint;
+    }
+
+    /**
+     * Getter for property message.
+     * 
+     * @return Value of property message.
+     */
+    public net.dossot.felix.ChatMessage getMessage()
+    {
+        return message;
+    }
+
+    /**
+     * Setter for property message.
+     * 
+     * @param message New value of property message.
+     */
+    public void setMessage(final net.dossot.felix.ChatMessage message)
+    {
+        this.message = message;
+    }
+
+    /**
+     * Getter for property logguedUsers.
+     * 
+     * @return Value of property logguedUsers.
+     */
+    public java.util.Hashtable getLogguedUsers()
+    {
+        return logguedUsers;
+    }
+
+    /**
+     * Setter for property logguedUsers.
+     * 
+     * @param logguedUsers New value of property logguedUsers.
+     */
+    public void setLogguedUsers(final java.util.Hashtable logguedUsers)
+    {
+        this.logguedUsers = logguedUsers;
+    }
+
+    /**
+     * Getter for property history.
+     * 
+     * @return Value of property history.
+     */
+    public java.util.Vector getHistory()
+    {
+        return history;
+    }
+
+    /**
+     * Setter for property history.
+     * 
+     * @param history New value of property history.
+     */
+    public void setHistory(final java.util.Vector history)
+    {
+        this.history = history;
+    }
+}
@@ -39,6 +39,22 @@ import java.util.Vector;
 
 public class ChatMessage implements Serializable
 {
+    /** Kept from version 2.0.2 so that clients of this version can still connect. */
+    private static final long serialVersionUID = -5742170492029103417L;
+
+    /** Hop of a traced message: sent by the client. */
+    public final static int HOP_CLIENT_SEND = 0;
+    /** Hop of a traced message: read by the server. */
+    public final static int HOP_SERVER_RECEIVE = 1;
+    /** Hop of a traced message: its dispatching starts, the locks being acquired. */
+    public final static int HOP_DISPATCH_START = 2;
+    /** Hop of a traced message: written to a recipient. */
+    public final static int HOP_DELIVERY_WRITE = 3;
+    /** Hop of a traced message: read by the client of the recipient. */
+    public final static int HOP_CLIENT_RECEIVE = 4;
+    /** Number of hops of a traced message. */
+    public final static int HOPS = 5;
+
     /** Flag saying if it is a service (internal) message. */
     private Boolean service;
     /** User name of the sender of the message. */
@@ -55,6 +71,13 @@ public class ChatMessage implements Serializable
     private Date dateSent;
     /** Textual content of the message. */
     private String contents;
+    /** Name of the room where the message is sent, null if it is not sent in a room. */
+    private String room;
+    /**
+     * Time of each hop of the message, in microseconds since the epoch (0 for a hop not reached yet),
+     * or null if the message is not traced.
+     */
+    private long[] hops;
 
     /**
      * Creates a new ChatMessage
@@ -76,6 +99,39 @@ public class ChatMessage implements Serializable
         contents = Contents;
     }
 
+    /**
+     * Creates a copy of a ChatMessage, which can then be altered without affecting the original one.
+     * 
+     * @param ChatMessage message The message to copy.
+     */
+    public ChatMessage(final ChatMessage message)
+    {
+        service = message.service;
+        sender = message.sender;
+        recipients = message.recipients;
+        dateSent = message.dateSent;
+        contents = message.contents;
+        room = message.room;
+        hops = (message.hops == null) ? null : message.hops.clone();
+    }
+
+    /** Trace the hops of this message, starting with the current one as sent by the client. */
+    public void trace()
+    {
+        hops = new long[HOPS];
+        stampHop(HOP_CLIENT_SEND);
+    }
+
+    /**
+     * Record the current time for a hop, if the message is traced.
+     * 
+     * @param int hop One of the HOP_ constants.
+     */
+    public void stampHop(final int hop)
+    {
+        if (hops != null) hops[hop] = HopStatistics.currentTimeMicros();
+    }
+
     /**
      * Returns a string representation of the message.
      * 
@@ -95,6 +151,11 @@ public class ChatMessage implements Serializable
         sb.append(dateSent.toString());
         sb.append(", Contents=");
         sb.append(contents);
+        if (room != null)
+        {
+            sb.append(", Room=");
+            sb.append(room);
+        }
         return sb.toString();
     }
 
@@ -198,4 +259,43 @@ public class ChatMessage implements Serializable
         this.service = service;
     }
 
+    /**
+     * Getter for property room.
+     * 
+     * @return Value of property room.
+     */
+    public java.lang.String getRoom()
+    {
+        return room;
+    }
+
+    /**
+     * Setter for property room.
+     * 
+     * @param room New value of property room.
+     */
+    public void setRoom(final java.lang.String room)
+    {
+        this.room = room;
+    }
+
+    /**
+     * Getter for property hops.
+     * 
+     * @return Value of property hops.
+     */
+    public long[] getHops()
+    {
+        return hops;
+    }
+
+    /**
+     * Setter for property hops.
+     * 
+     * @param hops New value of property hops.
+     */
+    public void setHops(final long[] hops)
+    {
+        this.hops = hops;
+    }
 }
@@ -0,0 +1,46 @@
+//
+//    Felix the Chat
+//
+//    Copyright (c) 2001-2002 David Dossot
+//
+//    Permission is hereby granted, free of charge, to any person obtaining a copy
+//    of this software and associated documentation files (the "Software"), to deal
+//    in the Software without restriction, including without limitation the rights
+//    to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//    copies of the Software, and to permit persons to whom the Software is
+//    furnished to do so, subject to the following conditions:
+//
+//    The above copyright notice and this permission notice shall be included in
+//    all copies or substantial portions of the Software.
+//
+//    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//    IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//    FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//    AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//    LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//    OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+//    THE SOFTWARE.
+//
+
+package net.dossot.felix;
+
+/**
+ * Exporter of the metrics of a chat server to a monitoring system. An exporter given on the command
+ * line by its class name must have a public constructor without arguments.
+ * 
+ * @see net.dossot.felix.ChatServerMetrics
+ * @see net.dossot.felix.ChatMetricsTextExporter
+ */
+public interface ChatMetricsExporter
+{
+    /**
+     * Start exporting.
+     * 
+     * @param ChatServerMetrics metrics The metrics of the server.
+     * @throws Exception If the exporter can not start: the server runs without it.
+     */
+    void start(ChatServerMetrics metrics) throws Exception;
+
+    /** Stop exporting. */
+    void stop();
+}
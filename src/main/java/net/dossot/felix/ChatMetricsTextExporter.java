@@ -0,0 +1,128 @@
+//
+//    Felix the Chat
+//
+//    Copyright (c) 2001-2002 David Dossot
+//
+//    Permission is hereby granted, free of charge, to any person obtaining a copy
+//    of this software and associated documentation files (the "Software"), to deal
+//    in the Software without restriction, including without limitation the rights
+//    to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//    copies of the Software, and to permit persons to whom the Software is
+//    furnished to do so, subject to the following conditions:
+//
+//    The above copyright notice and this permission notice shall be included in
+//    all copies or substantial portions of the Software.
+//
+//    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//    IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//    FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//    AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//    LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//    OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+//    THE SOFTWARE.
+//
+
+package net.dossot.felix;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * Exporter serving the metrics as text on a local port: each connection receives the current metrics,
+ * as an HTTP response, so that <code>curl http://localhost:$port/</code> or a Prometheus scraper can
+ * read them. Only connections from the local machine are accepted.
+ * 
+ * @see net.dossot.felix.ChatServerMetrics#toText()
+ */
+public class ChatMetricsTextExporter implements ChatMetricsExporter, Runnable
+{
+    private final static int REQUEST_TIMEOUT = 1000;
+
+    private final int port;
+    private ServerSocket serverSocket = null;
+    private ChatServerMetrics metrics = null;
+
+    /**
+     * Creates the exporter.
+     * 
+     * @param int port Local port serving the metrics.
+     */
+    public ChatMetricsTextExporter(final int port)
+    {
+        this.port = port;
+    }
+
+    @Override
+    public void start(final ChatServerMetrics metrics) throws Exception
+    {
+        this.metrics = metrics;
+        serverSocket = new ServerSocket(port, 50, InetAddress.getByName(null));
+        final Thread thread = new Thread(this, "ChatMetricsTextExporter");
+        thread.setDaemon(true);
+        thread.start();
+        System.out.println("Metrics on: http://localhost:" + port + "/");
+    }
+
+    @Override
+    public void stop()
+    {
+        try
+        {
+            if (serverSocket != null) serverSocket.close();
+        }
+        catch (final Exception e)
+        {
+        }
+    }
+
+    @Override
+    public void run()
+    {
+        while (!serverSocket.isClosed())
+        {
+            try
+            {
+                final Socket socket = serverSocket.accept();
+                try
+                {
+                    socket.setSoTimeout(REQUEST_TIMEOUT);
+                    skipRequest(socket);
+
+                    final byte[] body = metrics.toText().getBytes("UTF-8");
+                    final OutputStream out = socket.getOutputStream();
+                    out.write(("HTTP/1.0 200 OK\r\nContent-Type: text/plain; version=0.0.4\r\nContent-Length: "
+                               + body.length + "\r\n\r\n").getBytes("US-ASCII"));
+                    out.write(body);
+                    out.flush();
+                }
+                finally
+                {
+                    socket.close();
+                }
+            }
+            catch (final Exception e)
+            {
+                // a failed scrape must not stop the exporter
+            }
+        }
+    }
+
+    private static void skipRequest(final Socket socket)
+    {
+        try
+        {
+            final BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+            String line;
+            while (((line = in.readLine()) != null) && (line.length() > 0))
+                ;
+        }
+        catch (final Exception e)
+        {
+            // not an HTTP client: answer anyway
+        }
+    }
+}
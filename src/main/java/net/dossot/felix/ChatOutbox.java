@@ -0,0 +1,246 @@
+//
+//    Felix the Chat
+//
+//    Copyright (c) 2001-2002 David Dossot
+//
+//    Permission is hereby granted, free of charge, to any person obtaining a copy
+//    of this software and associated documentation files (the "Software"), to deal
+//    in the Software without restriction, including without limitation the rights
+//    to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//    copies of the Software, and to permit persons to whom the Software is
+//    furnished to do so, subject to the following conditions:
+//
+//    The above copyright notice and this permission notice shall be included in
+//    all copies or substantial portions of the Software.
+//
+//    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//    IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//    FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//    AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//    LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//    OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+//    THE SOFTWARE.
+//
+
+package net.dossot.felix;
+
+import java.io.BufferedOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.Socket;
+import java.util.Vector;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Outbox of a chat client: the messages are queued and sent over a single persistent connection to
+ * the server, without waiting for the answer to the previous ones. The server answers the messages of
+ * a connection in order, so the answers are matched to the messages in order too.
+ * <p>
+ * When the connection fails, or when an answer does not come within 10 seconds, the messages waiting
+ * for an answer are reported as not sent (the server may have dispatched some of them, so they are not
+ * sent again), and the next messages go through a new connection.
+ * </p>
+ * 
+ * @see net.dossot.felix.ChatClient#sendMessageAsync(ChatMessage)
+ */
+public class ChatOutbox
+{
+    private final static int CAPACITY = 1000;
+    private final static int MAX_BATCH = 64;
+    private final static long ANSWER_TIMEOUT = 10000;
+    private final static int POLL_PERIOD = 1000;
+
+    private final ChatClient chatClient;
+    private final BlockingQueue outbox = new LinkedBlockingQueue(CAPACITY);
+    private final Thread writer;
+    private volatile boolean closed = false;
+
+    /** Used by the writer thread only. */
+    private Connection connection = null;
+
+    /**
+     * Creates the outbox and starts its writer thread.
+     * 
+     * @param ChatClient chatClient The client sending the messages.
+     */
+    public ChatOutbox(final ChatClient chatClient)
+    {
+        this.chatClient = chatClient;
+        writer = new Thread("ChatOutbox-" + chatClient.getUserName())
+        {
+            @Override
+            public void run()
+            {
+                write();
+            }
+        };
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Queue a message.
+     * 
+     * @param ChatMessage message The message.
+     * @param String expectedAnswer The answer of the server when it accepts the message.
+     * @return A future completed with Boolean.TRUE when the server has accepted the message, or with
+     *         Boolean.FALSE if it has refused it or could not be reached.
+     */
+    public CompletableFuture send(final ChatMessage message, final String expectedAnswer)
+    {
+        final Pending pending = new Pending(message, expectedAnswer);
+        if ((closed) || (!outbox.offer(pending))) pending.future.complete(Boolean.FALSE);
+        return pending.future;
+    }
+
+    /** Stop sending: the queued messages are reported as not sent. */
+    public void close()
+    {
+        closed = true;
+        writer.interrupt();
+        Pending pending;
+        while ((pending = (Pending) outbox.poll()) != null)
+            pending.future.complete(Boolean.FALSE);
+    }
+
+    private void write()
+    {
+        final Vector batch = new Vector();
+        while (!closed)
+        {
+            final Object first;
+            try
+            {
+                first = outbox.poll(POLL_PERIOD, TimeUnit.MILLISECONDS);
+            }
+            catch (final InterruptedException e)
+            {
+                break;
+            }
+
+            // the reader never times out, as a stream interrupted in the middle of an object is lost
+            if ((connection != null) && (connection.isLate())) connection.fail();
+            if (first == null) continue;
+            batch.add(first);
+            outbox.drainTo(batch, MAX_BATCH - 1);
+
+            try
+            {
+                if ((connection == null) || (connection.broken)) connection = new Connection();
+                for (int i = 0; i < batch.size(); i++)
+                {
+                    final Pending pending = (Pending) batch.get(i);
+                    // in flight before being written, as the answer may come at once
+                    pending.sentAt = System.currentTimeMillis();
+                    connection.inFlight.add(pending);
+                    connection.oos.writeObject(pending.message);
+                    connection.oos.reset();
+                }
+                connection.oos.flush();
+            }
+            catch (final Exception e)
+            {
+                if (connection != null) connection.fail();
+                // the messages of the batch not written yet
+                for (int i = 0; i < batch.size(); i++)
+                    ((Pending) batch.get(i)).future.complete(Boolean.FALSE);
+            }
+            batch.clear();
+        }
+
+        if (connection != null) connection.fail();
+    }
+
+    /** A message waiting to be sent, or for its answer. */
+    private static class Pending
+    {
+        private final ChatMessage message;
+        private final String expectedAnswer;
+        private final CompletableFuture future = new CompletableFuture();
+        private volatile long sentAt = 0;
+
+        Pending(final ChatMessage message, final String expectedAnswer)
+        {
+            this.message = message;
+            this.expectedAnswer = expectedAnswer;
+        }
+    }
+
+    /** A connection to the server, with the thread reading its answers. */
+    private class Connection extends Thread
+    {
+        private final Socket socket;
+        private final ObjectOutputStream oos;
+        private final ObjectInputStream ois;
+        private final ConcurrentLinkedQueue inFlight = new ConcurrentLinkedQueue();
+        private volatile boolean broken = false;
+
+        Connection() throws Exception
+        {
+            super("ChatOutboxReader-" + chatClient.getUserName());
+            setDaemon(true);
+            socket = new Socket(chatClient.getChatServerHost(), chatClient.getChatServerPort());
+            try
+            {
+                socket.setTcpNoDelay(true);
+                oos = new ObjectOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                oos.flush();
+                ois = new ObjectInputStream(socket.getInputStream());
+            }
+            catch (final Exception e)
+            {
+                socket.close();
+                throw e;
+            }
+            start();
+        }
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                while (!broken)
+                {
+                    final ChatMessage answer = (ChatMessage) ois.readObject();
+                    final Pending pending = (Pending) inFlight.poll();
+                    if (pending == null) break;
+                    pending.future.complete(Boolean.valueOf(chatClient.checkAnswer(answer, pending.expectedAnswer)));
+                }
+            }
+            catch (final Exception e)
+            {
+                // connection lost
+            }
+            fail();
+        }
+
+        /** Tell if the oldest message waiting for an answer has waited too long. */
+        boolean isLate()
+        {
+            final Pending oldest = (Pending) inFlight.peek();
+            return (oldest != null) && (System.currentTimeMillis() - oldest.sentAt > ANSWER_TIMEOUT);
+        }
+
+        /** Close the connection, and report the messages waiting for an answer as not sent. */
+        void fail()
+        {
+            broken = true;
+            try
+            {
+                socket.close();
+            }
+            catch (final Exception e)
+            {
+                // closing anyway
+            }
+            Pending pending;
+            while ((pending = (Pending) inFlight.poll()) != null)
+                pending.future.complete(Boolean.FALSE);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+//
+//    Felix the Chat
+//
+//    Copyright (c) 2001-2002 David Dossot
+//
+//    Permission is hereby granted, free of charge, to any person obtaining a copy
+//    of this software and associated documentation files (the "Software"), to deal
+//    in the Software without restriction, including without limitation the rights
+//    to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//    copies of the Software, and to permit persons to whom the Software is
+//    furnished to do so, subject to the following conditions:
+//
+//    The above copyright notice and this permission notice shall be included in
+//    all copies or substantial portions of the Software.
+//
+//    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//    IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//    FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//    AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//    LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//    OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+//    THE SOFTWARE.
+//
+
+package net.dossot.felix;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event: the list of users sent to all the users.
+ * 
+ * @see net.dossot.felix.ChatServer#dispatchPresence(java.util.Vector, java.util.Vector)
+ */
+@Name("net.dossot.felix.Presence")
+@Label("Presence Broadcast")
+@Category({"Felix", "Server"})
+@Description("The list of users sent to all the users")
+@StackTrace(false)
+class ChatPresenceEvent extends Event
+{
+    @Label("User")
+    @Description("First user joining or leaving, none for a periodic refresh")
+    String user;
+
+    @Label("Changes")
+    @Description("Number of users joining or leaving announced together")
+    int changes;
+
+    @Label("Coming")
+    boolean coming;
+
+    @Label("Recipients")
+    int recipients;
+}
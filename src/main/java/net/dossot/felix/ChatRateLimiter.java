@@ -0,0 +1,104 @@
+//
+//    Felix the Chat
+//
+//    Copyright (c) 2001-2002 David Dossot
+//
+//    Permission is hereby granted, free of charge, to any person obtaining a copy
+//    of this software and associated documentation files (the "Software"), to deal
+//    in the Software without restriction, including without limitation the rights
+//    to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//    copies of the Software, and to permit persons to whom the Software is
+//    furnished to do so, subject to the following conditions:
+//
+//    The above copyright notice and this permission notice shall be included in
+//    all copies or substantial portions of the Software.
+//
+//    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//    IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//    FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//    AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//    LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//    OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+//    THE SOFTWARE.
+//
+
+package net.dossot.felix;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Flood protection: each sender gets a bucket of messages per second and a bucket of characters per
+ * second, checked before a message is dispatched.
+ * <p>
+ * The buckets of a sender are created at its first message and dropped when it leaves. Checking a well
+ * behaved sender costs one map lookup and one compare-and-set per bucket: no lock is taken.
+ * </p>
+ * 
+ * @see net.dossot.felix.TokenBucket
+ */
+public class ChatRateLimiter
+{
+    private final double messageRate;
+    private final double messageBurst;
+    private final double byteRate;
+    private final double byteBurst;
+    private final ConcurrentHashMap senders = new ConcurrentHashMap();
+
+    /**
+     * Creates a new rate limiter.
+     * 
+     * @param double messageRate Messages per second allowed to a sender, 0 for no limit.
+     * @param double messageBurst Messages a sender can send at once after being quiet.
+     * @param double byteRate Characters of contents per second allowed to a sender, 0 for no limit.
+     * @param double byteBurst Characters a sender can send at once after being quiet.
+     */
+    public ChatRateLimiter(final double messageRate,
+                           final double messageBurst,
+                           final double byteRate,
+                           final double byteBurst)
+    {
+        this.messageRate = messageRate;
+        this.messageBurst = messageBurst;
+        this.byteRate = byteRate;
+        this.byteBurst = byteBurst;
+    }
+
+    /**
+     * Check if a message can be dispatched, and charge it to its sender.
+     * 
+     * @param ChatMessage message The message received from the sender.
+     * @return False if the sender is over one of its limits: the message must not be dispatched.
+     */
+    public boolean allow(final ChatMessage message)
+    {
+        TokenBucket[] buckets = (TokenBucket[]) senders.get(message.getSender());
+        if (buckets == null)
+        {
+            buckets = new TokenBucket[] {
+                (messageRate > 0) ? new TokenBucket(messageRate, messageBurst) : null,
+                (byteRate > 0) ? new TokenBucket(byteRate, byteBurst) : null };
+            final Object previous = senders.putIfAbsent(message.getSender(), buckets);
+            if (previous != null) buckets = (TokenBucket[]) previous;
+        }
+
+        if ((buckets[0] != null) && (!buckets[0].tryTake(1))) return false;
+        // a message too long for the burst would never pass: it is charged the whole burst instead
+        if ((buckets[1] == null)
+            || (buckets[1].tryTake(Math.min(message.getContents().length(), (long) Math.max(1, byteBurst)))))
+            return true;
+
+        // refused on its length: the message is not charged to the other limit
+        if (buckets[0] != null) buckets[0].refund(1);
+        return false;
+    }
+
+    /**
+     * Forget the buckets of a sender that has left.
+     * 
+     * @param String sender The user name.
+     */
+    public void forget(final String sender)
+    {
+        senders.remove(sender);
+    }
+}
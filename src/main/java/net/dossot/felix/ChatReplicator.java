@@ -0,0 +1,185 @@
+//
+//    Felix the Chat
+//
+//    Copyright (c) 2001-2002 David Dossot
+//
+//    Permission is hereby granted, free of charge, to any person obtaining a copy
+//    of this software and associated documentation files (the "Software"), to deal
+//    in the Software without restriction, including without limitation the rights
+//    to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//    copies of the Software, and to permit persons to whom the Software is
+//    furnished to do so, subject to the following conditions:
+//
+//    The above copyright notice and this permission notice shall be included in
+//    all copies or substantial portions of the Software.
+//
+//    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//    IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//    FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//    AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//    LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//    OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+//    THE SOFTWARE.
+//
+
+package net.dossot.felix;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Vector;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Primary side of the replication: a standby server connects to the replication port and receives
+ * the journal of this server.
+ * <p>
+ * The standby first receives a SYNC entry with the full state, then the new entries in batches. The
+ * entries are queued by the journal and written by this thread only, so the dispatching threads never
+ * wait for the standby. When nothing happens, a HEARTBEAT entry is sent every second. The standby
+ * acknowledges the sequence number of each batch it has applied, which gives the replication lag.
+ * </p>
+ * 
+ * @see net.dossot.felix.ChatStandby
+ * @see net.dossot.felix.ChatJournal
+ */
+public class ChatReplicator extends Thread
+{
+    private final static int QUEUE_SIZE = 50000;
+    private final static int MAX_BATCH = 500;
+    private final static long HEARTBEAT_PERIOD = 1000;
+
+    private final ChatServer chatServer;
+    private final int port;
+    private volatile long acknowledgedSequence = -1;
+
+    /**
+     * Initialize the replication.
+     * 
+     * @param ChatServer chatServer The primary server.
+     * @param int port The replication port, where the standby connects.
+     */
+    public ChatReplicator(final ChatServer chatServer, final int port)
+    {
+        super("ChatReplicator");
+        setDaemon(true);
+        this.chatServer = chatServer;
+        this.port = port;
+    }
+
+    /** Accept the standby servers, one after the other, and send them the journal. */
+    @Override
+    public void run()
+    {
+        ServerSocket serverSocket = null;
+        try
+        {
+            serverSocket = new ServerSocket(port);
+        }
+        catch (final IOException e)
+        {
+            System.err.println("Could not listen on replication port: " + port);
+            return;
+        }
+
+        while (chatServer.listening)
+        {
+            try
+            {
+                final Socket socket = serverSocket.accept();
+                System.out.println("Standby connected: " + socket.getInetAddress());
+                replicate(socket);
+            }
+            catch (final Exception e)
+            {
+                System.out.println("Standby disconnected: " + e);
+            }
+            acknowledgedSequence = -1;
+        }
+    }
+
+    private void replicate(final Socket socket) throws Exception
+    {
+        final ChatJournal journal = chatServer.getJournal();
+        final BlockingQueue queue = new ArrayBlockingQueue(QUEUE_SIZE);
+
+        try
+        {
+            socket.setTcpNoDelay(true);
+            final ObjectOutputStream oos = new ObjectOutputStream(new BufferedOutputStream(
+                socket.getOutputStream()));
+            startAcknowledgmentReader(socket);
+
+            while (chatServer.listening)
+            {
+                // (re)start with a full state, after connecting or when the queue has overflowed
+                queue.clear();
+                oos.writeObject(journal.startReplication(queue, chatServer.getLogguedUsers()));
+                oos.flush();
+                oos.reset();
+
+                while ((chatServer.listening) && (!journal.hasOverflowed()))
+                {
+                    final Object first = queue.poll(HEARTBEAT_PERIOD, TimeUnit.MILLISECONDS);
+                    final Vector batch = new Vector();
+                    if (first == null)
+                        batch.add(new ChatJournalEntry(journal.getLastSequence(), ChatJournalEntry.HEARTBEAT));
+                    else
+                    {
+                        batch.add(first);
+                        queue.drainTo(batch, MAX_BATCH - 1);
+                    }
+                    oos.writeObject(batch);
+                    oos.flush();
+                    oos.reset();
+                }
+            }
+        }
+        finally
+        {
+            journal.stopReplication(queue);
+            socket.close();
+        }
+    }
+
+    private void startAcknowledgmentReader(final Socket socket)
+    {
+        final Thread reader = new Thread("ChatReplicatorAcks")
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    final ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(
+                        socket.getInputStream()));
+                    while (true)
+                        acknowledgedSequence = ((Long) ois.readObject()).longValue();
+                }
+                catch (final Exception e)
+                {
+                    // standby gone, the writer will notice it too
+                }
+            }
+        };
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Number of journal entries not yet acknowledged by the standby.
+     * 
+     * @return The replication lag, or -1 if no standby is connected.
+     */
+    public long getReplicationLag()
+    {
+        final long acknowledged = acknowledgedSequence;
+        return (acknowledged < 0) ? -1 : Math.max(0, chatServer.getJournal().getLastSequence() - acknowledged);
+    }
+}
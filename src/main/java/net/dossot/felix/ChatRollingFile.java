@@ -0,0 +1,121 @@
+//
+//    Felix the Chat
+//
+//    Copyright (c) 2001-2002 David Dossot
+//
+//    Permission is hereby granted, free of charge, to any person obtaining a copy
+//    of this software and associated documentation files (the "Software"), to deal
+//    in the Software without restriction, including without limitation the rights
+//    to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//    copies of the Software, and to permit persons to whom the Software is
+//    furnished to do so, subject to the following conditions:
+//
+//    The above copyright notice and this permission notice shall be included in
+//    all copies or substantial portions of the Software.
+//
+//    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//    IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//    FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//    AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//    LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//    OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+//    THE SOFTWARE.
+//
+
+package net.dossot.felix;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Log file that rolls when it reaches a given size: <code>$file</code> is renamed
+ * <code>$file.1</code>, <code>$file.1</code> is renamed <code>$file.2</code> and so on, the oldest
+ * file being deleted. It is written by a single thread.
+ * 
+ * @see net.dossot.felix.ChatEventLog
+ */
+public class ChatRollingFile
+{
+    private final File file;
+    private final long maxSize;
+    private final int maxFiles;
+    private Writer writer = null;
+    private long size = 0;
+
+    /**
+     * Creates a rolling file, appending to the existing one.
+     * 
+     * @param File file The current log file.
+     * @param long maxSize Size in bytes after which the file is rolled.
+     * @param int maxFiles Number of rolled files kept besides the current one.
+     */
+    public ChatRollingFile(final File file, final long maxSize, final int maxFiles)
+    {
+        this.file = file;
+        this.maxSize = maxSize;
+        this.maxFiles = maxFiles;
+    }
+
+    /**
+     * Write a line, rolling the file first if it is full. Errors are reported on the console and the
+     * line is lost.
+     * 
+     * @param String line The line, without line separator.
+     */
+    public void write(final String line)
+    {
+        try
+        {
+            if (writer == null) open();
+            if ((size > 0) && (size + line.length() + 1 > maxSize)) roll();
+
+            writer.write(line);
+            writer.write('\n');
+            size += line.length() + 1;
+        }
+        catch (final IOException e)
+        {
+            System.err.println("Can not write log " + file + ": " + e);
+            writer = null;
+        }
+    }
+
+    /** Flush the written lines to the file. */
+    public void flush()
+    {
+        try
+        {
+            if (writer != null) writer.flush();
+        }
+        catch (final IOException e)
+        {
+            System.err.println("Can not flush log " + file + ": " + e);
+        }
+    }
+
+    private void open() throws IOException
+    {
+        writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8"));
+        size = file.length();
+    }
+
+    private void roll() throws IOException
+    {
+        writer.close();
+        writer = null;
+
+        new File(file.getPath() + "." + maxFiles).delete();
+        for (int i = maxFiles - 1; i >= 1; i--)
+            new File(file.getPath() + "." + i).renameTo(new File(file.getPath() + "." + (i + 1)));
+        if (maxFiles > 0)
+            file.renameTo(new File(file.getPath() + ".1"));
+        else
+            file.delete();
+
+        open();
+    }
+}
@@ -0,0 +1,108 @@
+//
+//    Felix the Chat
+//
+//    Copyright (c) 2001-2002 David Dossot
+//
+//    Permission is hereby granted, free of charge, to any person obtaining a copy
+//    of this software and associated documentation files (the "Software"), to deal
+//    in the Software without restriction, including without limitation the rights
+//    to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//    copies of the Software, and to permit persons to whom the Software is
+//    furnished to do so, subject to the following conditions:
+//
+//    The above copyright notice and this permission notice shall be included in
+//    all copies or substantial portions of the Software.
+//
+//    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//    IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//    FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//    AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//    LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//    OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+//    THE SOFTWARE.
+//
+
+package net.dossot.felix;
+
+import java.util.Hashtable;
+import java.util.Vector;
+
+/**
+ * A room of the chat server: a general message sent in a room only reaches its members.
+ * <p>
+ * Each room is its own dispatch domain: the server synchronizes on the room, and not on its global
+ * dispatcher, to deliver the messages of a room, so that busy rooms do not hold back each other.
+ * </p>
+ * 
+ * @see net.dossot.felix.ChatServer#dispatchRoomMessage(ChatMessage)
+ */
+public class ChatRoom
+{
+    private final String name;
+    /** Hashtable containing the names of the members. */
+    private final Hashtable members = new Hashtable();
+
+    /**
+     * Creates a new empty room.
+     * 
+     * @param String name Name of the room.
+     */
+    public ChatRoom(final String name)
+    {
+        this.name = name;
+    }
+
+    /**
+     * Add a member to the room.
+     * 
+     * @param String user Name of the new member.
+     * @return True if the user was not a member yet.
+     */
+    public boolean add(final String user)
+    {
+        return members.put(user, Boolean.TRUE) == null;
+    }
+
+    /**
+     * Remove a member from the room.
+     * 
+     * @param String user Name of the member.
+     * @return True if the user was a member.
+     */
+    public boolean remove(final String user)
+    {
+        return members.remove(user) != null;
+    }
+
+    /** Check if a user is a member of the room. */
+    public boolean contains(final String user)
+    {
+        return members.containsKey(user);
+    }
+
+    /** Check if the room has no member left. */
+    public boolean isEmpty()
+    {
+        return members.isEmpty();
+    }
+
+    /**
+     * Names of the members of the room.
+     * 
+     * @return A new Vector of user names.
+     */
+    public Vector getMembers()
+    {
+        return new Vector(members.keySet());
+    }
+
+    /**
+     * Getter for property name.
+     * 
+     * @return Value of property name.
+     */
+    public java.lang.String getName()
+    {
+        return name;
+    }
+}
@@ -24,13 +24,15 @@
 
 package net.dossot.felix;
 
+import java.io.File;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.net.InetAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Enumeration;
 import java.util.Hashtable;
 import java.util.Timer;
@@ -48,97 +50,269 @@ import java.util.Vector;
 public class ChatServer
 {
     public final static String VERSION = "2.0.2";
+    private final static int PROBE_TIMEOUT = 1000;
+    private final static long SNAPSHOT_PERIOD = 30000;
+    private final static int HISTORY_SIZE = 1000;
+    private final static int LOG_CAPACITY = 65536;
+    private final static int LOG_FILES = 5;
+    private final static int DELIVERY_THREADS = 32;
+    private final static int LANE_CAPACITY = 10000;
+    private final static long DRAIN_TIMEOUT = 5000;
+    private final static long LOGIN_MAX_WAIT = 5000;
+    private final static int PRESENCE_NAMES = 5;
     protected boolean listening = true;
     private final Object dispatcher = new Object();
-    private Timer userListDaemon = null;
+    private final Timer userListDaemon = new Timer(true);
+    private final int port;
 
     /** Hashtable containing references to the different clients. */
     private volatile Hashtable logguedUsers = new Hashtable();
     private volatile String[] previousLogguedUsers = null;
+    /** Version of the list of users, incremented each time it is dispatched. */
+    private volatile long presenceVersion = 0;
+
+    /** File where the server state is periodically saved, null if snapshots are disabled. */
+    private volatile File snapshotFile = null;
+    private final Object snapshotLock = new Object();
+    private Hashtable lastSnapshotUsers = null;
+    /** Users resumed from a snapshot whose client has not been reached yet since the restart. */
+    private final Hashtable resumedUsers = new Hashtable();
+
+    /** Links to the other nodes in cluster mode, null if the server is standalone. */
+    private ChatCluster cluster = null;
+
+    /** Hashtable containing the rooms (room name -> ChatRoom). */
+    private final Hashtable rooms = new Hashtable();
+
+    /** Journal of the logins, logouts and messages, holding the history of the chat. */
+    private final ChatJournal journal = new ChatJournal(HISTORY_SIZE);
+    /** Replication of the journal to a standby server, null if disabled. */
+    private ChatReplicator replicator = null;
+    /** True if this server has taken over from a primary server it was the standby of. */
+    private boolean tookOver = false;
+
+    // live metrics, and where they are exported
+    private final ChatServerMetrics metrics = new ChatServerMetrics(this);
+    private ChatMetricsExporter metricsExporter = null;
+
+    // asynchronous log of the events, written to a rolling file or to the console
+    private final ChatEventLog eventLog = new ChatEventLog(LOG_CAPACITY);
+    private ChatRollingFile logFile = null;
+
+    // flood protection, null when the senders are not limited
+    private ChatRateLimiter rateLimiter = null;
+
+    // outbound lanes of the sessions, and how many messages of history a new user gets
+    private final ChatDelivery delivery;
+    private int replayHistory = 0;
+
+    // connections kept open by the clients receiving their messages as a stream, by user name
+    private final Hashtable streams = new Hashtable();
+
+    // graceful shutdown: the listening socket, the open connections and how long to drain them
+    private volatile ServerSocket serverSocket = null;
+    private final Hashtable connections = new Hashtable();
+    private long drainTimeout = DRAIN_TIMEOUT;
+    private boolean shuttingDown = false;
+
+    // login storms: admission rate of the logins, and presence announcements grouped per window
+    private TokenBucket loginAdmission = null;
+    private long presenceWindow = 200;
+    private final Vector pendingJoins = new Vector();
+    private final Vector pendingLeaves = new Vector();
+    private boolean presenceFlushScheduled = false;
 
     /**
-     * Send a message to a client.
+     * Queue a message for a client, in the control lane if it is a service message, else in the chat
+     * lane.
+     * 
+     * @param String recipient The recipient of the message.
+     * @param ChatMessage message The message to be sent, which must not be altered afterwards.
+     * @return False if the message has been dropped because the lane of the recipient is full.
+     * @see net.dossot.felix.ChatDelivery
+     */
+    protected boolean deliver(final String recipient, final ChatMessage message)
+    {
+        return deliver(recipient, message, message.getService().booleanValue() ? ChatSession.CONTROL
+            : ChatSession.CHAT);
+    }
+
+    /**
+     * Queue a message for a client in a given lane.
+     * 
+     * @param String recipient The recipient of the message.
+     * @param ChatMessage message The message to be sent, which must not be altered afterwards.
+     * @param int lane The lane of the message (see ChatSession).
+     * @return False if the message has been dropped because the lane of the recipient is full.
+     */
+    protected boolean deliver(final String recipient, final ChatMessage message, final int lane)
+    {
+        return delivery.deliver(recipient, message, lane);
+    }
+
+    /**
+     * Send a message to a client now, and snipe the client if it does not acknowledge it. Called by
+     * the delivery threads.
      * 
      * @param String recipient The recipient of the message.
      * @param ChatMessage message The message to be sent.
-     * @see net.dossot.felix.ChatServer#dispatchMessage(ChatMessage)
+     * @see net.dossot.felix.ChatServer#deliver(String, ChatMessage)
      */
-    protected synchronized boolean sendMessage(final String recipient, ChatMessage message)
+    protected boolean sendMessage(final String recipient, final ChatMessage message)
     {
         boolean result = false;
         final Vector clientTCPInfo = (Vector) getLogguedUsers().get(recipient);
+        final ChatDeliveryEvent event = new ChatDeliveryEvent();
+        event.begin();
+        event.sender = message.getSender();
+        event.recipient = recipient;
 
         if (clientTCPInfo != null)
         {
-            final String clientIP = (String) clientTCPInfo.get(0);
-            final Integer clientPort = (Integer) clientTCPInfo.get(1);
+            // a resumed session may be stale: the connection doubles as a cheap probe
+            final boolean resumed = (resumedUsers.remove(recipient) != null);
+            final boolean stream = ChatClientConnection.isStream(clientTCPInfo);
+            ChatClientConnection connection = stream ? (ChatClientConnection) streams.get(recipient) : null;
 
+            final long start = System.nanoTime();
             try
             {
-                final Socket csSocket = new Socket(clientIP, clientPort.intValue());
-                csSocket.setSoTimeout(10000);
-                final ObjectOutputStream soos = new ObjectOutputStream(csSocket.getOutputStream());
-                final ObjectInputStream sois = new ObjectInputStream(csSocket.getInputStream());
-                soos.writeObject(message);
-                if ((message = (ChatMessage) sois.readObject()) != null)
-                    if ((message.getService().booleanValue()) && (message.getContents().equals("ack")))
-                        result = true;
-
-                soos.close();
-                sois.close();
-                csSocket.close();
+                // the user may have logged in again from another client
+                if ((connection != null) && (connection.getEndpoint() != clientTCPInfo))
+                {
+                    streams.remove(recipient, connection);
+                    connection.close();
+                    connection = null;
+                }
+                if (connection == null)
+                {
+                    connection = new ChatClientConnection(clientTCPInfo, resumed ? PROBE_TIMEOUT : 0);
+                    if (stream) streams.put(recipient, connection);
+                }
+                event.connectTime = System.nanoTime() - start;
+                ChatMessage sent = message;
+                if ((message.getHops() != null) && (message.getHops()[ChatMessage.HOP_DISPATCH_START] > 0))
+                {
+                    // the message is shared by all its recipients: each one gets its own write time
+                    sent = new ChatMessage(message);
+                    sent.stampHop(ChatMessage.HOP_DELIVERY_WRITE);
+                    final long[] hops = sent.getHops();
+                    metrics.getHopStatistics().record(HopStatistics.DISPATCH,
+                        hops[ChatMessage.HOP_DELIVERY_WRITE] - hops[ChatMessage.HOP_DISPATCH_START]);
+                }
+                result = connection.send(sent);
+                if (!stream) connection.close();
             }
             catch (final Exception e)
             {
+                if (connection != null) connection.close();
                 // something went wrong, sniping will occur
+                if (e instanceof SocketTimeoutException)
+                {
+                    metrics.countTimeout();
+                    event.outcome = "timeout";
+                }
             }
+            metrics.recordDelivery(start);
+            if (result)
+                event.outcome = "acknowledged";
+            else if (event.outcome == null) event.outcome = "failed";
 
             if (!result)
             {
                 // snipe the user
-                System.out.println("Sniped user: " + recipient);
-                getLogguedUsers().remove(recipient);
-                scheduleUserListRefresh();
+                eventLog.log("snipe", recipient, (System.nanoTime() - start) / 1000, null);
+                metrics.countSnipe();
+                // only the connection of this send: a new client may already have its own
+                if (connection != null) streams.remove(recipient, connection);
+                final boolean sniped;
+                synchronized (this)
+                {
+                    // the user may have logged in again meanwhile
+                    sniped = (getLogguedUsers().get(recipient) == clientTCPInfo);
+                    if (sniped)
+                    {
+                        getLogguedUsers().remove(recipient);
+                        journal.append(ChatJournalEntry.LOGOUT, recipient, null, null);
+                    }
+                }
+                if (sniped)
+                {
+                    if (rateLimiter != null) rateLimiter.forget(recipient);
+                    leaveRooms(recipient, false);
+                    scheduleUserListRefresh();
+                }
             }
         }
         else
         {
             // unknown user: can not route message
-            System.out.println("Can not route message to: " + recipient);
+            event.outcome = "unknown recipient";
+            eventLog.log("unroutable", recipient);
         }
+        event.commit();
 
         return result;
     }
 
     /**
-     * Send the list of users to the client of this thread. The users list request is a service
-     * message that contains a vector holding the names of all the loggued users.
+     * Forget that the session of a user was resumed from a snapshot or a primary server, because the
+     * user has just logged in again: the new client is not probed.
      * 
-     * @param String logguedUser Name of the user leaving or joining the chat, originating the
-     *            refreshment of all lists of loggued users.
-     * @param boolean coming True if the user is joining, false if he is leaving.
-     * @see net.dossot.felix.ChatServer#dispatchUsers(String, boolean)
+     * @param String user Name of the user.
      */
-    protected synchronized void sendUsers(final String destination, final String newUser, final boolean coming)
+    protected void forgetResumed(final String user)
+    {
+        resumedUsers.remove(user);
+    }
+
+    /**
+     * Close the connection kept open by a client receiving its messages as a stream, if any.
+     * 
+     * @param String user Name of the user of the client.
+     */
+    protected void closeStream(final String user)
+    {
+        final ChatClientConnection connection = (ChatClientConnection) streams.remove(user);
+        if (connection != null) connection.close();
+    }
+
+    /**
+     * Build the message holding the list of users. The users list request is a service message that
+     * contains a vector holding the names of all the loggued users: the same message is sent to all of
+     * them.
+     * 
+     * @param Vector joined Names of the users who have joined the chat.
+     * @param Vector left Names of the users who have left the chat.
+     */
+    private ChatMessage usersMessage(final Vector joined, final Vector left)
     {
         final StringBuffer contents = new StringBuffer("{$USERS}");
-        if (newUser != null)
+        appendPresence(contents, joined, "joined");
+        appendPresence(contents, left, "left");
+        if ((joined.isEmpty()) && (left.isEmpty())) contents.append("Ghost users have vanished...");
+
+        return new ChatMessage(new Boolean(true), "host", getAllUserNames(), contents.toString());
+    }
+
+    /** Append "a, b and c have joined the chat.", naming the first users of a long list only. */
+    private static void appendPresence(final StringBuffer contents, final Vector users, final String what)
+    {
+        if (users.isEmpty()) return;
+
+        if (contents.length() > 8) contents.append(' ');
+        final int named = (users.size() > PRESENCE_NAMES + 1) ? PRESENCE_NAMES : users.size();
+        for (int i = 0; i < named; i++)
         {
-            contents.append(newUser);
-            contents.append(" has ");
-            contents.append((coming ? "joined" : "left"));
-            contents.append(" the chat.");
+            if (i > 0) contents.append((i == users.size() - 1) ? " and " : ", ");
+            contents.append(users.get(i));
         }
-        else
-            contents.append("Ghost users have vanished...");
-
-        final ChatMessage message = new ChatMessage(new Boolean(true), "host", new Vector(
-            getLogguedUsers().keySet()), contents.toString());
-        sendMessage(destination, message);
+        if (named < users.size()) contents.append(" and ").append(users.size() - named).append(" others");
+        contents.append((users.size() == 1) ? " has " : " have ").append(what).append(" the chat.");
     }
 
     /**
-     * Invoke sendUsers for all loggued users.
+     * Send the list of users to all loggued users.
      * <p>
      * <b>dispatchUsers is mutually exclusive (synchronized) with dispatchMessage</b>
      * </p>
@@ -146,17 +320,351 @@ public class ChatServer
      * @param String logguedUser Name of the user leaving or joining the chat, originating the
      *            refreshment of all lists of loggued users.
      * @param boolean coming True if the user is joining, false if he is leaving.
-     * @see net.dossot.felix.ChatServer#sendUsers(String, String, boolean)
+     * @see net.dossot.felix.ChatServer#announcePresence(String, boolean)
      */
     protected synchronized void dispatchUsers(final String logguedUser, final boolean coming)
     {
-        final ChatServerThread recipient = null;
+        final Vector users = new Vector();
+        if (logguedUser != null) users.add(logguedUser);
+        dispatchPresence(coming ? users : new Vector(), coming ? new Vector() : users);
+    }
+
+    /**
+     * Send the list of users to all loggued users, telling them who has joined and who has left.
+     * 
+     * @param Vector joined Names of the users who have joined the chat.
+     * @param Vector left Names of the users who have left the chat.
+     */
+    protected synchronized void dispatchPresence(final Vector joined, final Vector left)
+    {
         synchronized (dispatcher)
         {
+            final ChatPresenceEvent event = new ChatPresenceEvent();
+            event.begin();
+            presenceVersion++;
+            metrics.countPresenceBroadcast();
             setPreviousLogguedUsers((String[]) getLogguedUsers().keySet().toArray(new String[1]));
 
+            final ChatMessage message = usersMessage(joined, left);
             for (final Enumeration e = getLogguedUsers().keys(); e.hasMoreElements();)
-                sendUsers((String) e.nextElement(), logguedUser, coming);
+                deliver((String) e.nextElement(), message);
+
+            event.user = (String) (joined.isEmpty() ? (left.isEmpty() ? null : left.get(0)) : joined.get(0));
+            event.coming = !joined.isEmpty();
+            event.changes = joined.size() + left.size();
+            event.recipients = getLogguedUsers().size();
+            event.commit();
+
+            if (cluster != null)
+            {
+                if ((joined.isEmpty()) && (left.isEmpty())) cluster.publishPresence(null, false);
+                for (final Enumeration e = joined.elements(); e.hasMoreElements();)
+                    cluster.publishPresence((String) e.nextElement(), true);
+                for (final Enumeration e = left.elements(); e.hasMoreElements();)
+                    cluster.publishPresence((String) e.nextElement(), false);
+            }
+        }
+    }
+
+    /**
+     * Announce that a user has joined or left the chat. The announcements of a presence window are
+     * grouped into one list of users sent to everybody, so that a login storm does not send the list
+     * to every user for every login.
+     * 
+     * @param String user Name of the user.
+     * @param boolean coming True if the user is joining, false if leaving.
+     */
+    protected void announcePresence(final String user, final boolean coming)
+    {
+        if (presenceWindow <= 0)
+        {
+            dispatchUsers(user, coming);
+            return;
+        }
+
+        synchronized (pendingJoins)
+        {
+            (coming ? pendingJoins : pendingLeaves).add(user);
+            if (presenceFlushScheduled) return;
+            presenceFlushScheduled = true;
+        }
+        userListDaemon.schedule(new TimerTask()
+        {
+            @Override
+            public void run()
+            {
+                final Vector joined;
+                final Vector left;
+                synchronized (pendingJoins)
+                {
+                    joined = new Vector(pendingJoins);
+                    left = new Vector(pendingLeaves);
+                    pendingJoins.clear();
+                    pendingLeaves.clear();
+                    presenceFlushScheduled = false;
+                }
+                dispatchPresence(joined, left);
+            }
+        }, presenceWindow);
+    }
+
+    /**
+     * Wait for the turn of a login, at the admission rate.
+     * 
+     * @return False if the login would have to wait too long: it is refused.
+     */
+    protected boolean admitLogin() throws InterruptedException
+    {
+        if (loginAdmission == null) return true;
+
+        final long wait = loginAdmission.reserve(1, LOGIN_MAX_WAIT * 1000000L);
+        if (wait < 0)
+        {
+            metrics.countLoginRefused();
+            return false;
+        }
+        if (wait > 0) Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+        return true;
+    }
+
+    /**
+     * Send the list of users to all loggued users, after the list of users of another node of the
+     * cluster has changed.
+     * 
+     * @param String logguedUser Name of the user leaving or joining the chat on the other node, may
+     *            be null.
+     * @param boolean coming True if the user is joining, false if leaving.
+     * @see net.dossot.felix.ChatCluster
+     */
+    protected synchronized void dispatchRemoteUsers(final String logguedUser, final boolean coming)
+    {
+        final Vector users = new Vector();
+        if (logguedUser != null) users.add(logguedUser);
+        synchronized (dispatcher)
+        {
+            final ChatMessage message = usersMessage(coming ? users : new Vector(), coming ? new Vector()
+                : users);
+            for (final Enumeration e = getLogguedUsers().keys(); e.hasMoreElements();)
+                deliver((String) e.nextElement(), message);
+        }
+    }
+
+    /**
+     * Deliver a message forwarded by another node of the cluster to the recipients loggued on this
+     * node. The feedback to the sender is sent by the node of the sender.
+     * 
+     * @param ChatMessage message The message to be delivered.
+     * @see net.dossot.felix.ChatCluster
+     */
+    protected void deliverForwarded(final ChatMessage message)
+    {
+        if (message.getRoom() != null)
+        {
+            final ChatRoom room = (ChatRoom) rooms.get(message.getRoom());
+            if (room != null)
+                synchronized (room)
+                {
+                    deliverLocally(message, (message.getRecipients().size() == 0) ? room.getMembers()
+                        : message.getRecipients(), ChatServerMetrics.FORWARDED, null);
+                }
+            return;
+        }
+
+        synchronized (this)
+        {
+            synchronized (dispatcher)
+            {
+                deliverLocally(message, (message.getRecipients().size() == 0) ? new Vector(
+                    getLogguedUsers().keySet()) : message.getRecipients(), ChatServerMetrics.FORWARDED, null);
+            }
+        }
+    }
+
+    /**
+     * Deliver a message to the recipients loggued on this node, except its sender, and count it in
+     * the metrics.
+     * 
+     * @param int type Kind of message for the metrics (see ChatServerMetrics).
+     * @param ChatDispatchEvent event The event of the dispatching, which gets the fan-out, may be
+     *            null.
+     * @return True if the message has reached at least one recipient.
+     */
+    private boolean deliverLocally(final ChatMessage message,
+                                   final Vector recipients,
+                                   final int type,
+                                   final ChatDispatchEvent event)
+    {
+        boolean oneSent = false;
+        int fanOut = 0;
+        for (final Enumeration e = recipients.elements(); e.hasMoreElements();)
+        {
+            final String recipient = (String) e.nextElement();
+            if ((getLogguedUsers().get(recipient) != null) && (!recipient.equals(message.getSender())))
+            {
+                fanOut++;
+                if (deliver(recipient, message)) oneSent = true;
+            }
+        }
+        metrics.countMessage(type, fanOut);
+        if (event != null) event.fanOut = fanOut;
+        return oneSent;
+    }
+
+    /**
+     * Invoke sendMessage for the members of the room of the message, or for its recipients if it is
+     * targeted, then send the feedback to its sender like dispatchMessage does.
+     * <p>
+     * <b>dispatchRoomMessage is only synchronized on the room, so different rooms are dispatched in
+     * parallel</b>
+     * </p>
+     * 
+     * @param ChatMessage message The message to be sent, with its room set.
+     * @see net.dossot.felix.ChatServer#dispatchMessage(ChatMessage)
+     */
+    protected void dispatchRoomMessage(final ChatMessage message)
+    {
+        final ChatDispatchEvent event = new ChatDispatchEvent();
+        event.begin();
+        event.sender = message.getSender();
+        event.room = message.getRoom();
+        event.recipients = message.getRecipients().size();
+        final long start = System.nanoTime();
+        final ChatRoom room = (ChatRoom) rooms.get(message.getRoom());
+
+        if ((room == null) || (!getLogguedUsers().containsKey(message.getSender())))
+        {
+            eventLog.log("rejected", message.getSender(), -1, "room " + message.getRoom());
+            event.outcome = "rejected";
+            event.commit();
+            return;
+        }
+
+        synchronized (room)
+        {
+            event.lockWait = System.nanoTime() - start;
+            message.stampHop(ChatMessage.HOP_DISPATCH_START);
+            metrics.getHopStatistics().record(message);
+            boolean oneSent = false;
+
+            if (room.contains(message.getSender()))
+            {
+                journal.append(ChatJournalEntry.MESSAGE, null, null, message);
+                oneSent = deliverLocally(message, (message.getRecipients().size() == 0)
+                    ? room.getMembers() : message.getRecipients(), ChatServerMetrics.ROOM, event);
+
+                if (cluster != null)
+                {
+                    final Collection nodes = (message.getRecipients().size() == 0) ? null
+                        : cluster.getNodesOf(message.getRecipients());
+                    if (((nodes == null) || (!nodes.isEmpty())) && (cluster.forward(message, nodes)))
+                        oneSent = true;
+                }
+            }
+
+            event.outcome = oneSent ? "delivered" : "lost";
+            if (oneSent)
+            {
+                deliver(message.getSender(), message);
+            }
+            else
+            {
+                final ChatMessage lost = new ChatMessage(new Boolean(true), "host", null,
+                    "Your message has been lost (in space).");
+                lost.setRoom(room.getName());
+                deliver(message.getSender(), lost);
+            }
+        }
+        event.commit();
+    }
+
+    /**
+     * Add a user to a room, creating the room if needed, and send the new list of members to all of
+     * them.
+     * 
+     * @param String user Name of the user joining the room.
+     * @param String roomName Name of the room.
+     */
+    protected void joinRoom(final String user, final String roomName)
+    {
+        ChatRoom room;
+        synchronized (rooms)
+        {
+            room = (ChatRoom) rooms.get(roomName);
+            if (room == null)
+            {
+                room = new ChatRoom(roomName);
+                rooms.put(roomName, room);
+            }
+            room.add(user);
+        }
+
+        dispatchRoomUsers(room, user, true);
+    }
+
+    /**
+     * Remove a user from a room, dropping the room when it gets empty, and send the new list of
+     * members to the remaining ones.
+     * 
+     * @param String user Name of the user leaving the room.
+     * @param String roomName Name of the room.
+     */
+    protected void leaveRoom(final String user, final String roomName)
+    {
+        final ChatRoom room;
+        synchronized (rooms)
+        {
+            room = (ChatRoom) rooms.get(roomName);
+            if ((room == null) || (!room.remove(user))) return;
+            if (room.isEmpty()) rooms.remove(roomName);
+        }
+
+        dispatchRoomUsers(room, user, false);
+    }
+
+    /**
+     * Remove a user from all the rooms where the user is a member.
+     * 
+     * @param String user Name of the user.
+     * @param boolean notify True to send the new lists of members to the remaining members.
+     */
+    protected void leaveRooms(final String user, final boolean notify)
+    {
+        final Vector left = new Vector();
+        synchronized (rooms)
+        {
+            for (final Enumeration e = new Vector(rooms.values()).elements(); e.hasMoreElements();)
+            {
+                final ChatRoom room = (ChatRoom) e.nextElement();
+                if (room.remove(user))
+                {
+                    left.add(room);
+                    if (room.isEmpty()) rooms.remove(room.getName());
+                }
+            }
+        }
+
+        if (notify)
+            for (final Enumeration e = left.elements(); e.hasMoreElements();)
+                dispatchRoomUsers((ChatRoom) e.nextElement(), user, false);
+    }
+
+    /**
+     * Send the list of members of a room to all of them. The room users request is a service
+     * message that contains a vector holding the names of the members.
+     */
+    private void dispatchRoomUsers(final ChatRoom room, final String user, final boolean coming)
+    {
+        synchronized (room)
+        {
+            final Vector members = room.getMembers();
+            final String contents = "{$ROOM}" + user + " has " + (coming ? "joined" : "left")
+                                    + " the room.";
+            for (final Enumeration e = members.elements(); e.hasMoreElements();)
+            {
+                final ChatMessage message = new ChatMessage(new Boolean(true), "host", members, contents);
+                message.setRoom(room.getName());
+                deliver((String) e.nextElement(), message);
+            }
         }
     }
 
@@ -169,88 +677,275 @@ public class ChatServer
      * </p>
      * 
      * @param ChatMessage message The message to be sent.
-     * @see net.dossot.felix.ChatServer#sendMessage(String, ChatMessage)
+     * @see net.dossot.felix.ChatServer#deliver(String, ChatMessage)
      */
-    protected synchronized void dispatchMessage(final ChatMessage message)
+    protected void dispatchMessage(final ChatMessage message)
     {
-        boolean shutdown = false;
-        boolean oneSent = false;
-        String recipient = null;
+        if ((snapshotFile != null) && (isAdminRequest(message, "shutdown::graceful")))
+        {
+            // the sessions are kept for the next server: the users are not told anything
+            startShutdown(true);
+            return;
+        }
 
-        synchronized (dispatcher)
+        final ChatDispatchEvent event = new ChatDispatchEvent();
+        event.begin();
+        event.sender = message.getSender();
+        event.recipients = message.getRecipients().size();
+        final long start = System.nanoTime();
+
+        boolean shutdown = false;
+        synchronized (this)
         {
-            if (getLogguedUsers().containsKey(message.getSender()))
+            boolean oneSent = false;
+            int fanOut = 0;
+            String recipient = null;
+
+            synchronized (dispatcher)
             {
-                // check internal admin messages
-                if (message.getRecipients().size() == 1)
+                event.lockWait = System.nanoTime() - start;
+                message.stampHop(ChatMessage.HOP_DISPATCH_START);
+                metrics.getHopStatistics().record(message);
+                if (getLogguedUsers().containsKey(message.getSender()))
                 {
-                    recipient = (String) message.getRecipients().get(0);
-                    if ((recipient.equals("host")) && (message.getSender().equals("host::admin")))
+                    // check internal admin messages
+                    if ((isAdminRequest(message, "shutdown::immediate"))
+                        || (isAdminRequest(message, "shutdown::graceful")))
                     {
-                        if (message.getContents().equals("shutdown::immediate"))
+                        shutdown = true;
+                        // alter message nature to cast it to everyone
+                        // this message is understood by the client as a invitation to log off
+                        message.setSender("host");
+                        message.setContents("{$SHUTDOWN}Server shutdown initiated by the administrator. You will be loggued off!");
+                        message.setRecipients(new Vector());
+                        message.setService(new Boolean(true));
+                    }
+
+                    if (!message.getService().booleanValue())
+                        journal.append(ChatJournalEntry.MESSAGE, null, null, message);
+
+                    if (message.getRecipients().size() == 0)
+                    {
+                        // it is a general message
+                        for (final Enumeration e = getLogguedUsers().keys(); e.hasMoreElements();)
                         {
-                            shutdown = true;
-                            // alter message nature to cast it to everyone
-                            // this message is understood by the client as a invitation to log off
-                            message.setSender("host");
-                            message.setContents("{$SHUTDOWN}Server shutdown initiated by the administrator. You will be loggued off!");
-                            message.setRecipients(new Vector());
-                            message.setService(new Boolean(true));
+                            recipient = (String) e.nextElement();
+                            if (!recipient.equals(message.getSender()))
+                            {
+                                fanOut++;
+                                if (deliver(recipient, message)) oneSent = true;
+                            }
                         }
+
+                        // one copy for each of the other nodes, except when this node shuts down
+                        if ((cluster != null) && (!shutdown) && (cluster.forward(message, null)))
+                            oneSent = true;
                     }
-                }
+                    else
+                    {
+                        // it is a targeted message
+                        for (final Enumeration e = message.getRecipients().elements(); e.hasMoreElements();)
+                        {
+                            recipient = (String) e.nextElement();
+                            if ((getLogguedUsers().get(recipient) != null)
+                                && (!recipient.equals(message.getSender())))
+                            {
+                                fanOut++;
+                                if (deliver(recipient, message)) oneSent = true;
+                            }
+                        }
 
-                if (message.getRecipients().size() == 0)
-                {
-                    // it is a general message
-                    for (final Enumeration e = getLogguedUsers().keys(); e.hasMoreElements();)
+                        // one copy for each of the other nodes where recipients are loggued
+                        if (cluster != null)
+                        {
+                            final Collection nodes = cluster.getNodesOf(message.getRecipients());
+                            if ((!nodes.isEmpty()) && (cluster.forward(message, nodes))) oneSent = true;
+                        }
+                    }
+
+                    if (!message.getService().booleanValue())
+                        metrics.countMessage((message.getRecipients().size() == 0) ? ChatServerMetrics.PUBLIC
+                            : (message.getRecipients().size() == 1) ? ChatServerMetrics.PRIVATE
+                                : ChatServerMetrics.GROUP, fanOut);
+
+                    // if at least one message reached its recipient, send the message to him as a
+                    // feedback
+                    if (oneSent)
                     {
-                        recipient = (String) e.nextElement();
-                        if (!recipient.equals(message.getSender()))
-                            if (sendMessage(recipient, message)) oneSent = true;
+                        event.outcome = shutdown ? "shutdown" : "delivered";
+                        deliver(message.getSender(), message);
                     }
-                }
-                else
-                {
-                    // it is a targeted message
-                    for (final Enumeration e = message.getRecipients().elements(); e.hasMoreElements();)
+                    else
                     {
-                        recipient = (String) e.nextElement();
-                        if ((getLogguedUsers().get(recipient) != null)
-                            && (!recipient.equals(message.getSender())))
-                            if (sendMessage(recipient, message)) oneSent = true;
+                        event.outcome = "lost";
+                        // alter message nature to show an error
+                        final String keepRecipient = message.getSender();
+                        message.setSender("host");
+                        message.setContents("Your message has been lost (in space).");
+                        message.setService(new Boolean(true));
+                        deliver(keepRecipient, message);
                     }
                 }
-
-                // if at least one message reached its recipient, send the message to him as a
-                // feedback
-                if (oneSent)
-                {
-                    sendMessage(message.getSender(), message);
-                }
                 else
                 {
-                    // alter message nature to show an error
-                    final String keepRecipient = message.getSender();
-                    message.setSender("host");
-                    message.setContents("Your message has been lost (in space).");
-                    message.setService(new Boolean(true));
-                    sendMessage(keepRecipient, message);
+                    // unknown user: rejected message
+                    event.outcome = "rejected";
+                    eventLog.log("rejected", message.getSender());
                 }
             }
-            else
+
+            event.fanOut = fanOut;
+            event.commit();
+        }
+
+        // the users have been told to log off: their sessions must not be resumed
+        if (shutdown) startShutdown(false);
+    }
+
+    /** Check if a message is a given request of the administrator to the server. */
+    private boolean isAdminRequest(final ChatMessage message, final String request)
+    {
+        return (message.getRecipients().size() == 1) && ("host".equals(message.getRecipients().get(0)))
+               && ("host::admin".equals(message.getSender())) && (request.equals(message.getContents()))
+               && (getLogguedUsers().containsKey(message.getSender()));
+    }
+
+    /** Run the shutdown in its own thread, so that the dispatching thread can complete. */
+    private void startShutdown(final boolean keepSessions)
+    {
+        synchronized (connections)
+        {
+            if (shuttingDown) return;
+            shuttingDown = true;
+        }
+
+        new Thread("ChatServerShutdown")
+        {
+            @Override
+            public void run()
             {
-                // unknown user: rejected message
-                System.out.println("Rejected message from: " + message.getSender());
+                shutdown(keepSessions);
             }
+        }.start();
+    }
+
+    /**
+     * Stop the server gracefully and exit: stop accepting connections, let the requests in progress
+     * and the queued messages complete within the drain timeout, close what remains, save or discard
+     * the snapshot and report what has been dropped.
+     * 
+     * @param boolean keepSessions True to keep the sessions in the snapshot for the next server, false
+     *            if the users have been told to log off.
+     */
+    protected void shutdown(final boolean keepSessions)
+    {
+        final long start = System.currentTimeMillis();
+        final long deadline = start + drainTimeout;
+        System.out.println("\n>>> Shuting down" + (keepSessions ? ", keeping the sessions." : "."));
+
+        listening = false;
+        try
+        {
+            if (serverSocket != null) serverSocket.close();
+        }
+        catch (final IOException e)
+        {
+            // not accepting anymore anyway
+        }
+
+        // the requests in progress may still queue messages, then the queues are drained
+        boolean drained = false;
+        try
+        {
+            while ((hasBusyConnections()) && (System.currentTimeMillis() < deadline))
+                Thread.sleep(10);
+            drained = delivery.awaitIdle(Math.max(0, deadline - System.currentTimeMillis()));
+        }
+        catch (final InterruptedException e)
+        {
+            // out of time
+        }
+
+        final int[] dropped = delivery.close();
+        int closed = 0;
+        for (final Enumeration e = new Vector(connections.keySet()).elements(); e.hasMoreElements();)
+        {
+            ((ChatServerThread) e.nextElement()).kill();
+            closed++;
         }
 
-        if (shutdown)
+        if (keepSessions)
         {
-            System.out.println("\n>>> Shuting down.");
-            listening = false;
-            System.out.println(">>> Done. Exiting JVM. Have a nice day ;-)");
-            System.exit(0);
+            // the administrator client has done its job
+            getLogguedUsers().remove("host::admin");
+            saveSnapshot();
+        }
+        else
+            discardSnapshot();
+
+        final StringBuffer report = new StringBuffer();
+        report.append(drained ? "drained" : "drain timed out");
+        for (int i = 0; i < ChatSession.LANES; i++)
+            report.append(", ").append(dropped[i]).append(' ').append(ChatDelivery.getLaneName(i)).append(
+                " message(s) dropped");
+        report.append(", ").append(closed).append(" connection(s) closed");
+        if (replicator != null)
+            report.append(", replication lag ").append(replicator.getReplicationLag()).append(" entries");
+        report.append(", ").append(eventLog.getDropped()).append(" log record(s) dropped");
+
+        eventLog.log("shutdown", null, (System.currentTimeMillis() - start) * 1000, report.toString());
+        eventLog.close();
+        System.out.println(">>> " + report + " in " + (System.currentTimeMillis() - start) + " ms.");
+        System.out.println(">>> Done. Exiting JVM. Have a nice day ;-)");
+        System.exit(0);
+    }
+
+    /** Tell if a connection is still serving a request, the idle persistent ones set aside. */
+    private boolean hasBusyConnections()
+    {
+        for (final Enumeration e = new Vector(connections.keySet()).elements(); e.hasMoreElements();)
+            if (!((ChatServerThread) e.nextElement()).isIdle()) return true;
+        return false;
+    }
+
+    /**
+     * Register a connection in progress, until it ends.
+     * 
+     * @param ChatServerThread connection The thread of the connection.
+     * @param boolean open True when the connection opens, false when it ends.
+     */
+    void trackConnection(final ChatServerThread connection, final boolean open)
+    {
+        if (open)
+            connections.put(connection, Boolean.TRUE);
+        else
+            connections.remove(connection);
+    }
+
+    /**
+     * Queue the last public messages of the history for a user who has just logged in, in the bulk
+     * lane.
+     * 
+     * @param String user Name of the user.
+     */
+    protected void replayHistory(final String user)
+    {
+        if (replayHistory <= 0) return;
+
+        final Vector history = journal.getHistory();
+        final Vector replayed = new Vector();
+        for (int i = history.size() - 1; (i >= 0) && (replayed.size() < replayHistory); i--)
+        {
+            final ChatMessage message = (ChatMessage) history.get(i);
+            if ((message.getRoom() == null) && (message.getRecipients().size() == 0)
+                && (!message.getService().booleanValue())) replayed.add(0, message);
+        }
+
+        for (final Enumeration e = replayed.elements(); e.hasMoreElements();)
+        {
+            final ChatMessage message = new ChatMessage((ChatMessage) e.nextElement());
+            message.setHops(null);
+            deliver(user, message, ChatSession.BULK);
         }
     }
 
@@ -259,8 +954,6 @@ public class ChatServer
     {
         try
         {
-            if (userListDaemon == null) userListDaemon = new Timer(true);
-
             userListDaemon.schedule(new TimerTask()
             {
                 @Override
@@ -271,7 +964,7 @@ public class ChatServer
                             getLogguedUsers().keySet().toArray(new String[1]))))
                     {
                         dispatchUsers(null, false);
-                        System.out.println("Daemon has refreshed the user list.");
+                        eventLog.log("user_list_refresh", null);
                     }
                 }
             }, 0, 20000);
@@ -283,11 +976,176 @@ public class ChatServer
         }
     }
 
+    /**
+     * Periodically save the server state in the snapshot file, and one last time when the JVM
+     * terminates.
+     */
+    private void scheduleSnapshots()
+    {
+        if (snapshotFile == null) return;
+
+        new Timer(true).schedule(new TimerTask()
+        {
+            @Override
+            public void run()
+            {
+                saveSnapshot();
+            }
+        }, SNAPSHOT_PERIOD, SNAPSHOT_PERIOD);
+
+        Runtime.getRuntime().addShutdownHook(new Thread("ChatServerSnapshot")
+        {
+            @Override
+            public void run()
+            {
+                saveSnapshot();
+            }
+        });
+    }
+
+    /** Save the server state in the snapshot file, if it has changed since the last snapshot. */
+    private void saveSnapshot()
+    {
+        synchronized (snapshotLock)
+        {
+            final File file = snapshotFile;
+            if ((file == null) || (getLogguedUsers().equals(lastSnapshotUsers))) return;
+
+            try
+            {
+                final ChatServerSnapshot snapshot = new ChatServerSnapshot(getLogguedUsers(), presenceVersion);
+                snapshot.save(file);
+                lastSnapshotUsers = snapshot.getLogguedUsers();
+            }
+            catch (final IOException e)
+            {
+                System.err.println("Can not save snapshot " + file + ": " + e);
+            }
+        }
+    }
+
+    /** Stop taking snapshots and delete the current one. */
+    private void discardSnapshot()
+    {
+        synchronized (snapshotLock)
+        {
+            if (snapshotFile != null) snapshotFile.delete();
+            snapshotFile = null;
+        }
+    }
+
+    /**
+     * Resume the sessions found in the snapshot file. The clients are not contacted: each resumed
+     * session is validated when a message is first sent to it.
+     */
+    private void resumeSnapshot()
+    {
+        final ChatServerSnapshot snapshot = ChatServerSnapshot.load(snapshotFile);
+        if (snapshot == null) return;
+
+        getLogguedUsers().putAll(snapshot.getLogguedUsers());
+        for (final Enumeration e = snapshot.getLogguedUsers().keys(); e.hasMoreElements();)
+            resumedUsers.put(e.nextElement(), Boolean.TRUE);
+        presenceVersion = snapshot.getPresenceVersion();
+        lastSnapshotUsers = snapshot.getLogguedUsers();
+
+        System.out.println("Resumed " + resumedUsers.size() + " session(s) from the snapshot of "
+                           + snapshot.getDateTaken());
+    }
+
+    /**
+     * Apply an entry of the journal of the primary server this server is the standby of.
+     * 
+     * @param ChatJournalEntry entry The replicated entry.
+     * @see net.dossot.felix.ChatStandby
+     */
+    protected void applyReplicated(final ChatJournalEntry entry)
+    {
+        switch (entry.getType())
+        {
+            case ChatJournalEntry.SYNC:
+                getLogguedUsers().clear();
+                getLogguedUsers().putAll(entry.getLogguedUsers());
+                journal.restore(entry);
+                break;
+            case ChatJournalEntry.LOGIN:
+                getLogguedUsers().put(entry.getUser(), entry.getEndpoint());
+                journal.restore(entry);
+                break;
+            case ChatJournalEntry.LOGOUT:
+                getLogguedUsers().remove(entry.getUser());
+                journal.restore(entry);
+                break;
+            case ChatJournalEntry.MESSAGE:
+                journal.restore(entry);
+                break;
+            default:
+                // heartbeat
+        }
+    }
+
+    /**
+     * Take over from the primary server: its users are resumed like after a restart, and are told to
+     * send their messages to this server as soon as it listens.
+     */
+    private void takeOver()
+    {
+        for (final Enumeration e = getLogguedUsers().keys(); e.hasMoreElements();)
+            resumedUsers.put(e.nextElement(), Boolean.TRUE);
+        tookOver = true;
+    }
+
+    /** Tell all the users to send their messages to this server. */
+    private void announceTakeOver()
+    {
+        final Thread announcer = new Thread("ChatServerTakeOver")
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    final String address = InetAddress.getLocalHost().getHostAddress() + ":" + port;
+                    for (final Enumeration e = getLogguedUsers().keys(); e.hasMoreElements();)
+                        deliver((String) e.nextElement(), new ChatMessage(new Boolean(true), "host", null,
+                            "{$MOVED}" + address));
+                    dispatchUsers(null, false);
+                }
+                catch (final IOException e)
+                {
+                    System.err.println("Can not announce the take over: " + e);
+                }
+            }
+        };
+        announcer.setDaemon(true);
+        announcer.start();
+    }
+
     /** (to comment) */
-    private ChatServer(final int port) throws IOException
+    ChatServer(final int port)
     {
-        ServerSocket serverSocket = null;
+        this(port, DELIVERY_THREADS, 8, 32);
+    }
+
+    /**
+     * Creates a server with its delivery threads.
+     * 
+     * @param int port The port to listen on.
+     * @param int deliveryThreads Number of delivery threads.
+     * @param int chatStarvationLimit Number of control messages that can go before a waiting chat
+     *            message.
+     * @param int bulkStarvationLimit Number of control or chat messages that can go before a waiting
+     *            bulk message.
+     */
+    ChatServer(final int port, final int deliveryThreads, final int chatStarvationLimit, final int bulkStarvationLimit)
+    {
+        this.port = port;
+        delivery = new ChatDelivery(this, deliveryThreads, LANE_CAPACITY, chatStarvationLimit, bulkStarvationLimit);
+    }
 
+    /** Open the server socket and spawn a thread for each connection, as long as listening. */
+    private void listen() throws IOException
+    {
         try
         {
             serverSocket = new ServerSocket(port);
@@ -302,23 +1160,152 @@ public class ChatServer
                            + " - Chat Server Running\n    Address: " + InetAddress.getLocalHost()
                            + "\n       Port: " + port + "\n****************************************");
 
+        eventLog.start(logFile);
+        if (snapshotFile != null) resumeSnapshot();
+        scheduleSnapshots();
+        if (cluster != null) cluster.start();
+        if (replicator != null) replicator.start();
+        metrics.start(port);
+        if (metricsExporter != null)
+        {
+            try
+            {
+                metricsExporter.start(metrics);
+            }
+            catch (final Exception e)
+            {
+                System.err.println("Could not start the metrics exporter: " + e);
+            }
+        }
+        if (tookOver) announceTakeOver();
         scheduleUserListRefresh();
         while (listening)
-            new ChatServerThread(this, serverSocket.accept()).start();
+        {
+            final Socket socket;
+            try
+            {
+                socket = serverSocket.accept();
+            }
+            catch (final SocketException e)
+            {
+                // the socket is closed by a shutdown
+                if (!listening) break;
+                throw e;
+            }
+            new ChatServerThread(this, socket).start();
+        }
 
         serverSocket.close();
     }
 
     /**
-     * Start or stop the chat server. Required argument : server port number Optional argument :
-     * -shutdown The console will display the server name and IP address you can communicate to the
-     * chat users.
+     * Instantiate a metrics exporter by its class name.
+     * 
+     * @param String className Name of a class implementing ChatMetricsExporter, with a public
+     *            constructor without arguments.
+     * @return The exporter, or null if it can not be instantiated.
+     */
+    private static ChatMetricsExporter loadMetricsExporter(final String className)
+    {
+        try
+        {
+            return (ChatMetricsExporter) Class.forName(className).getDeclaredConstructor().newInstance();
+        }
+        catch (final ReflectiveOperationException e)
+        {
+            System.err.println("Can not instantiate the metrics exporter " + className + ": " + e);
+        }
+        catch (final ClassCastException e)
+        {
+            System.err.println(className + " is not a ChatMetricsExporter, ignored.");
+        }
+        return null;
+    }
+
+    /**
+     * Start or stop the chat server. Required argument : server port number Optional arguments :
+     * -shutdown, -restart, -drainTimeout {$ms}, -snapshot {$file}, -cluster {$nodeHost:$nodePort} {$peerHost:$peerPort,...},
+     * -relayFanout {$n}, -replicate {$port}, -standby {$primaryHost:$replicationPort},
+     * -failoverTimeout {$ms}, -metricsPort {$port}, -metricsExporter {$className}, -log {$file},
+     * -logSize {$bytes}, -rateLimit {$messagesPerSecond[:$burst]}, -byteLimit
+     * {$charactersPerSecond[:$burst]}, -deliveryThreads {$n}, -laneStarvation {$chat:$bulk},
+     * -replayHistory {$messages}, -loginRate {$loginsPerSecond[:$burst]}, -presenceWindow {$ms} The
+     * console will display the server name and IP address you can
+     * communicate to the chat users.
      */
     public static void main(final String[] args) throws Exception
     {
         final int portNumber = Integer.parseInt(args[0]);
+        String shutdown = null;
+        File snapshotFile = null;
+        String nodeId = null;
+        String[] peers = null;
+        int relayFanout = 0;
+        int replicationPort = 0;
+        String primary = null;
+        int failoverTimeout = 3000;
+        ChatMetricsExporter metricsExporter = null;
+        File logFile = null;
+        long logSize = 10 * 1024 * 1024;
+        String messageLimit = null;
+        String byteLimit = null;
+        int deliveryThreads = DELIVERY_THREADS;
+        String laneStarvation = "8:32";
+        int replayHistory = 0;
+        long drainTimeout = DRAIN_TIMEOUT;
+        String loginRate = null;
+        long presenceWindow = 200;
+
+        for (int i = 1; i < args.length; i++)
+        {
+            if (args[i].equals("-shutdown"))
+                shutdown = "shutdown::immediate";
+            else if (args[i].equals("-restart"))
+                shutdown = "shutdown::graceful";
+            else if ((args[i].equals("-drainTimeout")) && (i + 1 < args.length))
+                drainTimeout = Long.parseLong(args[++i]);
+            else if ((args[i].equals("-snapshot")) && (i + 1 < args.length))
+                snapshotFile = new File(args[++i]);
+            else if ((args[i].equals("-cluster")) && (i + 2 < args.length))
+            {
+                nodeId = args[++i];
+                peers = args[++i].split(",");
+            }
+            else if ((args[i].equals("-relayFanout")) && (i + 1 < args.length))
+                relayFanout = Integer.parseInt(args[++i]);
+            else if ((args[i].equals("-replicate")) && (i + 1 < args.length))
+                replicationPort = Integer.parseInt(args[++i]);
+            else if ((args[i].equals("-standby")) && (i + 1 < args.length))
+                primary = args[++i];
+            else if ((args[i].equals("-failoverTimeout")) && (i + 1 < args.length))
+                failoverTimeout = Integer.parseInt(args[++i]);
+            else if ((args[i].equals("-metricsPort")) && (i + 1 < args.length))
+                metricsExporter = new ChatMetricsTextExporter(Integer.parseInt(args[++i]));
+            else if ((args[i].equals("-log")) && (i + 1 < args.length))
+                logFile = new File(args[++i]);
+            else if ((args[i].equals("-logSize")) && (i + 1 < args.length))
+                logSize = Long.parseLong(args[++i]);
+            else if ((args[i].equals("-rateLimit")) && (i + 1 < args.length))
+                messageLimit = args[++i];
+            else if ((args[i].equals("-byteLimit")) && (i + 1 < args.length))
+                byteLimit = args[++i];
+            else if ((args[i].equals("-deliveryThreads")) && (i + 1 < args.length))
+                deliveryThreads = Integer.parseInt(args[++i]);
+            else if ((args[i].equals("-laneStarvation")) && (i + 1 < args.length))
+                laneStarvation = args[++i];
+            else if ((args[i].equals("-replayHistory")) && (i + 1 < args.length))
+                replayHistory = Integer.parseInt(args[++i]);
+            else if ((args[i].equals("-loginRate")) && (i + 1 < args.length))
+                loginRate = args[++i];
+            else if ((args[i].equals("-presenceWindow")) && (i + 1 < args.length))
+                presenceWindow = Long.parseLong(args[++i]);
+            else if ((args[i].equals("-metricsExporter")) && (i + 1 < args.length))
+                metricsExporter = loadMetricsExporter(args[++i]);
+            else
+                System.err.println("Ignored argument: " + args[i]);
+        }
 
-        if ((args.length == 2) && (args[1].equals("-shutdown")))
+        if (shutdown != null)
         {
             final ChatUIImpl client = new ChatUIImpl();
             // connects to the server to stop it
@@ -327,7 +1314,7 @@ public class ChatServer
             {
                 final Vector host = new Vector();
                 host.add("host");
-                chatClient.sendMessage(false, host, "shutdown::immediate", "???");
+                chatClient.sendMessage(false, host, shutdown, "???");
             }
             else
                 System.err.println("Impossible to connect to the chat server for stopping it.");
@@ -335,7 +1322,41 @@ public class ChatServer
         else
         {
             // starting a new server
-            final ChatServer cs = new ChatServer(portNumber);
+            final String[] starvation = laneStarvation.split(":");
+            final ChatServer cs = new ChatServer(portNumber, deliveryThreads, Integer.parseInt(starvation[0]),
+                Integer.parseInt(starvation[1]));
+            cs.snapshotFile = snapshotFile;
+            cs.metricsExporter = metricsExporter;
+            if (logFile != null) cs.logFile = new ChatRollingFile(logFile, logSize, LOG_FILES);
+            cs.replayHistory = replayHistory;
+            cs.drainTimeout = drainTimeout;
+            cs.presenceWindow = presenceWindow;
+            if (loginRate != null)
+            {
+                final double[] limit = parseLimit(loginRate);
+                cs.loginAdmission = new TokenBucket(limit[0], limit[1]);
+            }
+            if ((messageLimit != null) || (byteLimit != null))
+            {
+                final double[] messages = parseLimit(messageLimit);
+                final double[] bytes = parseLimit(byteLimit);
+                cs.rateLimiter = new ChatRateLimiter(messages[0], messages[1], bytes[0], bytes[1]);
+            }
+            if (nodeId != null)
+            {
+                cs.cluster = new ChatCluster(cs, nodeId, peers);
+                cs.cluster.setRelayFanout(relayFanout);
+            }
+            if (replicationPort > 0) cs.replicator = new ChatReplicator(cs, replicationPort);
+            // the history is only read by a standby server or to replay it to new users
+            cs.journal.setKeepHistory((replicationPort > 0) || (primary != null) || (replayHistory > 0));
+            if (primary != null)
+            {
+                new ChatStandby(cs, primary.substring(0, primary.lastIndexOf(':')),
+                    Integer.parseInt(primary.substring(primary.lastIndexOf(':') + 1)), failoverTimeout).follow();
+                cs.takeOver();
+            }
+            cs.listen();
         }
     }
 
@@ -379,4 +1400,102 @@ public class ChatServer
         this.previousLogguedUsers = previousLogguedUsers;
     }
 
+    /**
+     * Names of all the loggued users, including the ones loggued on the other nodes of the cluster.
+     * 
+     * @return A Vector of user names.
+     */
+    public Vector getAllUserNames()
+    {
+        final Vector result = new Vector(getLogguedUsers().keySet());
+        if (cluster != null) result.addAll(cluster.getRemoteUsers());
+        return result;
+    }
+
+    /**
+     * Getter for property journal.
+     * 
+     * @return Value of property journal.
+     */
+    public ChatJournal getJournal()
+    {
+        return journal;
+    }
+
+    /**
+     * Replication lag of the standby server.
+     * 
+     * @return The number of journal entries not acknowledged yet by the standby server, -1 if there is
+     *         none.
+     */
+    public long getReplicationLag()
+    {
+        return (replicator == null) ? -1 : replicator.getReplicationLag();
+    }
+
+    /**
+     * Getter for property presenceVersion.
+     * 
+     * @return Value of property presenceVersion.
+     */
+    public long getPresenceVersion()
+    {
+        return presenceVersion;
+    }
+
+    /**
+     * Parse a limit given as <code>rate[:burst]</code>, the burst being one second of rate by default.
+     * 
+     * @return The rate and the burst, both 0 if there is no limit.
+     */
+    private static double[] parseLimit(final String limit)
+    {
+        if (limit == null) return new double[] { 0, 0 };
+
+        final int colon = limit.indexOf(':');
+        final double rate = Double.parseDouble((colon < 0) ? limit : limit.substring(0, colon));
+        final double burst = (colon < 0) ? Math.max(1, rate) : Double.parseDouble(limit.substring(colon + 1));
+        return new double[] { rate, burst };
+    }
+
+    /**
+     * Getter for property delivery.
+     * 
+     * @return Value of property delivery.
+     */
+    public ChatDelivery getDelivery()
+    {
+        return delivery;
+    }
+
+    /**
+     * Getter for property rateLimiter.
+     * 
+     * @return Value of property rateLimiter, null when the senders are not limited.
+     */
+    public ChatRateLimiter getRateLimiter()
+    {
+        return rateLimiter;
+    }
+
+    /**
+     * Getter for property eventLog.
+     * 
+     * @return Value of property eventLog.
+     */
+    public ChatEventLog getEventLog()
+    {
+        return eventLog;
+    }
+
+    /**
+     * Getter for property metrics.
+     * 
+     * @return Value of property metrics.
+     */
+    public ChatServerMetrics getMetrics()
+    {
+        return metrics;
+    }
+
 }
@@ -0,0 +1,455 @@
+//
+//    Felix the Chat
+//
+//    Copyright (c) 2001-2002 David Dossot
+//
+//    Permission is hereby granted, free of charge, to any person obtaining a copy
+//    of this software and associated documentation files (the "Software"), to deal
+//    in the Software without restriction, including without limitation the rights
+//    to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//    copies of the Software, and to permit persons to whom the Software is
+//    furnished to do so, subject to the following conditions:
+//
+//    The above copyright notice and this permission notice shall be included in
+//    all copies or substantial portions of the Software.
+//
+//    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//    IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//    FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//    AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//    LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//    OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+//    THE SOFTWARE.
+//
+
+package net.dossot.felix;
+
+import java.lang.management.ManagementFactory;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.ObjectName;
+
+/**
+ * Live metrics of a chat server. Counters are striped (LongAdder) and histograms are lock free, so
+ * recording costs a few nanoseconds and stays on in production.
+ * <p>
+ * The metrics are registered as an MBean named <code>net.dossot.felix:type=ChatServer,port=$port</code>
+ * and can be handed to an exporter.
+ * </p>
+ * 
+ * @see net.dossot.felix.ChatMetricsExporter
+ */
+public class ChatServerMetrics implements ChatServerMetricsMBean
+{
+    public final static int PUBLIC = 0;
+    public final static int PRIVATE = 1;
+    public final static int GROUP = 2;
+    public final static int ROOM = 3;
+    public final static int FORWARDED = 4;
+    private final static String[] TYPES = {"public", "private", "group", "room", "forwarded"};
+
+    private final static long RATE_PERIOD = 1000;
+
+    private final ChatServer chatServer;
+    private final LongAdder[] messages = new LongAdder[TYPES.length];
+    private final long[] previousMessages = new long[TYPES.length];
+    private volatile long[] rates = new long[TYPES.length];
+    private final LongAdder deliveries = new LongAdder();
+    private final LongAdder snipes = new LongAdder();
+    private final LongAdder throttled = new LongAdder();
+    private final LongAdder loginsRefused = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder presenceBroadcasts = new LongAdder();
+    private final LatencyHistogram dispatchLatency = new LatencyHistogram();
+    private final LatencyHistogram fanOut = new LatencyHistogram();
+    private final LatencyHistogram deliveryTime = new LatencyHistogram();
+    private final HopStatistics hopStatistics = new HopStatistics();
+    private Timer sampler = null;
+
+    /**
+     * Creates the metrics of a server.
+     * 
+     * @param ChatServer chatServer The server, for the number of sessions.
+     */
+    public ChatServerMetrics(final ChatServer chatServer)
+    {
+        this.chatServer = chatServer;
+        for (int i = 0; i < messages.length; i++)
+            messages[i] = new LongAdder();
+    }
+
+    /**
+     * Register the MBean and start measuring the rates.
+     * 
+     * @param int port Port of the server, which names the MBean.
+     */
+    public synchronized void start(final int port)
+    {
+        try
+        {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+                new ObjectName("net.dossot.felix:type=ChatServer,port=" + port));
+        }
+        catch (final Exception e)
+        {
+            System.err.println("Could not register the metrics MBean: " + e);
+        }
+
+        sampler = new Timer("ChatServerMetrics", true);
+        sampler.schedule(new TimerTask()
+        {
+            @Override
+            public void run()
+            {
+                sampleRates();
+            }
+        }, RATE_PERIOD, RATE_PERIOD);
+    }
+
+    private void sampleRates()
+    {
+        final long[] newRates = new long[TYPES.length];
+        for (int i = 0; i < TYPES.length; i++)
+        {
+            final long count = messages[i].sum();
+            newRates[i] = count - previousMessages[i];
+            previousMessages[i] = count;
+        }
+        rates = newRates;
+    }
+
+    /**
+     * Count a dispatched message.
+     * 
+     * @param int type PUBLIC, PRIVATE, GROUP, ROOM or FORWARDED.
+     * @param int recipients Number of recipients it has been sent to on this node.
+     */
+    public void countMessage(final int type, final int recipients)
+    {
+        messages[type].increment();
+        fanOut.record(recipients);
+    }
+
+    /**
+     * Record the dispatching time of a message.
+     * 
+     * @param long startNanos System.nanoTime() when the message was received.
+     */
+    public void recordDispatch(final long startNanos)
+    {
+        dispatchLatency.record((System.nanoTime() - startNanos) / 1000);
+    }
+
+    /**
+     * Record the sending of a message to one recipient.
+     * 
+     * @param long startNanos System.nanoTime() before connecting to the recipient.
+     */
+    public void recordDelivery(final long startNanos)
+    {
+        deliveries.increment();
+        deliveryTime.record((System.nanoTime() - startNanos) / 1000);
+    }
+
+    /** Count a snipe. */
+    public void countSnipe()
+    {
+        snipes.increment();
+    }
+
+    /** Count a message refused by the flood protection. */
+    public void countThrottled()
+    {
+        throttled.increment();
+    }
+
+    /** Count a login refused by the admission control. */
+    public void countLoginRefused()
+    {
+        loginsRefused.increment();
+    }
+
+    /** Count a send that has timed out. */
+    public void countTimeout()
+    {
+        timeouts.increment();
+    }
+
+    /** Count a broadcast of the list of users. */
+    public void countPresenceBroadcast()
+    {
+        presenceBroadcasts.increment();
+    }
+
+    /**
+     * All the metrics as text, one <code>name{labels} value</code> per line, in the Prometheus text
+     * format.
+     */
+    public String toText()
+    {
+        final StringBuffer sb = new StringBuffer();
+        line(sb, "felix_sessions", null, getSessions());
+        final long[] currentRates = rates;
+        for (int i = 0; i < TYPES.length; i++)
+            line(sb, "felix_messages_total", "type=\"" + TYPES[i] + "\"", messages[i].sum());
+        for (int i = 0; i < TYPES.length; i++)
+            line(sb, "felix_messages_per_second", "type=\"" + TYPES[i] + "\"", currentRates[i]);
+        histogram(sb, "felix_dispatch_latency_us", dispatchLatency);
+        histogram(sb, "felix_fan_out", fanOut);
+        line(sb, "felix_deliveries_total", null, getDeliveries());
+        histogram(sb, "felix_delivery_time_us", deliveryTime);
+        line(sb, "felix_snipes_total", null, getSnipes());
+        line(sb, "felix_timeouts_total", null, getTimeouts());
+        line(sb, "felix_throttled_total", null, getThrottled());
+        line(sb, "felix_logins_refused_total", null, getLoginsRefused());
+        line(sb, "felix_presence_broadcasts_total", null, getPresenceBroadcasts());
+        line(sb, "felix_log_dropped_total", null, getDroppedLogRecords());
+        final ChatDelivery delivery = chatServer.getDelivery();
+        line(sb, "felix_deliveries_queued", null, delivery.getQueued());
+        for (int i = 0; i < ChatSession.LANES; i++)
+        {
+            final String lane = "lane=\"" + ChatDelivery.getLaneName(i) + "\"";
+            line(sb, "felix_deliveries_dropped_total", lane, delivery.getDropped(i));
+            histogram(sb, "felix_lane_wait_us", lane, delivery.getWait(i));
+        }
+        hopStatistics.appendText(sb, "felix_hop_us");
+        return sb.toString();
+    }
+
+    private static void histogram(final StringBuffer sb, final String name, final LatencyHistogram histogram)
+    {
+        histogram(sb, name, null, histogram);
+    }
+
+    private static void histogram(final StringBuffer sb,
+                                  final String name,
+                                  final String labels,
+                                  final LatencyHistogram histogram)
+    {
+        final String prefix = (labels == null) ? "" : labels + ",";
+        line(sb, name, prefix + "quantile=\"0.5\"", histogram.getValueAtPercentile(50));
+        line(sb, name, prefix + "quantile=\"0.9\"", histogram.getValueAtPercentile(90));
+        line(sb, name, prefix + "quantile=\"0.99\"", histogram.getValueAtPercentile(99));
+        line(sb, name, prefix + "quantile=\"1\"", histogram.getMax());
+        line(sb, name + "_count", labels, histogram.getCount());
+    }
+
+    private static void line(final StringBuffer sb, final String name, final String labels, final long value)
+    {
+        sb.append(name);
+        if (labels != null) sb.append('{').append(labels).append('}');
+        sb.append(' ').append(value).append('\n');
+    }
+
+    @Override
+    public int getSessions()
+    {
+        return chatServer.getLogguedUsers().size();
+    }
+
+    @Override
+    public long getPublicMessages()
+    {
+        return messages[PUBLIC].sum();
+    }
+
+    @Override
+    public long getPrivateMessages()
+    {
+        return messages[PRIVATE].sum();
+    }
+
+    @Override
+    public long getGroupMessages()
+    {
+        return messages[GROUP].sum();
+    }
+
+    @Override
+    public long getRoomMessages()
+    {
+        return messages[ROOM].sum();
+    }
+
+    @Override
+    public long getForwardedMessages()
+    {
+        return messages[FORWARDED].sum();
+    }
+
+    @Override
+    public long getPublicMessagesPerSecond()
+    {
+        return rates[PUBLIC];
+    }
+
+    @Override
+    public long getPrivateMessagesPerSecond()
+    {
+        return rates[PRIVATE];
+    }
+
+    @Override
+    public long getGroupMessagesPerSecond()
+    {
+        return rates[GROUP];
+    }
+
+    @Override
+    public long getRoomMessagesPerSecond()
+    {
+        return rates[ROOM];
+    }
+
+    @Override
+    public long getForwardedMessagesPerSecond()
+    {
+        return rates[FORWARDED];
+    }
+
+    @Override
+    public long getDispatchLatencyP50()
+    {
+        return dispatchLatency.getValueAtPercentile(50);
+    }
+
+    @Override
+    public long getDispatchLatencyP99()
+    {
+        return dispatchLatency.getValueAtPercentile(99);
+    }
+
+    @Override
+    public long getDispatchLatencyMax()
+    {
+        return dispatchLatency.getMax();
+    }
+
+    @Override
+    public long getFanOutP50()
+    {
+        return fanOut.getValueAtPercentile(50);
+    }
+
+    @Override
+    public long getFanOutP99()
+    {
+        return fanOut.getValueAtPercentile(99);
+    }
+
+    @Override
+    public long getFanOutMax()
+    {
+        return fanOut.getMax();
+    }
+
+    @Override
+    public long getDeliveries()
+    {
+        return deliveries.sum();
+    }
+
+    @Override
+    public long getDeliveryTimeP50()
+    {
+        return deliveryTime.getValueAtPercentile(50);
+    }
+
+    @Override
+    public long getDeliveryTimeP99()
+    {
+        return deliveryTime.getValueAtPercentile(99);
+    }
+
+    @Override
+    public long getDeliveryTimeMax()
+    {
+        return deliveryTime.getMax();
+    }
+
+    @Override
+    public long getSnipes()
+    {
+        return snipes.sum();
+    }
+
+    @Override
+    public long getThrottled()
+    {
+        return throttled.sum();
+    }
+
+    @Override
+    public long getLoginsRefused()
+    {
+        return loginsRefused.sum();
+    }
+
+    @Override
+    public long getTimeouts()
+    {
+        return timeouts.sum();
+    }
+
+    @Override
+    public long getPresenceBroadcasts()
+    {
+        return presenceBroadcasts.sum();
+    }
+
+    @Override
+    public long getDroppedLogRecords()
+    {
+        return chatServer.getEventLog().getDropped();
+    }
+
+    @Override
+    public long getQueuedDeliveries()
+    {
+        return chatServer.getDelivery().getQueued();
+    }
+
+    @Override
+    public long getDroppedDeliveries()
+    {
+        long dropped = 0;
+        for (int i = 0; i < ChatSession.LANES; i++)
+            dropped += chatServer.getDelivery().getDropped(i);
+        return dropped;
+    }
+
+    @Override
+    public long getChatLaneWaitP99()
+    {
+        return chatServer.getDelivery().getWait(ChatSession.CHAT).getValueAtPercentile(99);
+    }
+
+    @Override
+    public String getHopBreakdown()
+    {
+        return hopStatistics.toString();
+    }
+
+    /**
+     * Latency breakdown of the traced messages, up to their writing to the recipients.
+     * 
+     * @return Value of property hopStatistics.
+     */
+    public HopStatistics getHopStatistics()
+    {
+        return hopStatistics;
+    }
+
+    @Override
+    public void resetHistograms()
+    {
+        dispatchLatency.reset();
+        fanOut.reset();
+        deliveryTime.reset();
+        hopStatistics.reset();
+        for (int i = 0; i < ChatSession.LANES; i++)
+            chatServer.getDelivery().getWait(i).reset();
+    }
+}
@@ -0,0 +1,119 @@
+//
+//    Felix the Chat
+//
+//    Copyright (c) 2001-2002 David Dossot
+//
+//    Permission is hereby granted, free of charge, to any person obtaining a copy
+//    of this software and associated documentation files (the "Software"), to deal
+//    in the Software without restriction, including without limitation the rights
+//    to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//    copies of the Software, and to permit persons to whom the Software is
+//    furnished to do so, subject to the following conditions:
+//
+//    The above copyright notice and this permission notice shall be included in
+//    all copies or substantial portions of the Software.
+//
+//    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//    IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//    FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//    AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//    LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//    OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+//    THE SOFTWARE.
+//
+
+package net.dossot.felix;
+
+/**
+ * Live metrics of a chat server, as seen through JMX. Times are in microseconds, rates are measured
+ * over the last second.
+ * 
+ * @see net.dossot.felix.ChatServerMetrics
+ */
+public interface ChatServerMetricsMBean
+{
+    /** Number of users loggued on this server. */
+    int getSessions();
+
+    /** Number of general messages dispatched. */
+    long getPublicMessages();
+
+    /** Number of messages dispatched to one recipient. */
+    long getPrivateMessages();
+
+    /** Number of messages dispatched to several recipients. */
+    long getGroupMessages();
+
+    /** Number of messages dispatched in rooms. */
+    long getRoomMessages();
+
+    /** Number of messages forwarded by other nodes of the cluster and delivered here. */
+    long getForwardedMessages();
+
+    long getPublicMessagesPerSecond();
+
+    long getPrivateMessagesPerSecond();
+
+    long getGroupMessagesPerSecond();
+
+    long getRoomMessagesPerSecond();
+
+    long getForwardedMessagesPerSecond();
+
+    /** Median time from the reception of a message to the end of its dispatching, lock waits included. */
+    long getDispatchLatencyP50();
+
+    long getDispatchLatencyP99();
+
+    long getDispatchLatencyMax();
+
+    /** Median number of recipients a message is sent to. */
+    long getFanOutP50();
+
+    long getFanOutP99();
+
+    long getFanOutMax();
+
+    /** Number of messages sent to a recipient, whether it has acknowledged or not. */
+    long getDeliveries();
+
+    /** Median time to send a message to one recipient and get its acknowledgment. */
+    long getDeliveryTimeP50();
+
+    long getDeliveryTimeP99();
+
+    long getDeliveryTimeMax();
+
+    /** Number of users dropped because a message could not be sent to them. */
+    long getSnipes();
+
+    /** Number of messages refused because their sender was over its rate limit. */
+    long getThrottled();
+
+    /** Number of logins refused because the admission queue was too long. */
+    long getLoginsRefused();
+
+    /** Number of sends to a recipient that have timed out. */
+    long getTimeouts();
+
+    /** Number of times the list of users has been sent to all the users. */
+    long getPresenceBroadcasts();
+
+    /** Number of records of the event log dropped because its buffer was full. */
+    long getDroppedLogRecords();
+
+    /** Number of messages waiting in the delivery lanes of the sessions. */
+    long getQueuedDeliveries();
+
+    /** Number of messages dropped from the delivery lanes: lane full or recipient gone. */
+    long getDroppedDeliveries();
+
+    /** Time spent by the chat messages in their delivery lane, in microseconds. */
+    long getChatLaneWaitP99();
+
+    /** Percentiles of the network, queue and dispatch segments of the traced messages. */
+    String getHopBreakdown();
+
+    /** Forget the latencies, fan-outs and hop times recorded so far. */
+    void resetHistograms();
+}
@@ -0,0 +1,151 @@
+//
+//    Felix the Chat
+//
+//    Copyright (c) 2001-2002 David Dossot
+//
+//    Permission is hereby granted, free of charge, to any person obtaining a copy
+//    of this software and associated documentation files (the "Software"), to deal
+//    in the Software without restriction, including without limitation the rights
+//    to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//    copies of the Software, and to permit persons to whom the Software is
+//    furnished to do so, subject to the following conditions:
+//
+//    The above copyright notice and this permission notice shall be included in
+//    all copies or substantial portions of the Software.
+//
+//    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//    IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//    FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//    AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//    LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//    OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+//    THE SOFTWARE.
+//
+
+package net.dossot.felix;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Date;
+import java.util.Hashtable;
+
+/**
+ * Image of the server state written to disk at regular intervals, so that a restarted server can
+ * resume the sessions of the users that were loggued before it went down.
+ * <p>
+ * The snapshot is first written in a temporary file, then renamed, so that a crash while writing
+ * never leaves a truncated snapshot behind.
+ * </p>
+ * 
+ * @see net.dossot.felix.ChatServer
+ */
+public class ChatServerSnapshot implements Serializable
+{
+    private static final long serialVersionUID = 1L;
+
+    /** Copy of the loggued users (user name -> Vector holding the client IP and port). */
+    private final Hashtable logguedUsers;
+    /** Version of the list of users at the time of the snapshot. */
+    private final long presenceVersion;
+    /** Date/Time when the snapshot has been taken. */
+    private final Date dateTaken;
+
+    /**
+     * Creates a new snapshot.
+     * 
+     * @param Hashtable logguedUsers The loggued users, copied so that the server can go on.
+     * @param long presenceVersion The current version of the list of users.
+     */
+    public ChatServerSnapshot(final Hashtable logguedUsers, final long presenceVersion)
+    {
+        this.logguedUsers = (Hashtable) logguedUsers.clone();
+        this.presenceVersion = presenceVersion;
+        dateTaken = new Date();
+    }
+
+    /**
+     * Write the snapshot to the given file.
+     * 
+     * @param File file The snapshot file.
+     */
+    public void save(final File file) throws IOException
+    {
+        final File tmpFile = new File(file.getPath() + ".tmp");
+        final ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(tmpFile));
+        try
+        {
+            oos.writeObject(this);
+        }
+        finally
+        {
+            oos.close();
+        }
+
+        if ((!tmpFile.renameTo(file)) && ((!file.delete()) || (!tmpFile.renameTo(file))))
+            throw new IOException("Can not rename " + tmpFile + " to " + file);
+    }
+
+    /**
+     * Read a snapshot from the given file.
+     * 
+     * @param File file The snapshot file.
+     * @return The snapshot or null if the file does not exist or can not be read.
+     */
+    public static ChatServerSnapshot load(final File file)
+    {
+        if (!file.exists()) return null;
+
+        try
+        {
+            final ObjectInputStream ois = new ObjectInputStream(new FileInputStream(file));
+            try
+            {
+                return (ChatServerSnapshot) ois.readObject();
+            }
+            finally
+            {
+                ois.close();
+            }
+        }
+        catch (final Exception e)
+        {
+            System.err.println("Can not read snapshot " + file + ": " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Getter for property logguedUsers.
+     * 
+     * @return Value of property logguedUsers.
+     */
+    public java.util.Hashtable getLogguedUsers()
+    {
+        return logguedUsers;
+    }
+
+    /**
+     * Getter for property presenceVersion.
+     * 
+     * @return Value of property presenceVersion.
+     */
+    public long getPresenceVersion()
+    {
+        return presenceVersion;
+    }
+
+    /**
+     * Getter for property dateTaken.
+     * 
+     * @return Value of property dateTaken.
+     */
+    public java.util.Date getDateTaken()
+    {
+        return dateTaken;
+    }
+}
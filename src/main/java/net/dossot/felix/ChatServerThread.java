@@ -24,11 +24,13 @@
 
 package net.dossot.felix;
 
+import java.io.BufferedOutputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.net.InetAddress;
 import java.net.Socket;
 import java.util.Collection;
+import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.Vector;
 
@@ -53,6 +55,9 @@ public class ChatServerThread extends Thread
     private ChatServer chatServer = null;
     private Socket socket = null;
 
+    // waiting for the next message of a client that keeps its connection open
+    private volatile boolean idle = false;
+
     /**
      * Initialize a new chat server thread.
      * 
@@ -79,6 +84,66 @@ public class ChatServerThread extends Thread
         }
     }
 
+    /**
+     * Tell if the connection is waiting for the next message of a client that keeps it open, after
+     * having answered all the previous ones: it can be closed at once on shutdown.
+     * 
+     * @return True if no request is in progress on the connection.
+     */
+    public boolean isIdle()
+    {
+        return idle;
+    }
+
+    /**
+     * Parse loggued users and drop any existing user with the same IP address and port.
+     * 
+     * @param Hashtable logguedUsers The loggued users of the server.
+     * @param Vector endpoint The IP address and port of the client that logs in.
+     * @return The number of users dropped.
+     */
+    static int discardEndpoint(final Hashtable logguedUsers, final Vector endpoint)
+    {
+        int discarded = 0;
+        final Collection cnxUsers = logguedUsers.values();
+        final Iterator iterUsers = cnxUsers.iterator();
+        while (iterUsers.hasNext())
+        {
+            final Vector v = (Vector) iterUsers.next();
+            if ((endpoint.get(0).equals(v.get(0))) && (endpoint.get(1).equals(v.get(1))))
+            {
+                iterUsers.remove();
+                discarded++;
+            }
+        }
+        return discarded;
+    }
+
+    /** Send an answer to the client at once, forgetting the objects already written. */
+    private static void answer(final ObjectOutputStream oos, final ChatMessage message) throws Exception
+    {
+        oos.writeObject(message);
+        oos.reset();
+        oos.flush();
+    }
+
+    /** Read the next message, in a Flight Recorder event. */
+    private ChatMessage readMessage(final ObjectInputStream ois) throws Exception
+    {
+        final ChatMessageReadEvent event = new ChatMessageReadEvent();
+        event.begin();
+        final ChatMessage message = (ChatMessage) ois.readObject();
+        if (message != null) message.stampHop(ChatMessage.HOP_SERVER_RECEIVE);
+        if ((message != null) && (event.shouldCommit()))
+        {
+            event.sender = message.getSender();
+            event.service = message.getService().booleanValue();
+            if (event.service) event.contents = message.getContents();
+            event.commit();
+        }
+        return message;
+    }
+
     /**
      * The main execution method of the thread, running as long as the communication is established
      * with the client.
@@ -91,13 +156,20 @@ public class ChatServerThread extends Thread
         ChatMessage message = null;
         String logguedUser = null;
 
+        chatServer.trackConnection(this, true);
         try
         {
-            final ObjectOutputStream oos = new ObjectOutputStream(socket.getOutputStream());
+            // each answer goes in one packet, at once, even when the client sends several messages
+            // without waiting for the answers
+            socket.setTcpNoDelay(true);
+            final ObjectOutputStream oos = new ObjectOutputStream(new BufferedOutputStream(
+                socket.getOutputStream()));
+            oos.flush();
             final ObjectInputStream ois = new ObjectInputStream(socket.getInputStream());
 
-            while ((chatServer.listening) && (message = (ChatMessage) ois.readObject()) != null)
+            while ((chatServer.listening) && (message = readMessage(ois)) != null)
             {
+                idle = false;
                 logguedUser = message.getSender();
 
                 // manage service messages
@@ -106,35 +178,37 @@ public class ChatServerThread extends Thread
                     // manage login
                     if (message.getContents().equals("login"))
                     {
+                        final long start = System.nanoTime();
+                        if (!chatServer.admitLogin())
+                        {
+                            answer(oos, new ChatMessage(new Boolean(true), "host", null, "busy"));
+                            chatServer.getEventLog().log("login_refused", logguedUser);
+                            idle = true;
+                            continue;
+                        }
+                        final boolean reused;
+                        final int discarded;
                         synchronized (chatServer)
                         {
-                            // parse loggued users and drop any existing user with the same IP
-                            // address and port
-                            final Collection cnxUsers = chatServer.getLogguedUsers().values();
-                            final Iterator iterUsers = cnxUsers.iterator();
-                            while (iterUsers.hasNext())
-                            {
-                                final Vector v = (Vector) iterUsers.next();
-                                if ((message.getRecipients().get(0).equals(v.get(0)))
-                                    && (message.getRecipients().get(1).equals(v.get(1))))
-                                {
-                                    System.out.println("Discarded client: " + v.get(0) + ":" + v.get(1));
-                                    iterUsers.remove();
-                                }
-                            }
+                            discarded = discardEndpoint(chatServer.getLogguedUsers(), message.getRecipients());
 
                             // put the new login info
-                            if (null == chatServer.getLogguedUsers()
-                                .put(logguedUser, message.getRecipients()))
-                                System.out.println("New login: " + logguedUser);
-                            else
-                                System.out.println("Login re-used: " + logguedUser);
+                            reused = (null != chatServer.getLogguedUsers().put(logguedUser,
+                                message.getRecipients()));
+                            chatServer.forgetResumed(logguedUser);
+                            chatServer.getJournal().append(ChatJournalEntry.LOGIN, logguedUser,
+                                message.getRecipients(), null);
                         }
+                        if (discarded > 0)
+                            chatServer.getEventLog().log("discarded", null, -1,
+                                message.getRecipients().get(0) + ":" + message.getRecipients().get(1));
+                        chatServer.getEventLog().log(reused ? "login_reused" : "login", logguedUser,
+                            (System.nanoTime() - start) / 1000, null);
 
                         // internal welcome message
                         message = new ChatMessage(new Boolean(true), "host", null, "welcome");
-                        oos.writeObject(message);
-                        chatServer.dispatchUsers(logguedUser, true);
+                        answer(oos, message);
+                        chatServer.announcePresence(logguedUser, true);
 
                         // displayed welcome message
                         final Vector addressee = new Vector();
@@ -142,7 +216,8 @@ public class ChatServerThread extends Thread
                         message = new ChatMessage(new Boolean(true), "host", addressee,
                             "Welcome to Felix v" + ChatServer.VERSION + " @ "
                                             + InetAddress.getLocalHost().getHostName());
-                        chatServer.sendMessage(logguedUser, message);
+                        chatServer.deliver(logguedUser, message);
+                        chatServer.replayHistory(logguedUser);
                     }
 
                     // manage logout
@@ -151,26 +226,56 @@ public class ChatServerThread extends Thread
                         final Vector addressee = new Vector();
                         addressee.add(logguedUser);
                         message = new ChatMessage(new Boolean(true), "host", null, "bye");
-                        oos.writeObject(message);
+                        answer(oos, message);
 
                         synchronized (chatServer)
                         {
                             chatServer.getLogguedUsers().remove(logguedUser);
-                            chatServer.dispatchUsers(logguedUser, false);
-                            System.out.println("Bye to: " + logguedUser);
+                            chatServer.getJournal().append(ChatJournalEntry.LOGOUT, logguedUser, null, null);
+                            chatServer.announcePresence(logguedUser, false);
                         }
+                        chatServer.getEventLog().log("logout", logguedUser);
+                        if (chatServer.getRateLimiter() != null) chatServer.getRateLimiter().forget(logguedUser);
+                        chatServer.getDelivery().discard(logguedUser);
+                        chatServer.closeStream(logguedUser);
+                        chatServer.leaveRooms(logguedUser, true);
+                    }
+
+                    // manage rooms
+                    if (message.getContents().startsWith("join::"))
+                    {
+                        answer(oos, new ChatMessage(new Boolean(true), "host", null, "joined"));
+                        chatServer.joinRoom(logguedUser, message.getContents().substring(6));
+                    }
+                    else if (message.getContents().startsWith("leave::"))
+                    {
+                        answer(oos, new ChatMessage(new Boolean(true), "host", null, "left"));
+                        chatServer.leaveRoom(logguedUser, message.getContents().substring(7));
                     }
                 }
 
+                // refuse the messages of a flooding sender
+                else if ((chatServer.getRateLimiter() != null) && (!chatServer.getRateLimiter().allow(message)))
+                {
+                    answer(oos, new ChatMessage(new Boolean(true), "host", null, "throttled"));
+                    chatServer.getMetrics().countThrottled();
+                }
+
                 // manage chat messages
                 else
                 {
                     // acknowledge
                     final ChatMessage ack = new ChatMessage(new Boolean(true), "host", null, "ack");
-                    oos.writeObject(ack);
-                    // call the dispatcher
-                    chatServer.dispatchMessage(message);
+                    answer(oos, ack);
+                    // call the dispatcher, or the one of the room
+                    final long start = System.nanoTime();
+                    if (message.getRoom() != null)
+                        chatServer.dispatchRoomMessage(message);
+                    else
+                        chatServer.dispatchMessage(message);
+                    chatServer.getMetrics().recordDispatch(start);
                 }
+                idle = true;
             }
 
             oos.close();
@@ -181,5 +286,9 @@ public class ChatServerThread extends Thread
         {
             // thread terminating : client is gone
         }
+        finally
+        {
+            chatServer.trackConnection(this, false);
+        }
     }
 }
@@ -0,0 +1,185 @@
+//
+//    Felix the Chat
+//
+//    Copyright (c) 2001-2002 David Dossot
+//
+//    Permission is hereby granted, free of charge, to any person obtaining a copy
+//    of this software and associated documentation files (the "Software"), to deal
+//    in the Software without restriction, including without limitation the rights
+//    to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//    copies of the Software, and to permit persons to whom the Software is
+//    furnished to do so, subject to the following conditions:
+//
+//    The above copyright notice and this permission notice shall be included in
+//    all copies or substantial portions of the Software.
+//
+//    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//    IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//    FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//    AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//    LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//    OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+//    THE SOFTWARE.
+//
+
+package net.dossot.felix;
+
+import java.util.LinkedList;
+
+/**
+ * Outbound queue of one loggued user: the messages waiting to be sent to the client, in three lanes.
+ * <p>
+ * The control lane (service messages: lists of users, notices, shutdown) is served first, then the
+ * chat lane, then the bulk lane (history replay). A lower lane is never starved: once a message of a
+ * lane has waited while its starvation limit of messages of the higher lanes went before it, it is
+ * served next. Each lane keeps its own order.
+ * </p>
+ * 
+ * @see net.dossot.felix.ChatDelivery
+ */
+public class ChatSession
+{
+    /** Lane of the service messages. */
+    public final static int CONTROL = 0;
+    /** Lane of the chat messages. */
+    public final static int CHAT = 1;
+    /** Lane of the bulk transfers. */
+    public final static int BULK = 2;
+    /** Number of lanes. */
+    public final static int LANES = 3;
+
+    private final String user;
+    private final int capacity;
+    private final int[] starvationLimits;
+    private final LinkedList[] lanes = new LinkedList[LANES];
+    private final int[] passed = new int[LANES];
+    /** True while the session is queued for a delivery thread or being drained by one. */
+    private boolean scheduled = false;
+
+    /**
+     * Creates an empty session.
+     * 
+     * @param String user Name of the user the messages are sent to.
+     * @param int capacity Maximum number of messages waiting in each lane.
+     * @param int[] starvationLimits For each lane, the number of messages of the higher lanes that can
+     *            go before one of its messages.
+     */
+    public ChatSession(final String user, final int capacity, final int[] starvationLimits)
+    {
+        this.user = user;
+        this.capacity = capacity;
+        this.starvationLimits = starvationLimits;
+        for (int i = 0; i < LANES; i++)
+            lanes[i] = new LinkedList();
+    }
+
+    /**
+     * Queue a message.
+     * 
+     * @param ChatMessage message The message to be sent.
+     * @param int lane The lane of the message.
+     * @return Null if the lane is full, else the message as queued.
+     */
+    public synchronized Queued offer(final ChatMessage message, final int lane)
+    {
+        if (lanes[lane].size() >= capacity) return null;
+
+        final Queued queued = new Queued(message, lane);
+        lanes[lane].add(queued);
+        return queued;
+    }
+
+    /**
+     * Mark the session as scheduled for a delivery thread.
+     * 
+     * @return True if it was not scheduled yet, and the caller must schedule it.
+     */
+    public synchronized boolean schedule()
+    {
+        if (scheduled) return false;
+        return scheduled = true;
+    }
+
+    /**
+     * Take the next message to send.
+     * 
+     * @return The next message, or null if all the lanes are empty: the session is then no more
+     *         scheduled.
+     */
+    public synchronized Queued poll()
+    {
+        int next = -1;
+        for (int i = 0; i < LANES; i++)
+            if (!lanes[i].isEmpty())
+            {
+                if (next < 0) next = i;
+                // a starving lane goes first
+                if ((i > 0) && (passed[i] >= starvationLimits[i]))
+                {
+                    next = i;
+                    break;
+                }
+            }
+
+        if (next < 0)
+        {
+            scheduled = false;
+            return null;
+        }
+
+        passed[next] = 0;
+        for (int i = next + 1; i < LANES; i++)
+            if (!lanes[i].isEmpty()) passed[i]++;
+        return (Queued) lanes[next].removeFirst();
+    }
+
+    /**
+     * Drop all the waiting messages.
+     * 
+     * @return The number of dropped messages, for each lane.
+     */
+    public synchronized int[] clear()
+    {
+        final int[] dropped = new int[LANES];
+        for (int i = 0; i < LANES; i++)
+        {
+            dropped[i] = lanes[i].size();
+            lanes[i].clear();
+            passed[i] = 0;
+        }
+        return dropped;
+    }
+
+    /** Number of messages waiting in all the lanes. */
+    public synchronized int size()
+    {
+        int size = 0;
+        for (int i = 0; i < LANES; i++)
+            size += lanes[i].size();
+        return size;
+    }
+
+    /**
+     * Getter for property user.
+     * 
+     * @return Value of property user.
+     */
+    public String getUser()
+    {
+        return user;
+    }
+
+    /** A message waiting in a lane, with the time it was queued. */
+    public static class Queued
+    {
+        final ChatMessage message;
+        final int lane;
+        final long queuedAt = System.nanoTime();
+
+        Queued(final ChatMessage message, final int lane)
+        {
+            this.message = message;
+            this.lane = lane;
+        }
+    }
+}
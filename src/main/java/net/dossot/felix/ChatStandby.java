@@ -0,0 +1,160 @@
+//
+//    Felix the Chat
+//
+//    Copyright (c) 2001-2002 David Dossot
+//
+//    Permission is hereby granted, free of charge, to any person obtaining a copy
+//    of this software and associated documentation files (the "Software"), to deal
+//    in the Software without restriction, including without limitation the rights
+//    to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//    copies of the Software, and to permit persons to whom the Software is
+//    furnished to do so, subject to the following conditions:
+//
+//    The above copyright notice and this permission notice shall be included in
+//    all copies or substantial portions of the Software.
+//
+//    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//    IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//    FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//    AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//    LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//    OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+//    THE SOFTWARE.
+//
+
+package net.dossot.felix;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Vector;
+
+/**
+ * Standby side of the replication: follows the journal of a primary server to keep a warm copy of
+ * its loggued users and history, until the primary stops answering.
+ * <p>
+ * The primary is considered dead when nothing has been received from it, heartbeats included, for
+ * the failover timeout. The standby server then takes over.
+ * </p>
+ * 
+ * @see net.dossot.felix.ChatReplicator
+ */
+public class ChatStandby
+{
+    private final static long LAG_REPORT_PERIOD = 10000;
+    private final static long RETRY_DELAY = 200;
+
+    private final ChatServer chatServer;
+    private final String primaryHost;
+    private final int primaryPort;
+    private final int failoverTimeout;
+
+    private long lastContact;
+    private long lastLagReport = 0;
+
+    /**
+     * Initialize the standby.
+     * 
+     * @param ChatServer chatServer The standby server.
+     * @param String primaryHost Name or IP address of the primary server.
+     * @param int primaryPort Replication port of the primary server.
+     * @param int failoverTimeout Time in milliseconds after which a silent primary is considered dead.
+     */
+    public ChatStandby(final ChatServer chatServer,
+                       final String primaryHost,
+                       final int primaryPort,
+                       final int failoverTimeout)
+    {
+        this.chatServer = chatServer;
+        this.primaryHost = primaryHost;
+        this.primaryPort = primaryPort;
+        this.failoverTimeout = failoverTimeout;
+    }
+
+    /** Follow the primary server, and return when it is considered dead. */
+    public void follow()
+    {
+        System.out.println("Standby of " + primaryHost + ":" + primaryPort);
+        lastContact = System.currentTimeMillis();
+        boolean synced = false;
+
+        while ((!synced) || (System.currentTimeMillis() - lastContact < failoverTimeout))
+        {
+            try
+            {
+                final Socket socket = new Socket();
+                socket.connect(new InetSocketAddress(primaryHost, primaryPort), failoverTimeout);
+                socket.setSoTimeout(failoverTimeout);
+                try
+                {
+                    final ObjectOutputStream oos = new ObjectOutputStream(new BufferedOutputStream(
+                        socket.getOutputStream()));
+                    oos.flush();
+                    final ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(
+                        socket.getInputStream()));
+
+                    while (true)
+                    {
+                        final Object received = ois.readObject();
+                        lastContact = System.currentTimeMillis();
+                        ChatJournalEntry last;
+                        if (received instanceof Vector)
+                        {
+                            final Vector batch = (Vector) received;
+                            for (int i = 0; i < batch.size(); i++)
+                                chatServer.applyReplicated((ChatJournalEntry) batch.get(i));
+                            last = (ChatJournalEntry) batch.lastElement();
+                        }
+                        else
+                        {
+                            last = (ChatJournalEntry) received;
+                            chatServer.applyReplicated(last);
+                            System.out.println("Standby synchronized: " + chatServer.getLogguedUsers().size()
+                                               + " user(s), " + chatServer.getJournal().getHistory().size()
+                                               + " message(s) of history.");
+                            synced = true;
+                        }
+
+                        oos.writeObject(Long.valueOf(last.getSequence()));
+                        oos.flush();
+                        oos.reset();
+                        reportLag(last);
+                    }
+                }
+                finally
+                {
+                    socket.close();
+                }
+            }
+            catch (final Exception e)
+            {
+                // primary unreachable: retry until the failover timeout
+            }
+
+            try
+            {
+                Thread.sleep(RETRY_DELAY);
+            }
+            catch (final InterruptedException e)
+            {
+                return;
+            }
+        }
+
+        System.out.println("Primary lost since " + (System.currentTimeMillis() - lastContact)
+                           + " ms: taking over.");
+    }
+
+    private void reportLag(final ChatJournalEntry last)
+    {
+        final long now = System.currentTimeMillis();
+        if (now - lastLagReport < LAG_REPORT_PERIOD) return;
+
+        lastLagReport = now;
+        System.out.println("Replication lag: " + (now - last.getTimestamp()) + " ms (entry #"
+                           + last.getSequence() + ")");
+    }
+}
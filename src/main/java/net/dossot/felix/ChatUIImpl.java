@@ -24,6 +24,7 @@
 
 package net.dossot.felix;
 
+import java.util.Hashtable;
 import java.util.Vector;
 
 /**
@@ -34,10 +35,11 @@ import java.util.Vector;
  * @version 2.0
  */
 
-public class ChatUIImpl implements net.dossot.felix.ChatUI
+public class ChatUIImpl implements net.dossot.felix.ChatRoomUI
 {
     private boolean chatEnabled = false;
     private Vector usersList = null;
+    private final Hashtable roomUsers = new Hashtable();
     private ChatMessage lastMessage = null;
 
     /** Turn on or off the gui features for typing/sending messages. */
@@ -61,6 +63,13 @@ public class ChatUIImpl implements net.dossot.felix.ChatUI
         lastMessage = message;
     }
 
+    /** Display the list of the current members of the room <i>room</i>. */
+    @Override
+    public void ShowRoomUsers(final String room, final Vector members)
+    {
+        roomUsers.put(room, members);
+    }
+
     /**
      * Getter for property chatEnabled.
      * 
@@ -91,4 +100,15 @@ public class ChatUIImpl implements net.dossot.felix.ChatUI
         return usersList;
     }
 
+    /**
+     * Members of a room, as last displayed.
+     * 
+     * @param String room Name of the room.
+     * @return The Vector of the names of the members, or null if unknown.
+     */
+    public java.util.Vector getRoomUsers(final String room)
+    {
+        return (Vector) roomUsers.get(room);
+    }
+
 }
@@ -0,0 +1,149 @@
+//
+//    Felix the Chat
+//
+//    Copyright (c) 2001-2002 David Dossot
+//
+//    Permission is hereby granted, free of charge, to any person obtaining a copy
+//    of this software and associated documentation files (the "Software"), to deal
+//    in the Software without restriction, including without limitation the rights
+//    to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//    copies of the Software, and to permit persons to whom the Software is
+//    furnished to do so, subject to the following conditions:
+//
+//    The above copyright notice and this permission notice shall be included in
+//    all copies or substantial portions of the Software.
+//
+//    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//    IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//    FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//    AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//    LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//    OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+//    THE SOFTWARE.
+//
+
+package net.dossot.felix;
+
+import java.time.Instant;
+
+/**
+ * Latency breakdown of traced messages, per segment between two hops: network from the sender to the
+ * server, queue until the dispatcher gets the locks, dispatching until the message is written to the
+ * recipient (its wait in the delivery lane of the recipient included), network to the recipient, and
+ * rendering by the GUI of the recipient.
+ * <p>
+ * The hops are stamped by different machines: the network segments include the offset between their
+ * clocks. Times are in microseconds.
+ * </p>
+ * 
+ * @see net.dossot.felix.ChatMessage#trace()
+ */
+public class HopStatistics
+{
+    public final static int NETWORK_IN = 0;
+    public final static int QUEUE = 1;
+    public final static int DISPATCH = 2;
+    public final static int NETWORK_OUT = 3;
+    public final static int RENDER = 4;
+    public final static int TOTAL = 5;
+    private final static String[] SEGMENTS = {"network_in", "queue", "dispatch", "network_out", "render", "total"};
+
+    private final LatencyHistogram[] histograms = new LatencyHistogram[SEGMENTS.length];
+
+    /** Creates empty statistics. */
+    public HopStatistics()
+    {
+        for (int i = 0; i < histograms.length; i++)
+            histograms[i] = new LatencyHistogram();
+    }
+
+    /**
+     * Current time, as stamped in the hops.
+     * 
+     * @return Microseconds since the epoch.
+     */
+    public static long currentTimeMicros()
+    {
+        final Instant now = Instant.now();
+        return now.getEpochSecond() * 1000000L + now.getNano() / 1000;
+    }
+
+    /**
+     * Record the segments between the hops of a message that have been reached. The segments are the
+     * ones between consecutive hops, plus the total from the sender to the recipient.
+     * 
+     * @param ChatMessage message The message, which is ignored if it is not traced.
+     */
+    public void record(final ChatMessage message)
+    {
+        final long[] hops = message.getHops();
+        if (hops == null) return;
+
+        for (int i = 0; i < ChatMessage.HOPS - 1; i++)
+            if ((hops[i] > 0) && (hops[i + 1] > 0)) histograms[i].record(hops[i + 1] - hops[i]);
+
+        if ((hops[ChatMessage.HOP_CLIENT_SEND] > 0) && (hops[ChatMessage.HOP_CLIENT_RECEIVE] > 0))
+            histograms[TOTAL].record(hops[ChatMessage.HOP_CLIENT_RECEIVE] - hops[ChatMessage.HOP_CLIENT_SEND]);
+    }
+
+    /**
+     * Record the time spent in one segment.
+     * 
+     * @param int segment One of the segment constants.
+     * @param long micros The time.
+     */
+    public void record(final int segment, final long micros)
+    {
+        histograms[segment].record(micros);
+    }
+
+    /**
+     * Histogram of a segment.
+     * 
+     * @param int segment One of the segment constants.
+     * @return The histogram, in microseconds.
+     */
+    public LatencyHistogram getHistogram(final int segment)
+    {
+        return histograms[segment];
+    }
+
+    /** Forget all the recorded times. */
+    public void reset()
+    {
+        for (int i = 0; i < histograms.length; i++)
+            histograms[i].reset();
+    }
+
+    /**
+     * Append the percentiles of the segments in the Prometheus text format.
+     * 
+     * @param StringBuffer sb Where to append the lines.
+     * @param String name Name of the metric.
+     */
+    public void appendText(final StringBuffer sb, final String name)
+    {
+        final String[] quantiles = {"0.5", "0.9", "0.99"};
+        final double[] percentiles = {50, 90, 99};
+        for (int i = 0; i < histograms.length; i++)
+        {
+            if (histograms[i].getCount() == 0) continue;
+
+            for (int q = 0; q < quantiles.length; q++)
+                sb.append(name).append("{segment=\"").append(SEGMENTS[i]).append("\",quantile=\"")
+                    .append(quantiles[q]).append("\"} ").append(histograms[i].getValueAtPercentile(percentiles[q]))
+                    .append('\n');
+        }
+    }
+
+    /** The percentiles of each segment that has been recorded, one segment per line. */
+    @Override
+    public String toString()
+    {
+        final StringBuffer sb = new StringBuffer();
+        for (int i = 0; i < histograms.length; i++)
+            if (histograms[i].getCount() > 0)
+                sb.append(SEGMENTS[i]).append(" (us): ").append(histograms[i]).append('\n');
+        return sb.toString();
+    }
+}
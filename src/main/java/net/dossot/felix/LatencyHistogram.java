@@ -0,0 +1,156 @@
+//
+//    Felix the Chat
+//
+//    Copyright (c) 2001-2002 David Dossot
+//
+//    Permission is hereby granted, free of charge, to any person obtaining a copy
+//    of this software and associated documentation files (the "Software"), to deal
+//    in the Software without restriction, including without limitation the rights
+//    to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//    copies of the Software, and to permit persons to whom the Software is
+//    furnished to do so, subject to the following conditions:
+//
+//    The above copyright notice and this permission notice shall be included in
+//    all copies or substantial portions of the Software.
+//
+//    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//    IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//    FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//    AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//    LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//    OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+//    THE SOFTWARE.
+//
+
+package net.dossot.felix;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of latencies, or of any positive values, with a precision of about 1%: values below 128
+ * are counted exactly, larger values are counted in buckets whose width doubles at each power of two,
+ * each power of two being split in 64 sub-buckets, as HdrHistogram does.
+ * <p>
+ * Recording is lock free and never allocates, so that it can be done on the hot paths by many threads.
+ * The percentiles read while values are recorded are approximate.
+ * </p>
+ */
+public class LatencyHistogram
+{
+    private final static int SUB_BUCKETS = 128;
+    private final static int HALF = SUB_BUCKETS / 2;
+    private final static int SUB_BITS = 7;
+
+    private final AtomicLongArray counts = new AtomicLongArray(SUB_BUCKETS + (64 - SUB_BITS) * HALF);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Record a value.
+     * 
+     * @param long value The value, negative values being recorded as 0.
+     */
+    public void record(long value)
+    {
+        if (value < 0) value = 0;
+
+        counts.incrementAndGet(indexOf(value));
+        count.incrementAndGet();
+        total.addAndGet(value);
+
+        long current = max.get();
+        while ((value > current) && (!max.compareAndSet(current, value)))
+            current = max.get();
+    }
+
+    /**
+     * Value at a given percentile: the highest value of the bucket where the percentile falls, capped
+     * by the maximum recorded value.
+     * 
+     * @param double percentile The percentile, between 0 and 100.
+     * @return The value, or 0 if nothing has been recorded.
+     */
+    public long getValueAtPercentile(final double percentile)
+    {
+        final long recorded = count.get();
+        if (recorded == 0) return 0;
+
+        final long rank = Math.max(1, (long) Math.ceil(recorded * Math.min(percentile, 100.0) / 100.0));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++)
+        {
+            seen += counts.get(i);
+            if (seen >= rank) return Math.min(highestValueOf(i), max.get());
+        }
+        return max.get();
+    }
+
+    /**
+     * Getter for property count.
+     * 
+     * @return Value of property count.
+     */
+    public long getCount()
+    {
+        return count.get();
+    }
+
+    /**
+     * Getter for property max.
+     * 
+     * @return Value of property max.
+     */
+    public long getMax()
+    {
+        return max.get();
+    }
+
+    /**
+     * Mean of the recorded values.
+     * 
+     * @return The mean, or 0 if nothing has been recorded.
+     */
+    public double getMean()
+    {
+        final long recorded = count.get();
+        return (recorded == 0) ? 0 : (double) total.get() / recorded;
+    }
+
+    /** Forget all the recorded values. */
+    public void reset()
+    {
+        for (int i = 0; i < counts.length(); i++)
+            counts.set(i, 0);
+        count.set(0);
+        total.set(0);
+        max.set(0);
+    }
+
+    /** Count, mean and the usual percentiles, on one line. */
+    @Override
+    public String toString()
+    {
+        return "count=" + getCount() + " mean=" + Math.round(getMean()) + " p50=" + getValueAtPercentile(50)
+               + " p90=" + getValueAtPercentile(90) + " p99=" + getValueAtPercentile(99) + " p99.9="
+               + getValueAtPercentile(99.9) + " max=" + getMax();
+    }
+
+    private static int indexOf(final long value)
+    {
+        if (value < SUB_BUCKETS) return (int) value;
+
+        final int shift = (63 - Long.numberOfLeadingZeros(value)) - (SUB_BITS - 1);
+        return SUB_BUCKETS + (shift - 1) * HALF + (int) ((value >> shift) - HALF);
+    }
+
+    private static long highestValueOf(final int index)
+    {
+        if (index < SUB_BUCKETS) return index;
+
+        final int shift = (index - SUB_BUCKETS) / HALF + 1;
+        final long subBucket = (index - SUB_BUCKETS) % HALF + HALF;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
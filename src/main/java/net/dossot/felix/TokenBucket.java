@@ -0,0 +1,96 @@
+//
+//    Felix the Chat
+//
+//    Copyright (c) 2001-2002 David Dossot
+//
+//    Permission is hereby granted, free of charge, to any person obtaining a copy
+//    of this software and associated documentation files (the "Software"), to deal
+//    in the Software without restriction, including without limitation the rights
+//    to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//    copies of the Software, and to permit persons to whom the Software is
+//    furnished to do so, subject to the following conditions:
+//
+//    The above copyright notice and this permission notice shall be included in
+//    all copies or substantial portions of the Software.
+//
+//    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//    IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//    FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//    AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//    LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//    OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+//    THE SOFTWARE.
+//
+
+package net.dossot.felix;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock free token bucket: a rate of tokens per second, with a burst capacity. The bucket is kept as
+ * the single time at which it will be full again (the generic cell rate algorithm), so taking tokens
+ * is one read and one compare-and-set.
+ */
+public class TokenBucket
+{
+    private final long nanosPerToken;
+    private final long burstNanos;
+    private final AtomicLong fullAt = new AtomicLong(Long.MIN_VALUE);
+
+    /**
+     * Creates a full bucket.
+     * 
+     * @param double rate Tokens added per second.
+     * @param double burst Maximum number of tokens the bucket holds.
+     */
+    public TokenBucket(final double rate, final double burst)
+    {
+        nanosPerToken = Math.max(1, (long) (1000000000L / rate));
+        burstNanos = (long) (nanosPerToken * Math.max(1, burst));
+    }
+
+    /**
+     * Take tokens if there are enough, without ever waiting.
+     * 
+     * @param long tokens Number of tokens to take.
+     * @return False if there are not enough tokens: none is taken.
+     */
+    public boolean tryTake(final long tokens)
+    {
+        return reserve(tokens, 0) == 0;
+    }
+
+    /**
+     * Take tokens in advance if there are not enough yet: the caller waits for them to be added
+     * before going on, which spaces the callers at the rate of the bucket.
+     * 
+     * @param long tokens Number of tokens to take.
+     * @param long maxWait Longest acceptable wait in nanoseconds.
+     * @return The time to wait in nanoseconds, 0 if the tokens were there, or -1 if the wait would be
+     *         longer than maxWait: none is taken.
+     */
+    public long reserve(final long tokens, final long maxWait)
+    {
+        final long cost = tokens * nanosPerToken;
+        while (true)
+        {
+            final long now = System.nanoTime();
+            final long current = fullAt.get();
+            final long next = Math.max(current, now - burstNanos) + cost;
+            final long wait = Math.max(0, next - now);
+            if (wait > maxWait) return -1;
+            if (fullAt.compareAndSet(current, next)) return wait;
+        }
+    }
+
+    /**
+     * Give back tokens taken by a request that did not go through after all.
+     * 
+     * @param long tokens Number of tokens to give back.
+     */
+    public void refund(final long tokens)
+    {
+        // below the time the bucket was last full, it is just full
+        fullAt.addAndGet(-tokens * nanosPerToken);
+    }
+}
@@ -0,0 +1,289 @@
+//
+//    Felix the Chat
+//
+//    Copyright (c) 2001-2002 David Dossot
+//
+//    Permission is hereby granted, free of charge, to any person obtaining a copy
+//    of this software and associated documentation files (the "Software"), to deal
+//    in the Software without restriction, including without limitation the rights
+//    to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//    copies of the Software, and to permit persons to whom the Software is
+//    furnished to do so, subject to the following conditions:
+//
+//    The above copyright notice and this permission notice shall be included in
+//    all copies or substantial portions of the Software.
+//
+//    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//    IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//    FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//    AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//    LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//    OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+//    THE SOFTWARE.
+//
+
+package net.dossot.felix.ui;
+
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.Vector;
+
+import javax.swing.JEditorPane;
+import javax.swing.text.Element;
+import javax.swing.text.html.HTMLDocument;
+
+/**
+ * The chat board of the standard GUI: the messages are shown in an editor pane, each new message
+ * being inserted at the end of the HTML document already displayed. Only the new message is parsed
+ * and laid out, whatever the number of messages already on the board.
+ * <p>
+ * With a scrollback limit, the board keeps the last messages only: the older ones are evicted, and
+ * paged back in from a local cache file when the user scrolls to the top. While the user reads the
+ * paged messages, the board does not scroll to the new ones; it goes back to the limit once the user
+ * follows the conversation again, so that the memory used stays flat.
+ * </p>
+ * <p>
+ * The methods of the board must be called from the event dispatch thread.
+ * </p>
+ * 
+ * @author David Dossot
+ * @version 2.3
+ */
+public class ChatBoard
+{
+    private final static String EMPTY_BOARD = "<html><head></head><body><div id='board'></div></body></html>";
+    private final static int PAGE = 100;
+
+    private final JEditorPane editor;
+    private HTMLDocument document = null;
+    private Element board = null;
+
+    private final int scrollback;
+    private ScrollbackCache cache = null;
+    /** Positions in the cache of the messages on the board, oldest first. */
+    private final LinkedList positions = new LinkedList();
+    /** Number of messages kept above the limit, 0 when following the conversation. */
+    private int paged = 0;
+    /** Number of messages received while the user reads the paged ones. */
+    private int unread = 0;
+
+    /**
+     * Creates an empty board without scrollback limit.
+     * 
+     * @param JEditorPane editor The editor pane displaying the board, with an HTML content type.
+     */
+    public ChatBoard(final JEditorPane editor)
+    {
+        this(editor, 0);
+    }
+
+    /**
+     * Creates an empty board.
+     * 
+     * @param JEditorPane editor The editor pane displaying the board, with an HTML content type.
+     * @param int scrollback Number of messages kept on the board, 0 for no limit.
+     */
+    public ChatBoard(final JEditorPane editor, final int scrollback)
+    {
+        this.editor = editor;
+        this.scrollback = scrollback;
+        if (scrollback > 0)
+        {
+            try
+            {
+                cache = new ScrollbackCache();
+            }
+            catch (final IOException e)
+            {
+                System.err.println("No scrollback cache, the evicted messages are lost: " + e);
+            }
+        }
+        clear();
+    }
+
+    /**
+     * Add a message at the end of the board and scroll to it.
+     * 
+     * @param String htmlLine The message, formatted as a line of the board.
+     * @see net.dossot.felix.ui.MessageFormatter#formatHTMLMessage(net.dossot.felix.ChatMessage, String,
+     *      String)
+     */
+    public void append(final String htmlLine)
+    {
+        final Vector htmlLines = new Vector(1);
+        htmlLines.add(htmlLine);
+        append(htmlLines);
+    }
+
+    /**
+     * Add messages at the end of the board, in a single insertion, and scroll to the last one.
+     * 
+     * @param Vector htmlLines The messages, formatted as lines of the board, oldest first.
+     */
+    public void append(final Vector htmlLines)
+    {
+        append(htmlLines, null);
+    }
+
+    /**
+     * Add a message at the end of the board with an identifier, to change it later on, and scroll to
+     * it.
+     * 
+     * @param String htmlLine The message, formatted as a line of the board.
+     * @param String id The identifier of the message, made of letters and digits.
+     * @see #replace(String, String)
+     */
+    public void append(final String htmlLine, final String id)
+    {
+        final Vector htmlLines = new Vector(1);
+        htmlLines.add(htmlLine);
+        append(htmlLines, id);
+    }
+
+    private void append(final Vector htmlLines, final String lastId)
+    {
+        try
+        {
+            final StringBuffer divs = new StringBuffer();
+            for (int i = 0; i < htmlLines.size(); i++)
+            {
+                final String htmlLine = (String) htmlLines.get(i);
+                if ((lastId != null) && (i == htmlLines.size() - 1))
+                    divs.append("<div id='").append(lastId).append("'>");
+                else
+                    divs.append("<div>");
+                divs.append(htmlLine).append("</div>");
+                if (scrollback > 0)
+                {
+                    positions.add(Long.valueOf((cache == null) ? -1 : cache.append(htmlLine)));
+                    if (paged > 0)
+                    {
+                        // keep the paged messages in view, unless the user has missed a whole scrollback
+                        paged++;
+                        if (++unread > scrollback)
+                        {
+                            paged = 0;
+                            unread = 0;
+                        }
+                    }
+                }
+            }
+            document.insertBeforeEnd(board, divs.toString());
+            if (scrollback > 0) evict();
+            if (paged == 0) editor.setCaretPosition(document.getLength());
+        }
+        catch (final Exception e)
+        {
+            System.err.println("Can not display the message: " + e);
+        }
+    }
+
+    /**
+     * Change a message added with an identifier, if it is still on the board. The evicted messages are
+     * paged back in as they were first added.
+     * 
+     * @param String id The identifier of the message.
+     * @param String htmlLine The new message, formatted as a line of the board.
+     */
+    public void replace(final String id, final String htmlLine)
+    {
+        final Element element = document.getElement(id);
+        if (element == null) return;
+
+        try
+        {
+            document.setInnerHTML(element, htmlLine);
+        }
+        catch (final Exception e)
+        {
+            System.err.println("Can not change the message: " + e);
+        }
+    }
+
+    /**
+     * Insert the previous page of evicted messages at the top of the board.
+     * 
+     * @return The number of messages inserted.
+     */
+    public int pageOlder()
+    {
+        if ((cache == null) || (positions.isEmpty())) return 0;
+
+        final StringBuffer page = new StringBuffer();
+        int count = 0;
+        try
+        {
+            long position = ((Long) positions.getFirst()).longValue();
+            while ((count < PAGE) && ((position = cache.previous(position)) >= 0))
+            {
+                page.insert(0, "<div>" + cache.read(position) + "</div>");
+                positions.addFirst(Long.valueOf(position));
+                count++;
+            }
+            if (count > 0) document.insertAfterStart(board, page.toString());
+        }
+        catch (final Exception e)
+        {
+            System.err.println("Can not page the history in: " + e);
+        }
+        if (paged == 0) unread = 0;
+        paged += count;
+        return count;
+    }
+
+    /** Go back to the conversation: the paged messages are evicted again. */
+    public void follow()
+    {
+        unread = 0;
+        if (paged == 0) return;
+
+        paged = 0;
+        evict();
+    }
+
+    /** Remove the oldest messages above the limit. */
+    private void evict()
+    {
+        while (positions.size() > scrollback + paged)
+        {
+            positions.removeFirst();
+            for (int i = 0; i < board.getElementCount(); i++)
+                if ("div".equals(board.getElement(i).getName()))
+                {
+                    document.removeElement(board.getElement(i));
+                    break;
+                }
+        }
+    }
+
+    /** Remove all the messages. */
+    public void clear()
+    {
+        positions.clear();
+        paged = 0;
+        unread = 0;
+        try
+        {
+            if (cache != null) cache.clear();
+        }
+        catch (final IOException e)
+        {
+            System.err.println("Can not clear the scrollback cache: " + e);
+        }
+
+        editor.setText(EMPTY_BOARD);
+        document = (HTMLDocument) editor.getDocument();
+        document.getStyleSheet().addRule("body { font-family: arial, helvetica; }");
+        board = document.getElement("board");
+    }
+
+    /**
+     * Getter for property document.
+     * 
+     * @return Value of property document.
+     */
+    public HTMLDocument getDocument()
+    {
+        return document;
+    }
+}
@@ -24,25 +24,31 @@
 
 package net.dossot.felix.ui;
 
-import java.applet.Applet;
-import java.applet.AudioClip;
+import java.awt.Graphics;
 import java.awt.Image;
-import java.text.DateFormat;
+import java.awt.event.AdjustmentEvent;
+import java.awt.event.AdjustmentListener;
+import java.lang.management.ManagementFactory;
+import java.net.URL;
 import java.util.Enumeration;
-import java.util.Hashtable;
+import java.util.LinkedHashMap;
 import java.util.Locale;
 import java.util.ResourceBundle;
 import java.util.Vector;
+import java.util.function.Consumer;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.swing.BoxLayout;
 import javax.swing.ImageIcon;
 import javax.swing.JButton;
 import javax.swing.JPanel;
+import javax.swing.JScrollBar;
 import javax.swing.SwingUtilities;
 
 import net.dossot.felix.ChatClient;
 import net.dossot.felix.ChatMessage;
 import net.dossot.felix.ChatUI;
+import net.dossot.felix.HopStatistics;
 
 /**
  * This is a sample GUI where all chatting is done in a single board and message privacy is shown
@@ -56,54 +62,193 @@ import net.dossot.felix.ChatUI;
 public class Client extends javax.swing.JFrame implements ChatUI
 {
     private static final String VERSION = "Felix Standard UI v2.3";
+    /** Maximum number of times per second each sound is played. */
+    private static final double SOUND_RATE = 2;
 
     private static Client guiClient = null;
-    private ChatClient chatClient = null;
-    private StringBuffer chatBoard = new StringBuffer();
-    private final DateFormat df = DateFormat.getTimeInstance(DateFormat.MEDIUM);
+    private volatile ChatClient chatClient = null;
+    private final String userName;
+    private final String hostName;
+    private final int hostPort;
+    private ChatBoard chatBoard = null;
+    private MessageList messageList = null;
+    private UserListModel userListModel = null;
+    private FrameBatcher batcher = null;
+    private MessageFormatter formatter = null;
     private boolean toggleSelection = true;
+
+    // sent messages shown before the answer of the server, by date and contents
+    private static final int MAX_SENDING = 1000;
+    private static final String SENDING = " <font size='1' color='gray'><i>(sending...)</i></font>";
+    private static final String NOT_SENT = " <font size='1' color='red'><i>(not sent)</i></font>";
+    private final LinkedHashMap sending = new LinkedHashMap()
+    {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(final java.util.Map.Entry eldest)
+        {
+            return size() > MAX_SENDING;
+        }
+    };
+    private int sentCount = 0;
+    private int boardGeneration = 0;
     private boolean currentTitleState = true;
 
     // sounds
     private static boolean appletSounds = true;
-    private final Hashtable sounds = new Hashtable();
+    private static int scrollback = 5000;
+    private static boolean virtualBoard = false;
+    private static int frameRate = 30;
+    private final SoundPlayer soundPlayer = new SoundPlayer(SOUND_RATE);
     private final String soundList[] = {"alarm", "all", "group", "joined", "left", "private", "sent"};
     private final int beepList[] = {3, 1, 2, 0, 0, 2, 0};
+    /** The sound played for a frame is the first one of this list among the sounds of its updates. */
+    private final String soundPriorities[] = {"alarm", "private", "group", "all", "joined", "left", "sent"};
 
     // icons
     private ResourceBundle emoticons = null;
     private Image iconFelix = null;
     private Image iconMessage = null;
 
-    private final Runnable updateChatBoardDisplay = new Runnable()
-    {
-        @Override
-        public void run()
-        {
-            editMessages.setText("<font face='arial,helvetica'>" + chatBoard + "</font>");
-            javax.swing.RepaintManager.currentManager(guiClient).paintDirtyRegions();
-        }
-    };
+    // startup
+    private static boolean startupTimes = false;
+    private final AtomicInteger loading = new AtomicInteger();
+    private boolean painted = false;
 
     public Client(final String userName, final String hostName, final int hostPort)
     {
-        try
+        this.userName = userName;
+        this.hostName = hostName;
+        this.hostPort = hostPort;
+        // the emoticons are not needed to display the messages: they are added once loaded
+        formatter = new MessageFormatter(null);
+        batcher = new FrameBatcher(new FrameBatcher.Stage()
+        {
+            @Override
+            public void apply(final Vector updates)
+            {
+                applyFrame(updates);
+            }
+        }, frameRate);
+
+        initComponents();
+        if (virtualBoard)
         {
-            emoticons = ResourceBundle.getBundle("emoticons", Locale.getDefault());
+            messageList = new MessageList();
+            scrollMessages.setViewportView(messageList);
         }
-        catch (final Exception e)
+        else
         {
-            emoticons = null;
+            chatBoard = new ChatBoard(editMessages, scrollback);
+            scrollMessages.getVerticalScrollBar().addAdjustmentListener(new AdjustmentListener()
+            {
+                @Override
+                public void adjustmentValueChanged(final AdjustmentEvent e)
+                {
+                    scrolled();
+                }
+            });
         }
-
-        initComponents();
-        loadIcons();
+        userListModel = new UserListModel(userName);
+        listUsers.setModel(userListModel);
         setTitleBar(false);
+        txtSend.setEnabled(false);
+        btnSend.setEnabled(false);
+        lblUserName.setText("Connecting...");
+        if (!appletSounds) chkSound.setText("Beep");
         pack();
+    }
+
+    /**
+     * Load the icons, sounds and emoticons in parallel, and log in, in the background: to be called
+     * once the window is shown.
+     */
+    public void start()
+    {
+        startLoading("icons", new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                loadIcons();
+            }
+        });
+        startLoading("sounds", new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                initSounds();
+            }
+        });
+        startLoading("emoticons", new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                loadEmoticons();
+            }
+        });
 
-        initSounds();
-        chatClient = new ChatClient(userName, hostName, hostPort, this);
-        setChatEnabled(chatClient.requestLogin());
+        final Thread login = new Thread("ClientStartup-login")
+        {
+            @Override
+            public void run()
+            {
+                final ChatClient newClient = new ChatClient(userName, hostName, hostPort, Client.this);
+                // one connection and one thread for all the incoming messages, shown in order
+                newClient.setStreamReceive(true);
+                chatClient = newClient;
+                final boolean loggued = newClient.requestLogin();
+                SwingUtilities.invokeLater(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        setChatEnabled(loggued);
+                        if (loggued) reportStartup("logged_in");
+                    }
+                });
+            }
+        };
+        login.setDaemon(true);
+        login.start();
+    }
+
+    private void startLoading(final String name, final Runnable task)
+    {
+        loading.incrementAndGet();
+        final Thread thread = new Thread("ClientStartup-" + name)
+        {
+            @Override
+            public void run()
+            {
+                task.run();
+                if (loading.decrementAndGet() == 0) reportStartup("resources_loaded");
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** Print the time elapsed since the start of the JVM until a step of the startup, if asked to. */
+    private void reportStartup(final String step)
+    {
+        if (startupTimes)
+            System.out.println("startup " + step + "_ms="
+                               + (System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime()));
+    }
+
+    @Override
+    public void paint(final Graphics g)
+    {
+        super.paint(g);
+        if (!painted)
+        {
+            painted = true;
+            reportStartup("first_paint");
+        }
     }
 
     @Override
@@ -121,7 +266,7 @@ public class Client extends javax.swing.JFrame implements ChatUI
             listUsers.repaint();
             playSound("alarm");
         }
-        lblUserName.setText(enabled ? chatClient.getUserName() : "Not loggued");
+        lblUserName.setText(enabled ? userName : "Not loggued");
         lblUserName.repaint();
         repaint();
     }
@@ -136,49 +281,81 @@ public class Client extends javax.swing.JFrame implements ChatUI
         }
     }
 
-    private void loadIcons()
+    /** Load the emoticons, then add their buttons. */
+    private void loadEmoticons()
     {
-        // load emoticon buttons
-        if (emoticons != null)
-        {
-            final JPanel leftPanel = new JPanel();
-            final BoxLayout bl = new BoxLayout(leftPanel, BoxLayout.Y_AXIS);
-            leftPanel.setLayout(bl);
-            String emoticonKey;
-            String emoticonImg;
-            final Vector loadedImg = new Vector();
-            JButton emoticonButton;
-            final Enumeration emoticonKeys = emoticons.getKeys();
-            while (emoticonKeys.hasMoreElements())
-            {
-                emoticonKey = (String) emoticonKeys.nextElement();
-                emoticonImg = emoticons.getString(emoticonKey);
-                if (!loadedImg.contains(emoticonImg))
+        ResourceBundle bundle;
+        try
+        {
+            bundle = ResourceBundle.getBundle("emoticons", Locale.getDefault());
+        }
+        catch (final Exception e)
+        {
+            return;
+        }
+        final ResourceBundle loadedEmoticons = bundle;
+        final MessageFormatter loadedFormatter = new MessageFormatter(loadedEmoticons);
+        SwingUtilities.invokeLater(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                emoticons = loadedEmoticons;
+                formatter = loadedFormatter;
+                addEmoticonButtons();
+            }
+        });
+    }
+
+    private void addEmoticonButtons()
+    {
+        // the images of the buttons are loaded when the buttons are first painted
+        final JPanel leftPanel = new JPanel();
+        final BoxLayout bl = new BoxLayout(leftPanel, BoxLayout.Y_AXIS);
+        leftPanel.setLayout(bl);
+        String emoticonKey;
+        String emoticonImg;
+        final Vector loadedImg = new Vector();
+        JButton emoticonButton;
+        final Enumeration emoticonKeys = emoticons.getKeys();
+        while (emoticonKeys.hasMoreElements())
+        {
+            emoticonKey = (String) emoticonKeys.nextElement();
+            emoticonImg = emoticons.getString(emoticonKey);
+            if (!loadedImg.contains(emoticonImg))
+            {
+                emoticonButton = new JButton("<html><img src='" + emoticonImg + "'></html>");
+                emoticonButton.setActionCommand(emoticonKey);
+                emoticonButton.setBackground(java.awt.Color.white);
+                emoticonButton.addActionListener(new java.awt.event.ActionListener()
                 {
-                    emoticonButton = new JButton("<html><img src='" + emoticonImg + "'></html>");
-                    emoticonButton.setActionCommand(emoticonKey);
-                    emoticonButton.setBackground(java.awt.Color.white);
-                    emoticonButton.addActionListener(new java.awt.event.ActionListener()
+                    @Override
+                    public void actionPerformed(final java.awt.event.ActionEvent evt)
                     {
-                        @Override
-                        public void actionPerformed(final java.awt.event.ActionEvent evt)
-                        {
-                            setTitleBar(false);
-                            txtSend.setText(txtSend.getText() + " " + evt.getActionCommand() + " ");
-                            txtSend.requestFocus();
-                        }
-                    });
-                    leftPanel.add(emoticonButton);
-                    loadedImg.add(emoticonImg);
-                }
+                        setTitleBar(false);
+                        txtSend.setText(txtSend.getText() + " " + evt.getActionCommand() + " ");
+                        txtSend.requestFocus();
+                    }
+                });
+                leftPanel.add(emoticonButton);
+                loadedImg.add(emoticonImg);
             }
-            if (loadedImg.size() > 0) getContentPane().add(leftPanel, java.awt.BorderLayout.WEST);
         }
+        if (loadedImg.size() > 0)
+        {
+            getContentPane().add(leftPanel, java.awt.BorderLayout.WEST);
+            validate();
+        }
+    }
 
-        // load other icons
+    /** Load the title bar icons, then display the current one. */
+    private void loadIcons()
+    {
+        Image felix = null;
+        Image message = null;
         try
         {
-            iconFelix = new ImageIcon(getClass().getResource("icons/felix.gif")).getImage();
+            felix = new ImageIcon(getClass().getResource("icons/felix.gif")).getImage();
         }
         catch (final Exception e)
         {
@@ -186,92 +363,245 @@ public class Client extends javax.swing.JFrame implements ChatUI
         }
         try
         {
-            iconMessage = new ImageIcon(getClass().getResource("icons/message.gif")).getImage();
+            message = new ImageIcon(getClass().getResource("icons/message.gif")).getImage();
         }
         catch (final Exception e)
         {
             System.err.println("Can't find icons/message.gif");
         }
 
+        final Image loadedFelix = felix;
+        final Image loadedMessage = message;
+        SwingUtilities.invokeLater(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                iconFelix = loadedFelix;
+                iconMessage = loadedMessage;
+                setIconImage(currentTitleState ? iconMessage : iconFelix);
+            }
+        });
     }
 
     private void initSounds()
     {
         if (appletSounds)
         {
-            AudioClip soundToLoad;
             for (int i = 0; i < soundList.length; i++)
             {
-                try
-                {
-                    soundToLoad = Applet.newAudioClip(this.getClass().getResource(
-                        "sounds/" + soundList[i] + ".wav"));
-                    sounds.put(soundList[i], soundToLoad);
+                URL sound = this.getClass().getResource("sounds/" + soundList[i] + ".wav");
+                if (sound == null) sound = this.getClass().getResource("/ui/sounds/" + soundList[i] + ".wav");
+                if (soundPlayer.load(soundList[i], sound))
                     System.out.println("Sound '" + soundList[i] + "' loaded.");
-                }
-                catch (final Exception e)
-                {
+                else
                     System.err.println("Sound '" + soundList[i] + "' not loaded!");
-                }
             }
         }
         else
         {
             for (int i = 0; i < soundList.length; i++)
-                sounds.put(soundList[i], new Integer(beepList[i]));
+                soundPlayer.setBeeps(soundList[i], beepList[i]);
             System.out.println("Applet Sounds are OFF");
-            chkSound.setText("Beep");
         }
     }
 
+    /** Page the history in when the user reaches the top of the board, follow it at the bottom. */
+    private void scrolled()
+    {
+        final JScrollBar bar = scrollMessages.getVerticalScrollBar();
+        if ((bar.getValueIsAdjusting()) || (bar.getMaximum() <= bar.getVisibleAmount())) return;
+
+        if (bar.getValue() == bar.getMinimum())
+        {
+            final int before = editMessages.getPreferredSize().height;
+            if (chatBoard.pageOlder() > 0)
+            {
+                // keep the message that was at the top in view
+                SwingUtilities.invokeLater(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        bar.setValue(editMessages.getPreferredSize().height - before);
+                    }
+                });
+            }
+        }
+        else if (bar.getValue() + bar.getVisibleAmount() >= bar.getMaximum()) chatBoard.follow();
+    }
+
     private void resetchatBoard()
     {
-        chatBoard = new StringBuffer();
-        SwingUtilities.invokeLater(updateChatBoardDisplay);
+        SwingUtilities.invokeLater(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                if (messageList != null)
+                    messageList.clear();
+                else
+                    chatBoard.clear();
+                sending.clear();
+                boardGeneration++;
+            }
+        });
     }
 
     private void playSound(final String toPlay)
     {
-        if (chkSound.isSelected())
+        if (chkSound.isSelected()) soundPlayer.play(toPlay);
+    }
+
+    /** Apply the messages, title bar change and sounds received during a frame. */
+    private void applyFrame(final Vector updates)
+    {
+        final Vector htmlLines = new Vector(updates.size());
+        boolean hasMessage = false;
+        int sound = soundPriorities.length;
+        for (int i = 0; i < updates.size(); i++)
         {
-            if (appletSounds)
+            final Update update = (Update) updates.get(i);
+            if (update.message != null)
             {
-                final AudioClip soundToPlay = (AudioClip) sounds.get(toPlay);
-                if (soundToPlay != null) soundToPlay.play();
+                final String htmlMessage = formatter.formatHTMLMessage(update.message,
+                    MessageList.COLORS[update.type], update.recipientList);
+                // the feedback of a message already shown while it was sent
+                final Sent sent = (update.type == MessageList.SENT) ? (Sent) sending.remove(getKey(update.message))
+                                                                    : null;
+                if (sent != null)
+                {
+                    if (!sent.confirmed) showSent(sent, htmlMessage);
+                    sent.confirmed = true;
+                }
+                else if (messageList != null)
+                    messageList.append(htmlMessage, update.type);
+                else
+                    htmlLines.add(htmlMessage);
+                hasMessage |= update.hasMessage;
             }
-            else
+            for (int j = 0; (update.sound != null) && (j < sound); j++)
+                if (soundPriorities[j].equals(update.sound)) sound = j;
+        }
+
+        if (!htmlLines.isEmpty()) chatBoard.append(htmlLines);
+        recordRendering(updates);
+        if (hasMessage) setTitleBar(true);
+        if (sound < soundPriorities.length) playSound(soundPriorities[sound]);
+    }
+
+    /** Record the rendering of the traced messages of a frame, now displayed. */
+    private void recordRendering(final Vector updates)
+    {
+        final ChatClient client = chatClient;
+        if (client == null) return;
+
+        final long shown = HopStatistics.currentTimeMicros();
+        for (int i = 0; i < updates.size(); i++)
+        {
+            final ChatMessage message = ((Update) updates.get(i)).message;
+            if ((message != null) && (message.getHops() != null))
+                client.getHopStatistics().record(HopStatistics.RENDER,
+                    shown - message.getHops()[ChatMessage.HOP_CLIENT_RECEIVE]);
+        }
+    }
+
+    /** A sent message shown before the answer of the server. */
+    private static class Sent
+    {
+        private final String htmlMessage;
+        private final Object line;
+        private final int generation;
+        private boolean confirmed = false;
+
+        Sent(final String htmlMessage, final Object line, final int generation)
+        {
+            this.htmlMessage = htmlMessage;
+            this.line = line;
+            this.generation = generation;
+        }
+    }
+
+    private static String getKey(final ChatMessage message)
+    {
+        return message.getDateSent().getTime() + ":" + message.getContents();
+    }
+
+    /** Show a message being sent at once, and update it when the server has answered. */
+    private void showSending(final ChatMessage message)
+    {
+        final String htmlMessage = formatter.formatHTMLMessage(message, MessageList.COLORS[MessageList.SENT],
+            (message.getRecipients().size() >= 1) ? message.getRecipients().toString() : "");
+        final Object line;
+        if (messageList != null)
+            line = Integer.valueOf(messageList.append(htmlMessage + SENDING, MessageList.SENT));
+        else
+        {
+            line = "sent" + (++sentCount);
+            chatBoard.append(htmlMessage + SENDING, (String) line);
+        }
+        final Sent sent = new Sent(htmlMessage, line, boardGeneration);
+        sending.put(getKey(message), sent);
+
+        chatClient.sendMessageAsync(message).thenAccept(new Consumer()
+        {
+            @Override
+            public void accept(final Object accepted)
             {
-                for (int i = 0; i < ((Integer) sounds.get(toPlay)).intValue(); i++)
+                SwingUtilities.invokeLater(new Runnable()
                 {
-                    if (i > 0)
+                    @Override
+                    public void run()
                     {
-                        try
+                        if (((Boolean) accepted).booleanValue())
                         {
-                            Thread.sleep(150);
+                            if (!sent.confirmed) showSent(sent, sent.htmlMessage);
+                            sent.confirmed = true;
+                            playSound("sent");
                         }
-                        catch (final Exception e)
+                        // the feedback has shown that the message went through anyway
+                        else if (!sent.confirmed)
                         {
+                            sending.remove(getKey(message));
+                            showSent(sent, sent.htmlMessage + NOT_SENT);
                         }
                     }
-
-                    getToolkit().beep();
-                }
+                });
             }
-        }
+        });
     }
 
-    private void appendHTMLMessage(final ChatMessage message,
-                                   final String htmlColor,
-                                   final String recipientList)
+    private void showSent(final Sent sent, final String htmlLine)
     {
-        String htmlMessage = "<font size='1' color='gray'>" + message.getSender() + "@"
-                             + df.format(message.getDateSent());
-        // display list of recipients only if it is not a private or cast to all
-        htmlMessage += recipientList;
-        htmlMessage += "</font> <font size='3' color='" + htmlColor + "'><b>" + message.getContents()
-                       + "<b></font><br>";
-        chatBoard.append(htmlMessage);
-        SwingUtilities.invokeLater(updateChatBoardDisplay);
+        if (sent.generation != boardGeneration) return;
+
+        if (messageList != null)
+            messageList.setLine(((Integer) sent.line).intValue(), htmlLine, MessageList.SENT);
+        else
+            chatBoard.replace((String) sent.line, htmlLine);
+    }
+
+    /** Update of the GUI queued for the next frame. */
+    private static class Update
+    {
+        private final ChatMessage message;
+        private final int type;
+        private final String recipientList;
+        private final String sound;
+        private final boolean hasMessage;
+
+        Update(final ChatMessage message,
+               final int type,
+               final String recipientList,
+               final String sound,
+               final boolean hasMessage)
+        {
+            this.message = message;
+            this.type = type;
+            this.recipientList = recipientList;
+            this.sound = sound;
+            this.hasMessage = hasMessage;
+        }
     }
 
     @Override
@@ -280,38 +610,34 @@ public class Client extends javax.swing.JFrame implements ChatUI
         if (message.getService().booleanValue())
         {
             // system messages
-            appendHTMLMessage(message, "red", "");
+            batcher.post(new Update(message, MessageList.SYSTEM, "", null, false));
         }
         else
         {
-            if (message.getSender().equals(chatClient.getUserName()))
+            if (message.getSender().equals(userName))
             {
                 // feedback display of sent messages
-                appendHTMLMessage(message, "gray",
-                    (message.getRecipients().size() >= 1) ? message.getRecipients().toString() : "");
+                batcher.post(new Update(message, MessageList.SENT,
+                    (message.getRecipients().size() >= 1) ? message.getRecipients().toString() : "", null, false));
             }
             else
             {
                 // this is a non-system non-feedback messages
-                setTitleBar(true);
-
                 if (message.getRecipients().size() == 0)
                 {
                     // public messages
-                    appendHTMLMessage(message, "black", "");
-                    playSound("all");
+                    batcher.post(new Update(message, MessageList.PUBLIC, "", "all", true));
                 }
                 else if (message.getRecipients().size() == 1)
                 {
                     // private messages
-                    appendHTMLMessage(message, "blue", "");
-                    playSound("private");
+                    batcher.post(new Update(message, MessageList.PRIVATE, "", "private", true));
                 }
                 else
                 {
                     // group messages
-                    appendHTMLMessage(message, "#DAAB00", message.getRecipients().toString());
-                    playSound("group");
+                    batcher.post(new Update(message, MessageList.GROUP, message.getRecipients().toString(), "group",
+                        true));
                 }
             }
         }
@@ -320,84 +646,21 @@ public class Client extends javax.swing.JFrame implements ChatUI
     @Override
     public void ShowListUsers(final Vector fullList)
     {
-        // store the selected users so that we can reselect them after refresh
-        final int nbUsersBefore = listUsers.getModel().getSize();
-        final Vector selectedUsers = new Vector();
-        final Object[] targets = listUsers.getSelectedValues();
-        for (int i = 0; i < targets.length; i++)
-        {
-            selectedUsers.add(targets[i]);
-        }
-        // build a list of users excluding the current user
-        final Vector filteredList = new Vector();
-        String userName;
-        for (final Enumeration e = fullList.elements(); e.hasMoreElements();)
-        {
-            userName = (String) (e.nextElement());
-            if (!userName.equals(chatClient.getUserName())) filteredList.add(userName);
-        }
-        // display the list
-        listUsers.setListData(filteredList);
-        // reselect previously selected users
-        String toReselect;
-        for (final Enumeration e = selectedUsers.elements(); e.hasMoreElements();)
+        final Vector users = new Vector(fullList);
+        SwingUtilities.invokeLater(new Runnable()
         {
-            toReselect = (String) e.nextElement();
-            for (int i = 0; i < listUsers.getModel().getSize(); i++)
+            @Override
+            public void run()
             {
-                if (((String) listUsers.getModel().getElementAt(i)).equals(toReselect))
-                {
-                    listUsers.addSelectionInterval(i, i);
-                    break;
-                }
+                // the selected users stay selected, the list being updated row by row
+                final int change = userListModel.update(users);
+                // play a sound depending if the list has grown or reduced
+                if (change >= 0)
+                    batcher.post(new Update(null, 0, null, "joined", false));
+                else
+                    batcher.post(new Update(null, 0, null, "left", false));
             }
-        }
-        // play a sound depending if the list has grown or reduced
-        if (listUsers.getModel().getSize() >= nbUsersBefore)
-            playSound("joined");
-        else
-            playSound("left");
-
-    }
-
-    private String replace(final String text, final String searchText, String replaceText)
-    {
-        if (text == null || text.length() == 0 || searchText == null || searchText.length() == 0)
-            return (text);
-
-        if (replaceText == null) replaceText = new String("");
-
-        int position = 0;
-
-        StringBuffer textBuffer = new StringBuffer(text);
-
-        while (true)
-        {
-            position = textBuffer.toString().indexOf(searchText, position);
-            if (position < 0) break;
-
-            textBuffer = textBuffer.replace(position, position + searchText.length(), replaceText);
-            position += replaceText.length();
-        }
-        return textBuffer.toString();
-    }
-
-    private String parseEmoticons(final String message)
-    {
-        if (emoticons == null) return message;
-
-        String result = message;
-
-        final Enumeration emoticonKeys = emoticons.getKeys();
-        String emoticonKey;
-        while (emoticonKeys.hasMoreElements())
-        {
-            emoticonKey = (String) emoticonKeys.nextElement();
-            result = replace(result, emoticonKey, "&nbsp;<img src='" + emoticons.getString(emoticonKey)
-                                                  + "'>&nbsp;");
-        }
-
-        return result.toString();
+        });
     }
 
     private void SendMessage()
@@ -416,12 +679,10 @@ public class Client extends javax.swing.JFrame implements ChatUI
                     addressees.add(targets[i]);
                 }
             }
-            // send the message
-            if (chatClient.sendMessage(false, addressees, parseEmoticons(txtSend.getText()), "ack"))
-            {
-                playSound("sent");
-                txtSend.setText("");
-            }
+            // show the message at once, and send it in the background
+            showSending(new ChatMessage(new Boolean(false), userName, addressees,
+                formatter.parseEmoticons(txtSend.getText())));
+            txtSend.setText("");
         }
     }
 
@@ -727,7 +988,7 @@ public class Client extends javax.swing.JFrame implements ChatUI
     /** Exit the Application */
     private void exitForm(final java.awt.event.WindowEvent evt)
     {// GEN-FIRST:event_exitForm
-        System.exit(chatClient.requestLogout() ? 0 : 1);
+        System.exit(((chatClient != null) && (chatClient.requestLogout())) ? 0 : 1);
     }// GEN-LAST:event_exitForm
 
     /**
@@ -737,16 +998,40 @@ public class Client extends javax.swing.JFrame implements ChatUI
      */
     public static void main(final String args[]) throws Exception
     {
-        if (args.length >= 4)
+        for (int i = 3; i < args.length; i++)
         {
-            if (args[3].equals("-noAppletSounds"))
+            if (args[i].equals("-noAppletSounds"))
             {
                 appletSounds = false;
             }
+            else if ((args[i].equals("-scrollback")) && (i + 1 < args.length))
+            {
+                scrollback = Integer.parseInt(args[++i]);
+            }
+            else if (args[i].equals("-virtualBoard"))
+            {
+                virtualBoard = true;
+            }
+            else if ((args[i].equals("-frameRate")) && (i + 1 < args.length))
+            {
+                frameRate = Integer.parseInt(args[++i]);
+            }
+            else if (args[i].equals("-startupTimes"))
+            {
+                startupTimes = true;
+            }
         }
 
-        guiClient = new Client(args[0], args[1], Integer.parseInt(args[2]));
-        guiClient.show();
+        SwingUtilities.invokeAndWait(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                guiClient = new Client(args[0], args[1], Integer.parseInt(args[2]));
+                guiClient.show();
+            }
+        });
+        guiClient.start();
     }
 
     // Variables declaration - do not modify//GEN-BEGIN:variables
@@ -0,0 +1,218 @@
+//
+//    Felix the Chat
+//
+//    Copyright (c) 2001-2002 David Dossot
+//
+//    Permission is hereby granted, free of charge, to any person obtaining a copy
+//    of this software and associated documentation files (the "Software"), to deal
+//    in the Software without restriction, including without limitation the rights
+//    to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//    copies of the Software, and to permit persons to whom the Software is
+//    furnished to do so, subject to the following conditions:
+//
+//    The above copyright notice and this permission notice shall be included in
+//    all copies or substantial portions of the Software.
+//
+//    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//    IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//    FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//    AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//    LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//    OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+//    THE SOFTWARE.
+//
+
+package net.dossot.felix.ui;
+
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.Vector;
+
+/**
+ * Replaces many patterns, such as emoticons, in a single pass over a text: the patterns are compiled
+ * once into an Aho-Corasick automaton.
+ * <p>
+ * Where patterns overlap, the one starting first wins, and among those starting at the same place the
+ * longest one: with ":-)" and "-)", ":-))" becomes the replacement of ":-)" followed by ")". The
+ * replacements are not scanned again.
+ * </p>
+ * 
+ * @author David Dossot
+ * @version 2.3
+ */
+public class EmoticonMatcher
+{
+    private final static int ROOT = 0;
+
+    /** Characters of the transitions of each state, sorted. */
+    private final char[][] labels;
+    /** Target state of each transition. */
+    private final int[][] targets;
+    private final int[] failures;
+    private final int[] depths;
+    /** Longest pattern ending at each state, through the failure links, as an index in patterns. */
+    private final int[] matches;
+    private final String[] replacements;
+    private final int[] lengths;
+
+    /**
+     * Compile the patterns.
+     * 
+     * @param Hashtable replacements Replacement String of each pattern String.
+     */
+    public EmoticonMatcher(final Hashtable replacements)
+    {
+        // trie of the patterns, each state mapping its characters to its children
+        final Vector children = new Vector();
+        final Vector depthList = new Vector();
+        final Vector patternList = new Vector();
+        children.add(new Hashtable());
+        depthList.add(Integer.valueOf(0));
+        patternList.add(Integer.valueOf(-1));
+
+        this.replacements = new String[replacements.size()];
+        lengths = new int[replacements.size()];
+        int index = 0;
+        for (final Enumeration e = replacements.keys(); e.hasMoreElements(); index++)
+        {
+            final String pattern = (String) e.nextElement();
+            this.replacements[index] = (String) replacements.get(pattern);
+            lengths[index] = pattern.length();
+            if (pattern.length() == 0) continue;
+
+            int state = ROOT;
+            for (int i = 0; i < pattern.length(); i++)
+            {
+                final Character c = Character.valueOf(pattern.charAt(i));
+                Integer child = (Integer) ((Hashtable) children.get(state)).get(c);
+                if (child == null)
+                {
+                    child = Integer.valueOf(children.size());
+                    ((Hashtable) children.get(state)).put(c, child);
+                    children.add(new Hashtable());
+                    depthList.add(Integer.valueOf(i + 1));
+                    patternList.add(Integer.valueOf(-1));
+                }
+                state = child.intValue();
+            }
+            patternList.set(state, Integer.valueOf(index));
+        }
+
+        final int states = children.size();
+        labels = new char[states][];
+        targets = new int[states][];
+        failures = new int[states];
+        depths = new int[states];
+        matches = new int[states];
+        for (int state = 0; state < states; state++)
+        {
+            final Hashtable transitions = (Hashtable) children.get(state);
+            final Vector sorted = new Vector(transitions.keySet());
+            Collections.sort(sorted);
+            labels[state] = new char[sorted.size()];
+            targets[state] = new int[sorted.size()];
+            for (int i = 0; i < sorted.size(); i++)
+            {
+                labels[state][i] = ((Character) sorted.get(i)).charValue();
+                targets[state][i] = ((Integer) transitions.get(sorted.get(i))).intValue();
+            }
+            depths[state] = ((Integer) depthList.get(state)).intValue();
+            matches[state] = ((Integer) patternList.get(state)).intValue();
+        }
+
+        // failure links, breadth first so that the link of a state is known before its children
+        final int[] queue = new int[states];
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = ROOT;
+        while (head < tail)
+        {
+            final int state = queue[head++];
+            for (int i = 0; i < labels[state].length; i++)
+            {
+                final int child = targets[state][i];
+                failures[child] = (state == ROOT) ? ROOT : next(failures[state], labels[state][i]);
+                // a pattern ending here is longer than the ones ending at the failure state
+                if (matches[child] < 0) matches[child] = matches[failures[child]];
+                queue[tail++] = child;
+            }
+        }
+    }
+
+    /**
+     * Replace the patterns found in a text.
+     * 
+     * @param String text The text.
+     * @return The text with the replacements, or the text itself if no pattern was found.
+     */
+    public String replace(final String text)
+    {
+        StringBuffer result = null;
+        int copied = 0;
+        int matchStart = -1;
+        int matchEnd = -1;
+        int match = -1;
+        int state = ROOT;
+        int i = 0;
+
+        while (true)
+        {
+            if (i < text.length())
+            {
+                state = next(state, text.charAt(i));
+                final int pattern = matches[state];
+                if (pattern >= 0)
+                {
+                    final int start = i - lengths[pattern] + 1;
+                    if ((matchStart < 0) || (start < matchStart) || ((start == matchStart) && (i > matchEnd)))
+                    {
+                        matchStart = start;
+                        matchEnd = i;
+                        match = pattern;
+                    }
+                }
+                // a longer match starting as early may still come
+                if ((matchStart < 0) || (i - depths[state] + 1 <= matchStart))
+                {
+                    i++;
+                    continue;
+                }
+            }
+            else if (matchStart < 0) break;
+
+            if (result == null) result = new StringBuffer(text.length() + 64);
+            result.append(text, copied, matchStart).append(replacements[match]);
+            copied = matchEnd + 1;
+            // scan again after the match, the overlapping matches being discarded
+            i = copied;
+            state = ROOT;
+            matchStart = -1;
+        }
+
+        if (result == null) return text;
+        return result.append(text, copied, text.length()).toString();
+    }
+
+    private int next(int state, final char c)
+    {
+        while (true)
+        {
+            final char[] stateLabels = labels[state];
+            int low = 0;
+            int high = stateLabels.length - 1;
+            while (low <= high)
+            {
+                final int middle = (low + high) >>> 1;
+                if (stateLabels[middle] < c)
+                    low = middle + 1;
+                else if (stateLabels[middle] > c)
+                    high = middle - 1;
+                else
+                    return targets[state][middle];
+            }
+            if (state == ROOT) return ROOT;
+            state = failures[state];
+        }
+    }
+}
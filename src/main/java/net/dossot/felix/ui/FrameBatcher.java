@@ -0,0 +1,134 @@
+//
+//    Felix the Chat
+//
+//    Copyright (c) 2001-2002 David Dossot
+//
+//    Permission is hereby granted, free of charge, to any person obtaining a copy
+//    of this software and associated documentation files (the "Software"), to deal
+//    in the Software without restriction, including without limitation the rights
+//    to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//    copies of the Software, and to permit persons to whom the Software is
+//    furnished to do so, subject to the following conditions:
+//
+//    The above copyright notice and this permission notice shall be included in
+//    all copies or substantial portions of the Software.
+//
+//    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//    IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//    FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//    AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//    LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//    OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+//    THE SOFTWARE.
+//
+
+package net.dossot.felix.ui;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.Vector;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.swing.Timer;
+
+/**
+ * Batching stage between the threads receiving the messages and the event dispatch thread: the
+ * updates are queued without any lock, and applied together in one pass of the event dispatch thread
+ * per frame, at most at the target frame rate.
+ * <p>
+ * The first update of a burst schedules a frame one period later; the updates posted until then are
+ * applied in that frame, in the order they were posted.
+ * </p>
+ * 
+ * @author David Dossot
+ * @version 2.3
+ */
+public class FrameBatcher
+{
+    /** Applies the updates of a frame. */
+    public interface Stage
+    {
+        /**
+         * Apply the updates of a frame, on the event dispatch thread.
+         * 
+         * @param Vector updates The updates posted since the last frame, oldest first.
+         */
+        void apply(Vector updates);
+    }
+
+    private final ConcurrentLinkedQueue queue = new ConcurrentLinkedQueue();
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+    private final Stage stage;
+    private final Timer timer;
+
+    private long frames = 0;
+    private long updates = 0;
+
+    /**
+     * Creates a new batcher.
+     * 
+     * @param Stage stage Applies the updates.
+     * @param int frameRate Maximum number of frames per second.
+     */
+    public FrameBatcher(final Stage stage, final int frameRate)
+    {
+        this.stage = stage;
+        timer = new Timer(Math.max(1, 1000 / Math.max(1, frameRate)), new ActionListener()
+        {
+            @Override
+            public void actionPerformed(final ActionEvent e)
+            {
+                frame();
+            }
+        });
+        timer.setRepeats(false);
+    }
+
+    /**
+     * Queue an update for the next frame. Can be called from any thread.
+     * 
+     * @param Object update The update, handed to the stage as is.
+     */
+    public void post(final Object update)
+    {
+        queue.add(update);
+        if (scheduled.compareAndSet(false, true)) timer.start();
+    }
+
+    private void frame()
+    {
+        // from now on, a new update schedules the next frame
+        scheduled.set(false);
+
+        final Vector batch = new Vector();
+        Object update;
+        while ((update = queue.poll()) != null)
+            batch.add(update);
+        if (batch.isEmpty()) return;
+
+        frames++;
+        updates += batch.size();
+        stage.apply(batch);
+    }
+
+    /**
+     * Number of frames applied, to be read on the event dispatch thread.
+     * 
+     * @return Value of property frames.
+     */
+    public long getFrames()
+    {
+        return frames;
+    }
+
+    /**
+     * Number of updates applied, to be read on the event dispatch thread.
+     * 
+     * @return Value of property updates.
+     */
+    public long getUpdates()
+    {
+        return updates;
+    }
+}
@@ -0,0 +1,105 @@
+//
+//    Felix the Chat
+//
+//    Copyright (c) 2001-2002 David Dossot
+//
+//    Permission is hereby granted, free of charge, to any person obtaining a copy
+//    of this software and associated documentation files (the "Software"), to deal
+//    in the Software without restriction, including without limitation the rights
+//    to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//    copies of the Software, and to permit persons to whom the Software is
+//    furnished to do so, subject to the following conditions:
+//
+//    The above copyright notice and this permission notice shall be included in
+//    all copies or substantial portions of the Software.
+//
+//    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//    IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//    FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//    AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//    LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//    OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+//    THE SOFTWARE.
+//
+
+package net.dossot.felix.ui;
+
+import java.text.DateFormat;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.ResourceBundle;
+
+import net.dossot.felix.ChatMessage;
+
+/**
+ * HTML formatting of the messages of the standard GUI, kept apart from Swing so that it can be used
+ * (and measured) without a display.
+ * 
+ * @author David Dossot
+ * @version 2.3
+ */
+public class MessageFormatter
+{
+    private final EmoticonMatcher emoticons;
+    private final DateFormat df = DateFormat.getTimeInstance(DateFormat.MEDIUM);
+
+    /**
+     * Creates a new formatter, compiling the emoticons.
+     * 
+     * @param ResourceBundle emoticons Image file of each emoticon text, or null for no emoticons.
+     */
+    public MessageFormatter(final ResourceBundle emoticons)
+    {
+        if (emoticons == null)
+        {
+            this.emoticons = null;
+            return;
+        }
+
+        final Hashtable images = new Hashtable();
+        final Enumeration emoticonKeys = emoticons.getKeys();
+        String emoticonKey;
+        while (emoticonKeys.hasMoreElements())
+        {
+            emoticonKey = (String) emoticonKeys.nextElement();
+            images.put(emoticonKey, "&nbsp;<img src='" + emoticons.getString(emoticonKey) + "'>&nbsp;");
+        }
+        this.emoticons = new EmoticonMatcher(images);
+    }
+
+    /**
+     * Format a message as a line of the chat board, without the line break.
+     * 
+     * @param ChatMessage message The message to format.
+     * @param String htmlColor The color of the contents.
+     * @param String recipientList The recipients to display after the sender, or an empty String.
+     * @return The HTML line.
+     */
+    public String formatHTMLMessage(final ChatMessage message,
+                                    final String htmlColor,
+                                    final String recipientList)
+    {
+        String htmlMessage = "<font size='1' color='gray'>" + message.getSender() + "@"
+                             + df.format(message.getDateSent());
+        if (message.getRoom() != null) htmlMessage += " #" + message.getRoom();
+        // display list of recipients only if it is not a private or cast to all
+        htmlMessage += recipientList;
+        htmlMessage += "</font> <font size='3' color='" + htmlColor + "'><b>" + message.getContents()
+                       + "<b></font>";
+        return htmlMessage;
+    }
+
+    /**
+     * Replace the emoticons of a message by their images, in a single pass: where emoticons overlap,
+     * the longest one is used.
+     * 
+     * @param String message The text typed by the user.
+     * @return The text with HTML images.
+     */
+    public String parseEmoticons(final String message)
+    {
+        if (emoticons == null) return message;
+
+        return emoticons.replace(message);
+    }
+}
@@ -0,0 +1,419 @@
+//
+//    Felix the Chat
+//
+//    Copyright (c) 2001-2002 David Dossot
+//
+//    Permission is hereby granted, free of charge, to any person obtaining a copy
+//    of this software and associated documentation files (the "Software"), to deal
+//    in the Software without restriction, including without limitation the rights
+//    to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//    copies of the Software, and to permit persons to whom the Software is
+//    furnished to do so, subject to the following conditions:
+//
+//    The above copyright notice and this permission notice shall be included in
+//    all copies or substantial portions of the Software.
+//
+//    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//    IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//    FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//    AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//    LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//    OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+//    THE SOFTWARE.
+//
+
+package net.dossot.felix.ui;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Font;
+import java.awt.Graphics;
+import java.awt.Insets;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.swing.JComponent;
+import javax.swing.JLabel;
+import javax.swing.JViewport;
+import javax.swing.RepaintManager;
+import javax.swing.Scrollable;
+import javax.swing.SwingUtilities;
+import javax.swing.plaf.basic.BasicHTML;
+import javax.swing.text.View;
+
+/**
+ * Virtualized chat board of the standard GUI: the messages are kept as HTML lines and only the rows
+ * visible in the viewport are rendered, by one renderer for each kind of message. The HTML views of
+ * the last rows rendered are cached, so that scrolling does not parse the rows in view again.
+ * <p>
+ * The height of a row is measured the first time the row is painted, at the current width, and
+ * estimated as one line until then. The heights are summed in a Fenwick tree, so that finding the row
+ * at a position and the position of a row cost O(log n) whatever the number of messages: scrolling
+ * measures the rows that come into view only, and resizing only resets the heights to the estimate.
+ * </p>
+ * <p>
+ * The methods of the list must be called from the event dispatch thread.
+ * </p>
+ * 
+ * @author David Dossot
+ * @version 2.3
+ */
+public class MessageList extends JComponent implements Scrollable
+{
+    private static final long serialVersionUID = 1L;
+
+    /** System messages. */
+    public final static int SYSTEM = 0;
+    /** Feedback of the messages sent by the user. */
+    public final static int SENT = 1;
+    /** Public messages. */
+    public final static int PUBLIC = 2;
+    /** Private messages. */
+    public final static int PRIVATE = 3;
+    /** Group messages. */
+    public final static int GROUP = 4;
+
+    /** HTML color of the contents of each kind of message. */
+    public final static String[] COLORS = {"red", "gray", "black", "blue", "#DAAB00"};
+
+    private final static int INITIAL_CAPACITY = 1024;
+    private final static int VIEW_CACHE = 256;
+
+    private final JLabel[] renderers = new JLabel[COLORS.length];
+    private final Insets insets;
+    private final int estimate;
+    /** HTML views of the last rows rendered, by row. */
+    private final LinkedHashMap views = new LinkedHashMap(VIEW_CACHE, 0.75f, true)
+    {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry eldest)
+        {
+            return size() > VIEW_CACHE;
+        }
+    };
+
+    private String[] lines;
+    private byte[] types;
+    private int[] heights;
+    /** Fenwick tree of the heights, 1-based. */
+    private int[] tree;
+    private final BitSet measured = new BitSet();
+    private int size = 0;
+    private int measuredWidth = -1;
+    private boolean followPending = false;
+
+    /** Creates an empty list. */
+    public MessageList()
+    {
+        setOpaque(true);
+        setBackground(Color.white);
+
+        for (int i = 0; i < renderers.length; i++)
+        {
+            renderers[i] = new JLabel();
+            renderers[i].setFont(new Font("Arial", Font.PLAIN, 12));
+            renderers[i].setForeground(Color.black);
+        }
+        insets = new Insets(1, 4, 1, 4);
+        estimate = (int) Math.ceil(BasicHTML.createHTMLView(renderers[0], "<html><font size='3'><b>X</b></font>")
+                .getPreferredSpan(View.Y_AXIS))
+                   + insets.top + insets.bottom;
+
+        clear();
+    }
+
+    /**
+     * Add a message at the end of the list, and scroll to it if the end of the list was in view.
+     * 
+     * @param String htmlLine The message, formatted as an HTML line.
+     * @param int type The kind of message.
+     * @return The row of the message.
+     */
+    public int append(final String htmlLine, final int type)
+    {
+        final boolean atBottom = isAtBottom();
+
+        if (size == lines.length) grow();
+        lines[size] = htmlLine;
+        types[size] = (byte) type;
+        heights[size] = estimate;
+        // the node of the new row covers the rows after its parent, plus itself
+        final int node = size + 1;
+        tree[node] = estimate + top(node - 1) - top(node - (node & -node));
+        size++;
+
+        revalidate();
+        if (atBottom) scheduleFollow();
+        repaint();
+        return size - 1;
+    }
+
+    /**
+     * Change a message of the list, which is measured again the next time it is painted.
+     * 
+     * @param int row The row of the message.
+     * @param String htmlLine The new message, formatted as an HTML line.
+     * @param int type The new kind of message.
+     */
+    public void setLine(final int row, final String htmlLine, final int type)
+    {
+        if ((row < 0) || (row >= size)) return;
+
+        lines[row] = htmlLine;
+        types[row] = (byte) type;
+        measured.clear(row);
+        views.remove(Integer.valueOf(row));
+        repaint();
+    }
+
+    /** Remove all the messages. */
+    public void clear()
+    {
+        lines = new String[INITIAL_CAPACITY];
+        types = new byte[INITIAL_CAPACITY];
+        heights = new int[INITIAL_CAPACITY];
+        tree = new int[INITIAL_CAPACITY + 1];
+        measured.clear();
+        views.clear();
+        size = 0;
+
+        revalidate();
+        repaint();
+    }
+
+    /**
+     * Number of messages in the list.
+     * 
+     * @return The number of rows.
+     */
+    public int getMessageCount()
+    {
+        return size;
+    }
+
+    /**
+     * Find the row displayed at a position.
+     * 
+     * @param int y The vertical position in the list.
+     * @return The row, or -1 if the list is empty.
+     */
+    public int rowAt(final int y)
+    {
+        if (size == 0) return -1;
+
+        int row = 0;
+        int rest = y;
+        for (int step = Integer.highestOneBit(size); step > 0; step >>= 1)
+        {
+            if ((row + step <= size) && (tree[row + step] <= rest))
+            {
+                row += step;
+                rest -= tree[row];
+            }
+        }
+        return Math.min(row, size - 1);
+    }
+
+    /**
+     * Position of a row.
+     * 
+     * @param int row The row, or the size of the list for the total height.
+     * @return The vertical position of the top of the row.
+     */
+    public int top(final int row)
+    {
+        int sum = 0;
+        for (int i = row; i > 0; i -= i & -i)
+            sum += tree[i];
+        return sum;
+    }
+
+    @Override
+    public void setBounds(final int x, final int y, final int width, final int height)
+    {
+        if ((width != measuredWidth) && (width > 0))
+        {
+            // keep the same message at the top of the view, or the end of the list in view
+            final int anchor = isAtBottom() ? -1 : rowAt(getVisibleRect().y);
+            resetHeights(width);
+            revalidate();
+            if (anchor < 0)
+                scheduleFollow();
+            else
+                scheduleScroll(anchor);
+        }
+        super.setBounds(x, y, width, height);
+    }
+
+    @Override
+    public Dimension getPreferredSize()
+    {
+        return new Dimension(estimate * 10, top(size));
+    }
+
+    @Override
+    protected void paintComponent(final Graphics g)
+    {
+        final Rectangle clip = g.getClipBounds();
+        g.setColor(getBackground());
+        g.fillRect(clip.x, clip.y, clip.width, clip.height);
+        if ((size == 0) || (getWidth() <= 0)) return;
+
+        final boolean atBottom = isAtBottom();
+        final int height = top(size);
+        final int width = Math.max(1, getWidth() - insets.left - insets.right);
+        int row = rowAt(clip.y);
+        int y = top(row);
+        while ((row < size) && (y < clip.y + clip.height))
+        {
+            final View view = getView(row);
+            if (!measured.get(row))
+            {
+                view.setSize(width, 0);
+                setHeight(row, (int) Math.ceil(view.getPreferredSpan(View.Y_AXIS)) + insets.top + insets.bottom);
+                measured.set(row);
+            }
+            view.paint(g, new Rectangle(insets.left, y + insets.top, width, heights[row] - insets.top
+                                                                             - insets.bottom));
+            y += heights[row];
+            row++;
+        }
+
+        // the rows in view were taller or shorter than estimated
+        if (top(size) != height)
+        {
+            revalidate();
+            if (atBottom) scheduleFollow();
+        }
+    }
+
+    @Override
+    public Dimension getPreferredScrollableViewportSize()
+    {
+        return getPreferredSize();
+    }
+
+    @Override
+    public int getScrollableUnitIncrement(final Rectangle visibleRect, final int orientation, final int direction)
+    {
+        return estimate;
+    }
+
+    @Override
+    public int getScrollableBlockIncrement(final Rectangle visibleRect, final int orientation, final int direction)
+    {
+        return Math.max(estimate, visibleRect.height - estimate);
+    }
+
+    @Override
+    public boolean getScrollableTracksViewportWidth()
+    {
+        return true;
+    }
+
+    @Override
+    public boolean getScrollableTracksViewportHeight()
+    {
+        return (getParent() instanceof JViewport) && (getParent().getHeight() > top(size));
+    }
+
+    /** The HTML view of a row, parsed by the renderer of its kind of message. */
+    private View getView(final int row)
+    {
+        final Integer key = Integer.valueOf(row);
+        View view = (View) views.get(key);
+        if (view == null)
+        {
+            view = BasicHTML.createHTMLView(renderers[types[row]], "<html>" + lines[row]);
+            views.put(key, view);
+        }
+        return view;
+    }
+
+    private void setHeight(final int row, final int height)
+    {
+        final int delta = height - heights[row];
+        if (delta == 0) return;
+
+        heights[row] = height;
+        for (int i = row + 1; i <= size; i += i & -i)
+            tree[i] += delta;
+    }
+
+    /** Forget the measured heights, which depend on the width, and build the tree again in O(n). */
+    private void resetHeights(final int width)
+    {
+        measuredWidth = width;
+        measured.clear();
+        for (int i = 1; i <= size; i++)
+            tree[i] = 0;
+        for (int i = 1; i <= size; i++)
+        {
+            heights[i - 1] = estimate;
+            tree[i] += estimate;
+            final int parent = i + (i & -i);
+            if (parent <= size) tree[parent] += tree[i];
+        }
+    }
+
+    private void grow()
+    {
+        final int capacity = lines.length * 2;
+        final String[] newLines = new String[capacity];
+        System.arraycopy(lines, 0, newLines, 0, size);
+        lines = newLines;
+        final byte[] newTypes = new byte[capacity];
+        System.arraycopy(types, 0, newTypes, 0, size);
+        types = newTypes;
+        final int[] newHeights = new int[capacity];
+        System.arraycopy(heights, 0, newHeights, 0, size);
+        heights = newHeights;
+        // the node of a row only depends on the rows before it: the tree is kept as is
+        final int[] newTree = new int[capacity + 1];
+        System.arraycopy(tree, 0, newTree, 0, size + 1);
+        tree = newTree;
+    }
+
+    private boolean isAtBottom()
+    {
+        final Rectangle visible = getVisibleRect();
+        return visible.y + visible.height >= getHeight() - 1;
+    }
+
+    /** Scroll to the end of the list once the pending layout is done. */
+    private void scheduleFollow()
+    {
+        if (followPending) return;
+
+        followPending = true;
+        SwingUtilities.invokeLater(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                followPending = false;
+                RepaintManager.currentManager(MessageList.this).validateInvalidComponents();
+                scrollRectToVisible(new Rectangle(0, Math.max(0, getHeight() - 1), 1, 1));
+            }
+        });
+    }
+
+    private void scheduleScroll(final int row)
+    {
+        SwingUtilities.invokeLater(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                RepaintManager.currentManager(MessageList.this).validateInvalidComponents();
+                if ((getParent() instanceof JViewport) && (row < size))
+                    ((JViewport) getParent()).setViewPosition(new Point(0, top(row)));
+            }
+        });
+    }
+}
@@ -0,0 +1,104 @@
+//
+//    Felix the Chat
+//
+//    Copyright (c) 2001-2002 David Dossot
+//
+//    Permission is hereby granted, free of charge, to any person obtaining a copy
+//    of this software and associated documentation files (the "Software"), to deal
+//    in the Software without restriction, including without limitation the rights
+//    to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//    copies of the Software, and to permit persons to whom the Software is
+//    furnished to do so, subject to the following conditions:
+//
+//    The above copyright notice and this permission notice shall be included in
+//    all copies or substantial portions of the Software.
+//
+//    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//    IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//    FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//    AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//    LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//    OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+//    THE SOFTWARE.
+//
+
+package net.dossot.felix.ui;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Local cache file of the messages of the chat board, so that the messages evicted from the board can
+ * be paged back in. Each message is a record of its UTF-8 bytes between two copies of their length,
+ * so that the records can be read forward and backward without keeping any index in memory.
+ * <p>
+ * The file is temporary: it is deleted when the client exits.
+ * </p>
+ * 
+ * @author David Dossot
+ * @version 2.3
+ */
+public class ScrollbackCache
+{
+    private final RandomAccessFile file;
+
+    /** Creates an empty cache file. */
+    public ScrollbackCache() throws IOException
+    {
+        final File path = File.createTempFile("felix-scrollback-", ".cache");
+        path.deleteOnExit();
+        file = new RandomAccessFile(path, "rw");
+    }
+
+    /**
+     * Add a message at the end of the cache.
+     * 
+     * @param String html The message.
+     * @return The position of its record.
+     */
+    public long append(final String html) throws IOException
+    {
+        final byte[] bytes = html.getBytes("UTF-8");
+        final long position = file.length();
+        file.seek(position);
+        file.writeInt(bytes.length);
+        file.write(bytes);
+        file.writeInt(bytes.length);
+        return position;
+    }
+
+    /**
+     * Read a message.
+     * 
+     * @param long position The position of its record.
+     * @return The message.
+     */
+    public String read(final long position) throws IOException
+    {
+        file.seek(position);
+        final byte[] bytes = new byte[file.readInt()];
+        file.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    /**
+     * Find the record before another one.
+     * 
+     * @param long position The position of a record.
+     * @return The position of the previous record, or -1 if it is the first one.
+     */
+    public long previous(final long position) throws IOException
+    {
+        if (position <= 0) return -1;
+
+        file.seek(position - 4);
+        return position - 8 - file.readInt();
+    }
+
+    /** Remove all the messages. */
+    public void clear() throws IOException
+    {
+        file.setLength(0);
+    }
+}
@@ -0,0 +1,197 @@
+//
+//    Felix the Chat
+//
+//    Copyright (c) 2001-2002 David Dossot
+//
+//    Permission is hereby granted, free of charge, to any person obtaining a copy
+//    of this software and associated documentation files (the "Software"), to deal
+//    in the Software without restriction, including without limitation the rights
+//    to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//    copies of the Software, and to permit persons to whom the Software is
+//    furnished to do so, subject to the following conditions:
+//
+//    The above copyright notice and this permission notice shall be included in
+//    all copies or substantial portions of the Software.
+//
+//    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//    IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//    FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//    AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//    LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//    OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+//    THE SOFTWARE.
+//
+
+package net.dossot.felix.ui;
+
+import java.awt.Toolkit;
+import java.net.URL;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.Clip;
+
+import net.dossot.felix.TokenBucket;
+
+/**
+ * Notification sounds of the standard GUI, played by a single thread of their own: asking for a sound
+ * never blocks, whatever thread asks for it.
+ * <p>
+ * The sounds are decoded and loaded into clips up front, or played as a number of system beeps. Each
+ * sound is rate limited, and the queue of sounds to play is short: during a flood of messages, the
+ * extra sounds are dropped instead of being played long after the messages.
+ * </p>
+ * 
+ * @author David Dossot
+ * @version 2.3
+ */
+public class SoundPlayer extends Thread
+{
+    private final static int QUEUE_SIZE = 4;
+    private final static long BEEP_DELAY = 150;
+
+    private final BlockingQueue queue = new ArrayBlockingQueue(QUEUE_SIZE);
+    private final Hashtable clips = new Hashtable();
+    private final Hashtable beeps = new Hashtable();
+    private final Hashtable limits = new Hashtable();
+    private final double rate;
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * Creates and starts the player.
+     * 
+     * @param double rate Maximum number of times per second each sound is played.
+     */
+    public SoundPlayer(final double rate)
+    {
+        super("ClientSounds");
+        setDaemon(true);
+        this.rate = rate;
+        start();
+    }
+
+    /**
+     * Decode a sound and load it into a clip.
+     * 
+     * @param String name Name of the sound.
+     * @param URL url The sound file.
+     * @return False if the sound could not be loaded, or if no audio line is available.
+     */
+    public boolean load(final String name, final URL url)
+    {
+        if (url == null) return false;
+
+        try
+        {
+            AudioInputStream sound = AudioSystem.getAudioInputStream(url);
+            final AudioFormat format = sound.getFormat();
+            if (!AudioFormat.Encoding.PCM_SIGNED.equals(format.getEncoding()))
+            {
+                sound = AudioSystem.getAudioInputStream(new AudioFormat(AudioFormat.Encoding.PCM_SIGNED,
+                    format.getSampleRate(), 16, format.getChannels(), format.getChannels() * 2,
+                    format.getSampleRate(), false), sound);
+            }
+            final Clip clip = AudioSystem.getClip();
+            clip.open(sound);
+            clips.put(name, clip);
+            return true;
+        }
+        catch (final Exception e)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Play a sound as system beeps.
+     * 
+     * @param String name Name of the sound.
+     * @param int count Number of beeps.
+     */
+    public void setBeeps(final String name, final int count)
+    {
+        beeps.put(name, Integer.valueOf(count));
+    }
+
+    /**
+     * Ask for a sound to be played, without waiting for it.
+     * 
+     * @param String name Name of the sound.
+     * @return False if the sound has been dropped: played too often, or too many sounds waiting.
+     */
+    public boolean play(final String name)
+    {
+        TokenBucket limit;
+        synchronized (limits)
+        {
+            limit = (TokenBucket) limits.get(name);
+            if (limit == null)
+            {
+                limit = new TokenBucket(rate, 1);
+                limits.put(name, limit);
+            }
+        }
+
+        if ((limit.tryTake(1)) && (queue.offer(name))) return true;
+
+        dropped.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Number of sounds dropped.
+     * 
+     * @return Value of property dropped.
+     */
+    public long getDropped()
+    {
+        return dropped.get();
+    }
+
+    /** Play the sounds, one after the other. */
+    @Override
+    public void run()
+    {
+        try
+        {
+            while (true)
+            {
+                final String name = (String) queue.take();
+                final Clip clip = (Clip) clips.get(name);
+                if (clip != null)
+                {
+                    clip.stop();
+                    clip.setFramePosition(0);
+                    clip.start();
+                }
+                else if (beeps.get(name) != null)
+                {
+                    final int count = ((Integer) beeps.get(name)).intValue();
+                    for (int i = 0; i < count; i++)
+                    {
+                        if (i > 0) Thread.sleep(BEEP_DELAY);
+                        Toolkit.getDefaultToolkit().beep();
+                    }
+                }
+            }
+        }
+        catch (final InterruptedException e)
+        {
+            // closed
+        }
+    }
+
+    /** Stop playing and release the clips. */
+    public void close()
+    {
+        interrupt();
+        for (final Enumeration e = clips.elements(); e.hasMoreElements();)
+            ((Clip) e.nextElement()).close();
+    }
+}
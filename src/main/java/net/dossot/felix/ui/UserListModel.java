@@ -0,0 +1,123 @@
+//
+//    Felix the Chat
+//
+//    Copyright (c) 2001-2002 David Dossot
+//
+//    Permission is hereby granted, free of charge, to any person obtaining a copy
+//    of this software and associated documentation files (the "Software"), to deal
+//    in the Software without restriction, including without limitation the rights
+//    to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//    copies of the Software, and to permit persons to whom the Software is
+//    furnished to do so, subject to the following conditions:
+//
+//    The above copyright notice and this permission notice shall be included in
+//    all copies or substantial portions of the Software.
+//
+//    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//    IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//    FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//    AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//    LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//    OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+//    THE SOFTWARE.
+//
+
+package net.dossot.felix.ui;
+
+import java.util.Hashtable;
+import java.util.Vector;
+
+import javax.swing.AbstractListModel;
+
+/**
+ * List of the loggued users of the standard GUI, except the user of the client. A new list of users
+ * is applied as a difference: the users who left are removed and the new ones are added at the end,
+ * with one event per run of consecutive rows. The other rows keep their place, so that the selection
+ * of the list follows them without being stored and restored.
+ * <p>
+ * The users are looked up by name in a hash table: applying a list costs O(n), whatever the number of
+ * selected users. The methods of the model must be called from the event dispatch thread.
+ * </p>
+ * 
+ * @author David Dossot
+ * @version 2.3
+ */
+public class UserListModel extends AbstractListModel
+{
+    private static final long serialVersionUID = 1L;
+
+    private final String excluded;
+    private final Vector users = new Vector();
+    private final Hashtable members = new Hashtable();
+
+    /**
+     * Creates an empty list.
+     * 
+     * @param String excluded The name of the user of the client, never listed.
+     */
+    public UserListModel(final String excluded)
+    {
+        this.excluded = excluded;
+    }
+
+    @Override
+    public int getSize()
+    {
+        return users.size();
+    }
+
+    @Override
+    public Object getElementAt(final int index)
+    {
+        return users.get(index);
+    }
+
+    /**
+     * Apply a new list of users.
+     * 
+     * @param Vector fullList The names of all the loggued users.
+     * @return The change of the number of users.
+     */
+    public int update(final Vector fullList)
+    {
+        final int before = users.size();
+        final Hashtable loggued = new Hashtable(Math.max(16, fullList.size() * 2));
+        for (int i = 0; i < fullList.size(); i++)
+            loggued.put(fullList.get(i), Boolean.TRUE);
+
+        // remove the users who left, from the end so that the indexes of the events stay valid
+        int end = users.size() - 1;
+        while (end >= 0)
+        {
+            if (loggued.containsKey(users.get(end)))
+            {
+                end--;
+                continue;
+            }
+
+            int start = end;
+            while ((start > 0) && (!loggued.containsKey(users.get(start - 1))))
+                start--;
+            for (int i = start; i <= end; i++)
+                members.remove(users.get(i));
+            users.subList(start, end + 1).clear();
+            fireIntervalRemoved(this, start, end);
+            end = start - 1;
+        }
+
+        // add the new ones at the end
+        final int first = users.size();
+        for (int i = 0; i < fullList.size(); i++)
+        {
+            final Object user = fullList.get(i);
+            if ((!user.equals(excluded)) && (!members.containsKey(user)))
+            {
+                members.put(user, Boolean.TRUE);
+                users.add(user);
+            }
+        }
+        if (users.size() > first) fireIntervalAdded(this, first, users.size() - 1);
+
+        return users.size() - before;
+    }
+}